@@ -0,0 +1,33 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Canned ELM327 output used as benchmark input
+ */
+final class AdapterTraffic {
+    /** One single-PID answer per prompt, spaces on, as with default adapter settings */
+    static final String SINGLE_PID = "41 0D 3C\r\r>";
+
+    /** A six-PID request answered in one CAN message, spaces off */
+    static final String MULTI_PID = "410D3C0C1AF8110446560579\r\r>";
+
+    /** VIN (mode 09 PID 02) as an ISO-TP multi-frame response */
+    static final String MULTI_FRAME = "014\r0: 49 02 01 31 44 34\r1: 47 50 30 30 52 35 35\r2: 42 31 32 33 34 35 36\r\r>";
+
+    private AdapterTraffic() {
+    }
+
+    static byte[] bytes(String scenario) {
+        switch (scenario) {
+            case "singlePid":
+                return SINGLE_PID.getBytes(StandardCharsets.US_ASCII);
+            case "multiPid":
+                return MULTI_PID.getBytes(StandardCharsets.US_ASCII);
+            case "multiFrame":
+                return MULTI_FRAME.getBytes(StandardCharsets.US_ASCII);
+            default:
+                throw new IllegalArgumentException(scenario);
+        }
+    }
+}
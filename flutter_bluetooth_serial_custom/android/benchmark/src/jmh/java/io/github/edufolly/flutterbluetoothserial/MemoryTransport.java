@@ -0,0 +1,74 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * In-memory {@link SerialTransport}: reads replay a canned adapter output
+ * forever, at most {@code maxRead} bytes per call like an RFCOMM socket
+ * delivering small packets; writes are counted and discarded.
+ */
+class MemoryTransport implements SerialTransport {
+    private final byte[] replay;
+    private final int maxRead;
+    private int position = 0;
+    long bytesWritten = 0;
+
+    MemoryTransport(byte[] replay, int maxRead) {
+        this.replay = replay;
+        this.maxRead = maxRead;
+    }
+
+    private final InputStream inputStream = new InputStream() {
+        @Override
+        public int read() {
+            int b = replay[position] & 0xFF;
+            position = (position + 1) % replay.length;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            int count = Math.min(Math.min(len, maxRead), replay.length - position);
+            System.arraycopy(replay, position, b, off, count);
+            position = (position + count) % replay.length;
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return replay.length - position;
+        }
+    };
+
+    private final OutputStream outputStream = new OutputStream() {
+        @Override
+        public void write(int b) {
+            bytesWritten++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            bytesWritten += len;
+        }
+    };
+
+    @Override
+    public String getAddress() {
+        return "memory";
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return inputStream;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return outputStream;
+    }
+
+    @Override
+    public void close() {
+    }
+}
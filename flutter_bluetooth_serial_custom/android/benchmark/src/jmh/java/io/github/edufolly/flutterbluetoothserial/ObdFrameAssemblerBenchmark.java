@@ -0,0 +1,58 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing one complete adapter answer (up to and including the prompt) into
+ * ObdResponses, fed in fragments of {@code chunk} bytes
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ObdFrameAssemblerBenchmark {
+    @Param({"singlePid", "multiPid", "multiFrame"})
+    public String scenario;
+
+    @Param({"4", "20", "1024"})
+    public int chunk;
+
+    private byte[] answer;
+    private ObdFrameAssembler assembler;
+
+    @Setup
+    public void setUp(Blackhole blackhole) {
+        answer = AdapterTraffic.bytes(scenario);
+        assembler = new ObdFrameAssembler(new ObdFrameAssembler.Listener() {
+            @Override
+            public void onResponse(ObdResponse response) {
+                blackhole.consume(response);
+            }
+
+            @Override
+            public void onMessage(String message) {
+                blackhole.consume(message);
+            }
+
+            @Override
+            public void onPrompt() {
+            }
+        });
+    }
+
+    @Benchmark
+    public void parseAnswer() {
+        for (int offset = 0; offset < answer.length; offset += chunk) {
+            assembler.feed(answer, offset, Math.min(chunk, answer.length - offset));
+        }
+    }
+}
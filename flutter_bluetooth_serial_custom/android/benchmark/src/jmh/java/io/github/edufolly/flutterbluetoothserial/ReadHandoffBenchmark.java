@@ -0,0 +1,127 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+import android.os.Handler;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import io.flutter.plugin.common.EventChannel;
+
+/**
+ * What the reader thread pays per read. With {@code handoff=direct} it
+ * batches and frames every chunk itself, as before the ReadRing; with
+ * {@code handoff=ring} it only reads into a ring slot and publishes it, and a
+ * dispatcher thread batches and frames behind it. Compare the SampleTime
+ * percentiles: the ring keeps the batching lock and the framing listeners off
+ * the reader's path.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ReadHandoffBenchmark {
+    @Param({"singlePid", "multiFrame"})
+    public String scenario;
+
+    @Param({"20"})
+    public int maxRead;
+
+    @Param({"8"})
+    public int flushEvery;
+
+    @Param({"direct", "ring"})
+    public String handoff;
+
+    private BluetoothConnection connection;
+    private DataBatcher batcher;
+    private ObdFrameAssembler assembler;
+    private final byte[] buffer = new byte[BluetoothConnection.DEFAULT_READ_BUFFER_SIZE];
+    private int reads = 0;
+    private long consumed = 0;
+
+    private ReadRing ring;
+    private Thread dispatcher;
+
+    @Setup
+    @SuppressWarnings("deprecation") // Looper-less Handler, see src/shims
+    public void setUp() throws IOException {
+        connection = new BluetoothConnection(new MemoryTransport(AdapterTraffic.bytes(scenario), maxRead));
+        batcher = new DataBatcher(new Handler(), DataBatcher.DEFAULT_MAX_BATCH_BYTES, DataBatcher.DEFAULT_MAX_LATENCY_MS);
+        batcher.onListen(null, new EventChannel.EventSink() {
+            @Override
+            public void success(Object event) {
+                consumed++;
+            }
+
+            @Override
+            public void error(String errorCode, String errorMessage, Object errorDetails) {
+            }
+
+            @Override
+            public void endOfStream() {
+            }
+        });
+        assembler = new ObdFrameAssembler(new ObdFrameAssembler.Listener() {
+            @Override
+            public void onResponse(ObdResponse response) {
+                batcher.addResponse(response);
+            }
+
+            @Override
+            public void onMessage(String message) {
+                consumed++;
+            }
+
+            @Override
+            public void onPrompt() {
+            }
+        });
+
+        if (handoff.equals("ring")) {
+            ring = new ReadRing(ReadRing.DEFAULT_SLOTS, BluetoothConnection.DEFAULT_READ_BUFFER_SIZE);
+            dispatcher = new Thread(() -> ring.drain((data, offset, length, afterGap) -> {
+                if (afterGap) {
+                    assembler.reset();
+                }
+                process(data, offset, length);
+            }), "bench-dispatch");
+            dispatcher.start();
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        if (ring != null) {
+            ring.close();
+            dispatcher.join();
+        }
+    }
+
+    @Benchmark
+    public void read() throws IOException {
+        if (ring == null) {
+            int bytesRead = connection.read(buffer, 0, buffer.length);
+            process(buffer, 0, bytesRead);
+        } else {
+            byte[] slot = ring.claim();
+            ring.publish(connection.read(slot, 0, slot.length));
+        }
+    }
+
+    private void process(byte[] data, int offset, int length) {
+        batcher.addData(data, offset, length);
+        assembler.feed(data, offset, length);
+        if (++reads % flushEvery == 0) {
+            batcher.flush();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+import android.os.Handler;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import io.flutter.plugin.common.EventChannel;
+
+/**
+ * One chunk through the read path, reader and dispatcher thread together
+ * (see {@link ReadHandoffBenchmark} for the handoff between them): read into a
+ * buffer, queue the bytes on the DataBatcher and frame them into responses. The batch is flushed every {@code flushEvery} reads in place
+ * of the main-thread latency timer, so batch construction is included.
+ *
+ * With {@code capture=on} every read is also appended to a RawCapture ring
+ * file, as with startCapture.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ReadPathBenchmark {
+    @Param({"singlePid", "multiPid", "multiFrame"})
+    public String scenario;
+
+    @Param({"20"})
+    public int maxRead;
+
+    @Param({"8"})
+    public int flushEvery;
+
+    @Param({"off", "on"})
+    public String capture;
+
+    private BluetoothConnection connection;
+    private DataBatcher batcher;
+    private ObdFrameAssembler assembler;
+    private final byte[] buffer = new byte[BluetoothConnection.DEFAULT_READ_BUFFER_SIZE];
+    private int reads = 0;
+    private RawCapture rawCapture;
+    private File captureFile;
+
+    @Setup
+    @SuppressWarnings("deprecation") // Looper-less Handler, see src/shims
+    public void setUp(Blackhole blackhole) throws IOException {
+        connection = new BluetoothConnection(new MemoryTransport(AdapterTraffic.bytes(scenario), maxRead));
+        if (capture.equals("on")) {
+            captureFile = File.createTempFile("readpath", ".rawcap");
+            rawCapture = RawCapture.open(captureFile, RawCapture.DEFAULT_CAPACITY_BYTES);
+            connection.setCapture(rawCapture);
+        }
+        batcher = new DataBatcher(new Handler(), DataBatcher.DEFAULT_MAX_BATCH_BYTES, DataBatcher.DEFAULT_MAX_LATENCY_MS);
+        batcher.onListen(null, new EventChannel.EventSink() {
+            @Override
+            public void success(Object event) {
+                blackhole.consume(event);
+            }
+
+            @Override
+            public void error(String errorCode, String errorMessage, Object errorDetails) {
+            }
+
+            @Override
+            public void endOfStream() {
+            }
+        });
+        assembler = new ObdFrameAssembler(new ObdFrameAssembler.Listener() {
+            @Override
+            public void onResponse(ObdResponse response) {
+                batcher.addResponse(response);
+            }
+
+            @Override
+            public void onMessage(String message) {
+                blackhole.consume(message);
+            }
+
+            @Override
+            public void onPrompt() {
+            }
+        });
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        if (rawCapture != null) {
+            rawCapture.close();
+            captureFile.delete();
+        }
+    }
+
+    @Benchmark
+    public void readBatchAndFrame() throws IOException {
+        int bytesRead = connection.read(buffer, 0, buffer.length);
+        batcher.addData(buffer, 0, bytesRead);
+        assembler.feed(buffer, 0, bytesRead);
+        if (++reads % flushEvery == 0) {
+            batcher.flush();
+        }
+    }
+}
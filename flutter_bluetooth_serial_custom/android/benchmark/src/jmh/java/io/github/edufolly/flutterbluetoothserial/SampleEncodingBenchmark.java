@@ -0,0 +1,98 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+import android.os.Handler;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import io.flutter.plugin.common.EventChannel;
+import io.flutter.plugin.common.StandardMessageCodec;
+
+/**
+ * Cost of getting one batch of mode 01 samples ready for the platform channel:
+ * response maps on the data EventChannel, encoded by StandardMessageCodec as
+ * the channel would, against binary records from SampleStream, copied out of
+ * the direct buffer as the messenger would (up to its position).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SampleEncodingBenchmark {
+    private static final int[] PIDS = {
+            ObdPids.VEHICLE_SPEED, ObdPids.ENGINE_RPM, ObdPids.THROTTLE_POSITION,
+            ObdPids.ENGINE_LOAD, ObdPids.COOLANT_TEMPERATURE, ObdPids.MAF_RATE,
+    };
+
+    // Samples per batch: 10 Hz x 6 PIDs with a 100 ms flush is 6, a stalled main thread many more
+    @Param({"6", "60"})
+    public int samplesPerBatch;
+
+    private ObdResponse[] responses;
+    private DataBatcher batcher;
+    private SampleStream sampleStream;
+    private final byte[] copied = new byte[SampleStream.HEADER_SIZE + 64 * SampleStream.RECORD_SIZE];
+    private long timestampNanos = 0;
+
+    @Setup
+    @SuppressWarnings("deprecation") // Looper-less Handler, see src/shims
+    public void setUp(Blackhole blackhole) {
+        responses = new ObdResponse[samplesPerBatch];
+        for (int i = 0; i < samplesPerBatch; i++) {
+            int pid = PIDS[i % PIDS.length];
+            byte[] data = new byte[ObdPids.dataLength(pid)];
+            data[0] = (byte) (i * 7);
+            responses[i] = new ObdResponse(ObdPids.MODE_CURRENT_DATA, pid, data);
+        }
+
+        Handler handler = new Handler();
+        batcher = new DataBatcher(handler, DataBatcher.DEFAULT_MAX_BATCH_BYTES, DataBatcher.DEFAULT_MAX_LATENCY_MS);
+        batcher.onListen(null, new EventChannel.EventSink() {
+            @Override
+            public void success(Object event) {
+                blackhole.consume(StandardMessageCodec.INSTANCE.encodeMessage(event));
+            }
+
+            @Override
+            public void error(String errorCode, String errorMessage, Object errorDetails) {
+            }
+
+            @Override
+            public void endOfStream() {
+            }
+        });
+
+        sampleStream = new SampleStream(1, message -> {
+            // The messenger sends bytes [0, position), not the remaining ones
+            int length = message.position();
+            message.flip();
+            message.get(copied, 0, Math.min(length, copied.length));
+            blackhole.consume(copied);
+        }, handler, DataBatcher.DEFAULT_MAX_LATENCY_MS, SampleStream.DEFAULT_CAPACITY);
+    }
+
+    @Benchmark
+    public void responseMaps() {
+        for (ObdResponse response : responses) {
+            batcher.addResponse(response);
+        }
+        batcher.flush();
+    }
+
+    @Benchmark
+    public void binaryRecords() {
+        for (ObdResponse response : responses) {
+            sampleStream.onSample(timestampNanos++, response.getPid(), response.getRawValue());
+        }
+        sampleStream.flush();
+    }
+}
@@ -0,0 +1,56 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * BluetoothConnection read and write overhead (stats, buffering) over an
+ * in-memory transport
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SerialIoBenchmark {
+    /** Bytes the transport hands out per read, as RFCOMM packets would */
+    @Param({"16", "64", "1024"})
+    public int maxRead;
+
+    private BluetoothConnection connection;
+    private final byte[] buffer = new byte[BluetoothConnection.DEFAULT_READ_BUFFER_SIZE];
+    private final byte[] command = "010D0C11\r".getBytes(StandardCharsets.US_ASCII);
+
+    @Setup
+    public void setUp() throws IOException {
+        byte[] traffic = AdapterTraffic.bytes("multiPid");
+        byte[] replay = new byte[traffic.length * 64];
+        for (int i = 0; i < 64; i++) {
+            System.arraycopy(traffic, 0, replay, i * traffic.length, traffic.length);
+        }
+        connection = new BluetoothConnection(new MemoryTransport(replay, maxRead));
+    }
+
+    @Benchmark
+    public int readIntoBuffer() throws IOException {
+        return connection.read(buffer, 0, buffer.length);
+    }
+
+    @Benchmark
+    public byte[] readAllocating() throws IOException {
+        return connection.read();
+    }
+
+    @Benchmark
+    public void write() throws IOException {
+        connection.write(command);
+    }
+}
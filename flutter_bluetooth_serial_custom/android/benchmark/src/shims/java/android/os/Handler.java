@@ -0,0 +1,27 @@
+package android.os;
+
+/**
+ * Run-time stand-in for android.os.Handler with no looper behind it: posts run
+ * inline as if the main thread picked them up at once, delayed posts are
+ * dropped and benchmarks drive timer-based work (e.g. DataBatcher.flush())
+ * themselves at the cadence being modelled.
+ */
+public class Handler {
+    public Handler() {
+    }
+
+    public final boolean post(Runnable r) {
+        r.run();
+        return true;
+    }
+
+    public final boolean postDelayed(Runnable r, long delayMillis) {
+        return true;
+    }
+
+    public final void removeCallbacks(Runnable r) {
+    }
+
+    public final void removeCallbacksAndMessages(Object token) {
+    }
+}
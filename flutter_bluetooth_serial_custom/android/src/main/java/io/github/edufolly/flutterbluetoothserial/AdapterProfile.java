@@ -0,0 +1,209 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * What the capability probe learned about an adapter and the vehicle behind
+ * it, and the per-device cache of it so later connects skip the probe.
+ */
+public class AdapterProfile {
+    private static final String PREFS_NAME = "flutter_bluetooth_serial.adapters";
+
+    // Bumped when the stored format changes; older entries are probed again
+    private static final String FORMAT = "1";
+
+    private static final ConcurrentHashMap<String, AdapterProfile> profiles = new ConcurrentHashMap<>();
+
+    private final String adapterId;
+    private final String protocol;
+    // Bit n set when mode 01 PID n is supported; PIDs 0x00-0xFF
+    private final long[] supportedPids;
+    private final boolean pidsKnown;
+    private final boolean cached;
+
+    AdapterProfile(String adapterId, String protocol, long[] supportedPids, boolean pidsKnown, boolean cached) {
+        this.adapterId = adapterId;
+        this.protocol = protocol;
+        this.supportedPids = supportedPids;
+        this.pidsKnown = pidsKnown;
+        this.cached = cached;
+    }
+
+    /**
+     * Adapter identification as printed by ATI, e.g. "ELM327 v1.5"
+     */
+    public String getAdapterId() {
+        return adapterId;
+    }
+
+    /**
+     * Whether the supported PID bitmaps were read from the ECU
+     */
+    public boolean arePidsKnown() {
+        return pidsKnown;
+    }
+
+    /**
+     * Whether the ECU reported the mode 01 PID as supported; true for every
+     * PID when the bitmaps could not be read
+     */
+    public boolean supports(int pid) {
+        if (!pidsKnown) {
+            return true;
+        }
+        // The support bitmap PIDs themselves are always answerable
+        if (pid == ObdPids.SUPPORTED_PIDS_01_20) {
+            return true;
+        }
+        return pid > 0 && pid < 256 && (supportedPids[pid >> 6] & (1L << (pid & 63))) != 0;
+    }
+
+    /**
+     * The support bitmap of PIDs base+1 to base+32 as the ECU reports it,
+     * bit 31 for base+1
+     */
+    long supportedBitmap(int base) {
+        long bitmap = 0;
+        for (int bit = 0; bit < 32; bit++) {
+            int pid = base + 1 + bit;
+            if (pid < 256 && (supportedPids[pid >> 6] & (1L << (pid & 63))) != 0) {
+                bitmap |= 1L << (31 - bit);
+            }
+        }
+        return bitmap;
+    }
+
+    /**
+     * This cached profile with the PIDs taken as unknown, for a connect that
+     * could not confirm they still hold
+     */
+    AdapterProfile unconfirmed() {
+        return new AdapterProfile(adapterId, protocol, supportedPids, false, true);
+    }
+
+    /**
+     * Whether this profile came from the cache instead of a probe
+     */
+    public boolean isCached() {
+        return cached;
+    }
+
+    /**
+     * The profile as sent to Dart by getAdapterProfile
+     */
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("adapter", adapterId);
+        map.put("protocol", protocol);
+        map.put("cached", cached);
+        if (pidsKnown) {
+            List<Integer> pids = new ArrayList<>();
+            for (int pid = 1; pid < 256; pid++) {
+                if (supports(pid)) {
+                    pids.add(pid);
+                }
+            }
+            map.put("supportedPids", pids);
+        }
+        return map;
+    }
+
+    /**
+     * Cached profile of the device, from memory or disk, or null if it has to be probed
+     */
+    static AdapterProfile lookup(String address) {
+        AdapterProfile profile = profiles.get(address);
+        if (profile != null) {
+            return profile;
+        }
+        SharedPreferences prefs = preferences();
+        if (prefs == null) {
+            return null;
+        }
+        profile = decode(prefs.getString(address, null));
+        if (profile != null) {
+            profiles.put(address, profile);
+        }
+        return profile;
+    }
+
+    /**
+     * Cache a freshly probed profile, in memory and on disk
+     */
+    static void remember(String address, AdapterProfile probed) {
+        AdapterProfile cachedProfile = new AdapterProfile(probed.adapterId, probed.protocol,
+                probed.supportedPids, probed.pidsKnown, true);
+        profiles.put(address, cachedProfile);
+        SharedPreferences prefs = preferences();
+        if (prefs != null) {
+            prefs.edit().putString(address, cachedProfile.encode()).apply();
+        }
+    }
+
+    /**
+     * Drop the cached profile so the next connect probes again
+     */
+    static void forget(String address) {
+        profiles.remove(address);
+        SharedPreferences prefs = preferences();
+        if (prefs != null) {
+            prefs.edit().remove(address).apply();
+        }
+    }
+
+    // FORMAT|bitmap words in hex|protocol|adapter id (last, may contain '|')
+    private String encode() {
+        StringBuilder encoded = new StringBuilder(FORMAT).append('|');
+        for (int i = 0; i < supportedPids.length; i++) {
+            if (i > 0) {
+                encoded.append(',');
+            }
+            // Fixed width, parsed back in halves (no parseUnsignedLong before API 26)
+            String word = Long.toHexString(supportedPids[i]);
+            for (int pad = word.length(); pad < 16; pad++) {
+                encoded.append('0');
+            }
+            encoded.append(word);
+        }
+        return encoded.append('|').append(protocol).append('|').append(adapterId).toString();
+    }
+
+    private static AdapterProfile decode(String encoded) {
+        if (encoded == null) {
+            return null;
+        }
+        String[] parts = encoded.split("\\|", 4);
+        if (parts.length != 4 || !FORMAT.equals(parts[0])) {
+            return null;
+        }
+        String[] words = parts[1].split(",");
+        if (words.length != 4) {
+            return null;
+        }
+        long[] supportedPids = new long[4];
+        try {
+            for (int i = 0; i < words.length; i++) {
+                if (words[i].length() != 16) {
+                    return null;
+                }
+                supportedPids[i] = (Long.parseLong(words[i].substring(0, 8), 16) << 32)
+                        | Long.parseLong(words[i].substring(8), 16);
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return new AdapterProfile(parts[3], parts[2], supportedPids, true, true);
+    }
+
+    private static SharedPreferences preferences() {
+        Context context = FlutterBluetoothSerialPlugin.getApplicationContext();
+        return context != null ? context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE) : null;
+    }
+}
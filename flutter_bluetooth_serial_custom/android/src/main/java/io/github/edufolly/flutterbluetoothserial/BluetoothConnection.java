@@ -1,20 +1,11 @@
 package io.github.edufolly.flutterbluetoothserial;
 
-import android.Manifest;
-import android.bluetooth.BluetoothAdapter;
-import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothSocket;
-import android.content.pm.PackageManager;
-import android.os.Build;
 import android.util.Log;
 
-import androidx.core.app.ActivityCompat;
-
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
+import java.nio.ByteBuffer;
 
 /**
  * Manages Bluetooth connections to devices
@@ -22,146 +13,92 @@ import java.util.concurrent.ConcurrentHashMap;
 public class BluetoothConnection {
     private static final String TAG = "BluetoothConnection";
     
-    // Standard UUID for Serial Port Profile
-    private static final UUID SPP_UUID = UUID.fromString("00001101-0000-1000-8000-00805F9B34FB");
-    
-    // Connection timeout in milliseconds
-    private static final int CONNECTION_TIMEOUT = 10000; // 10 seconds
-    
-    private static final ConcurrentHashMap<String, BluetoothConnection> activeConnections = new ConcurrentHashMap<>();
+    // Size of the buffer a reader should reuse across read calls
+    public static final int DEFAULT_READ_BUFFER_SIZE = 1024;
     
-    private final BluetoothSocket socket;
+    private final SerialTransport transport;
     private final InputStream inputStream;
     private final OutputStream outputStream;
     private final String deviceAddress;
-    private boolean isConnected = false;
+    // Cleared by the first failed read or write, or by close(); never probes the socket
+    private volatile boolean isConnected = false;
+    
+    // Only used by read(ByteBuffer) for direct buffers; lazily created
+    private byte[] scratchBuffer;
+    
+    private final ConnectionStats stats = new ConnectionStats();
+    
+    // Raw bytes in both directions go here while set; see RawCapture
+    private volatile RawCapture capture;
     
     /**
-     * Creates a BluetoothConnection to the specified device
+     * Creates a BluetoothConnection over an already connected transport
      */
-    private BluetoothConnection(BluetoothSocket socket) throws IOException {
-        this.socket = socket;
-        this.inputStream = socket.getInputStream();
-        this.outputStream = socket.getOutputStream();
-        this.deviceAddress = socket.getRemoteDevice().getAddress();
+    public BluetoothConnection(SerialTransport transport) throws IOException {
+        this.transport = transport;
+        this.inputStream = transport.getInputStream();
+        this.outputStream = transport.getOutputStream();
+        this.deviceAddress = transport.getAddress();
         this.isConnected = true;
     }
     
     /**
-     * Establishes a connection to the specified device
+     * Establishes a connection to the specified device, to a simulated
+     * adapter for {@code sim:} addresses (see {@link SimulatedElm327Transport})
+     * or to a capture replay for {@code replay:} addresses (see {@link ReplayTransport})
      */
     public static BluetoothConnection connect(String address) throws IOException {
-        // Check if a connection already exists
-        if (activeConnections.containsKey(address)) {
-            BluetoothConnection existingConnection = activeConnections.get(address);
-            if (existingConnection != null && existingConnection.isConnected) {
-                return existingConnection;
-            } else {
-                activeConnections.remove(address);
-            }
-        }
-        
-        BluetoothAdapter bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
-        if (bluetoothAdapter == null) {
-            throw new IOException("Bluetooth is not supported on this device");
-        }
-        
-        if (!bluetoothAdapter.isEnabled()) {
-            throw new IOException("Bluetooth is disabled");
-        }
-        
-        BluetoothDevice device;
-        try {
-            device = bluetoothAdapter.getRemoteDevice(address);
-        } catch (IllegalArgumentException e) {
-            throw new IOException("Invalid Bluetooth address: " + address);
-        }
-        
-        BluetoothSocket socket = null;
-        boolean connectionSuccess = false;
-        
-        try {
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S &&
-                ActivityCompat.checkSelfPermission(FlutterBluetoothSerialPlugin.getApplicationContext(), 
-                    Manifest.permission.BLUETOOTH_CONNECT) != PackageManager.PERMISSION_GRANTED) {
-                throw new IOException("BLUETOOTH_CONNECT permission not granted");
-            }
-            
-            // First try the standard way
-            socket = device.createRfcommSocketToServiceRecord(SPP_UUID);
-            
-            // Cancel discovery as it slows down connection
-            bluetoothAdapter.cancelDiscovery();
-            
-            // Set socket timeout
-            socket.connect();
-            connectionSuccess = true;
-            
-        } catch (IOException e) {
-            Log.e(TAG, "First connection attempt failed, trying fallback...", e);
-            
-            // Close the failed socket before trying alternative methods
-            if (socket != null) {
-                try {
-                    socket.close();
-                } catch (IOException closeEx) {
-                    Log.e(TAG, "Failed to close socket after failed connection", closeEx);
-                }
-            }
-            
-            try {
-                // Fallback for some devices: try using reflection to get a different socket type
-                socket = (BluetoothSocket) device.getClass()
-                        .getMethod("createRfcommSocket", new Class[]{int.class})
-                        .invoke(device, 1);
-                
-                // Set a timeout
-                socket.connect();
-                connectionSuccess = true;
-                
-            } catch (Exception fallbackEx) {
-                Log.e(TAG, "Fallback connection also failed", fallbackEx);
-                
-                if (socket != null) {
-                    try {
-                        socket.close();
-                    } catch (IOException closeEx) {
-                        Log.e(TAG, "Failed to close socket after fallback failure", closeEx);
-                    }
-                }
-                
-                throw new IOException("Failed to connect to device: " + e.getMessage());
-            }
-        }
-        
-        if (connectionSuccess) {
-            BluetoothConnection connection = new BluetoothConnection(socket);
-            activeConnections.put(address, connection);
-            return connection;
+        BluetoothConnection connection;
+        if (SimulatedElm327Transport.isSimulatedAddress(address)) {
+            connection = new BluetoothConnection(SimulatedElm327Transport.open(address));
+        } else if (ReplayTransport.isReplayAddress(address)) {
+            connection = new BluetoothConnection(ReplayTransport.open(address));
         } else {
-            throw new IOException("Unknown connection error");
+            long connectStartNanos = System.nanoTime();
+            BluetoothSocketTransport transport = BluetoothSocketTransport.open(address);
+            connection = new BluetoothConnection(transport);
+            connection.stats.recordConnect(transport.getStrategy().statsPath, System.nanoTime() - connectStartNanos);
         }
+        return connection;
     }
     
     /**
-     * Read data from the connected device
+     * Read data from the connected device into a new array.
+     *
+     * Allocates on every call; long-running readers should use
+     * {@link #read(byte[], int, int)} with a reused buffer instead.
      */
     public byte[] read() throws IOException {
+        byte[] buffer = new byte[DEFAULT_READ_BUFFER_SIZE];
+        int bytesRead = read(buffer, 0, buffer.length);
+        
+        byte[] data = new byte[bytesRead];
+        System.arraycopy(buffer, 0, data, 0, bytesRead);
+        return data;
+    }
+    
+    /**
+     * Read data from the connected device into the caller's buffer.
+     * Blocks until at least one byte is available and returns the number of bytes read.
+     */
+    public int read(byte[] dst, int offset, int length) throws IOException {
         if (!isConnected) {
             throw new IOException("Device is not connected");
         }
         
         try {
-            byte[] buffer = new byte[1024];
-            int bytesRead = inputStream.read(buffer);
+            int bytesRead = inputStream.read(dst, offset, length);
             
             if (bytesRead == -1) {
                 throw new IOException("End of stream reached");
             }
             
-            byte[] data = new byte[bytesRead];
-            System.arraycopy(buffer, 0, data, 0, bytesRead);
-            return data;
+            stats.recordRead(bytesRead);
+            RawCapture currentCapture = capture;
+            if (currentCapture != null) {
+                currentCapture.inbound(dst, offset, bytesRead);
+            }
+            return bytesRead;
         } catch (IOException e) {
             // Mark as disconnected on error
             isConnected = false;
@@ -169,6 +106,38 @@ public class BluetoothConnection {
         }
     }
     
+    /**
+     * Number of bytes that can be read without blocking
+     */
+    public int available() throws IOException {
+        try {
+            return inputStream.available();
+        } catch (IOException e) {
+            isConnected = false;
+            throw e;
+        }
+    }
+    
+    /**
+     * Read data from the connected device into the remaining space of the buffer,
+     * advancing its position. Direct buffers are filled through a per-connection
+     * scratch array so no allocation happens per call.
+     */
+    public int read(ByteBuffer dst) throws IOException {
+        if (dst.hasArray()) {
+            int bytesRead = read(dst.array(), dst.arrayOffset() + dst.position(), dst.remaining());
+            dst.position(dst.position() + bytesRead);
+            return bytesRead;
+        }
+        
+        if (scratchBuffer == null) {
+            scratchBuffer = new byte[DEFAULT_READ_BUFFER_SIZE];
+        }
+        int bytesRead = read(scratchBuffer, 0, Math.min(scratchBuffer.length, dst.remaining()));
+        dst.put(scratchBuffer, 0, bytesRead);
+        return bytesRead;
+    }
+    
     /**
      * Write data to the connected device
      */
@@ -178,8 +147,14 @@ public class BluetoothConnection {
         }
         
         try {
+            long startNanos = System.nanoTime();
             outputStream.write(data);
             outputStream.flush();
+            stats.recordWrite(data.length, System.nanoTime() - startNanos);
+            RawCapture currentCapture = capture;
+            if (currentCapture != null) {
+                currentCapture.outbound(data, 0, data.length);
+            }
         } catch (IOException e) {
             // Mark as disconnected on error
             isConnected = false;
@@ -188,17 +163,24 @@ public class BluetoothConnection {
     }
     
     /**
-     * Check if the connection is active
+     * Throughput and latency counters of this connection
+     */
+    public ConnectionStats getStats() {
+        return stats;
+    }
+    
+    /**
+     * Start or (with null) stop copying raw traffic into a capture
+     */
+    public void setCapture(RawCapture capture) {
+        this.capture = capture;
+    }
+    
+    /**
+     * Check if the connection is active; a field read, cheap enough for the reader loop
      */
     public boolean isConnected() {
-        try {
-            // Additional check to confirm socket is actually connected
-            return isConnected && socket.isConnected() && 
-                  (socket.getInputStream().available() >= 0); // Will throw if socket is closed
-        } catch (Exception e) {
-            isConnected = false;
-            return false;
-        }
+        return isConnected;
     }
     
     /**
@@ -207,7 +189,6 @@ public class BluetoothConnection {
     public void close() {
         try {
             isConnected = false;
-            activeConnections.remove(deviceAddress);
             
             if (inputStream != null) {
                 inputStream.close();
@@ -217,9 +198,7 @@ public class BluetoothConnection {
                 outputStream.close();
             }
             
-            if (socket != null) {
-                socket.close();
-            }
+            transport.close();
         } catch (IOException e) {
             Log.e(TAG, "Error closing connection", e);
         }
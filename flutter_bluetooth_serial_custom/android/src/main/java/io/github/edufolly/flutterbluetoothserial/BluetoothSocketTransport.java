@@ -0,0 +1,181 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+import android.Manifest;
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothManager;
+import android.bluetooth.BluetoothSocket;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.os.Build;
+import android.util.Log;
+
+import androidx.core.app.ActivityCompat;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * {@link SerialTransport} over an RFCOMM {@link BluetoothSocket}
+ */
+public class BluetoothSocketTransport implements SerialTransport {
+    private static final String TAG = "BluetoothSocketTransport";
+
+    // Connection timeout in milliseconds
+    private static final int CONNECTION_TIMEOUT = 10000; // 10 seconds
+
+    // Closes sockets whose connect() overruns CONNECTION_TIMEOUT
+    private static final ScheduledExecutorService CONNECT_WATCHDOG =
+            Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "bt-connect-watchdog");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    private final BluetoothSocket socket;
+    private final ConnectStrategy strategy;
+    private final String address;
+
+    private BluetoothSocketTransport(BluetoothSocket socket, ConnectStrategy strategy) {
+        this.socket = socket;
+        this.strategy = strategy;
+        this.address = socket.getRemoteDevice().getAddress();
+    }
+
+    /**
+     * Open an RFCOMM link to the device, trying the strategy that worked last first
+     */
+    public static BluetoothSocketTransport open(String address) throws IOException {
+        BluetoothAdapter bluetoothAdapter = getAdapter();
+        if (bluetoothAdapter == null) {
+            throw new IOException("Bluetooth is not supported on this device");
+        }
+
+        if (!bluetoothAdapter.isEnabled()) {
+            throw new IOException("Bluetooth is disabled");
+        }
+
+        BluetoothDevice device;
+        try {
+            device = bluetoothAdapter.getRemoteDevice(address);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid Bluetooth address: " + address);
+        }
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S &&
+            ActivityCompat.checkSelfPermission(FlutterBluetoothSerialPlugin.getApplicationContext(),
+                Manifest.permission.BLUETOOTH_CONNECT) != PackageManager.PERMISSION_GRANTED) {
+            throw new IOException("BLUETOOTH_CONNECT permission not granted");
+        }
+
+        // Cancel discovery as it slows down connection
+        bluetoothAdapter.cancelDiscovery();
+
+        Exception firstError = null;
+
+        // Whatever worked last time for this device goes first; with the channel
+        // strategy cached the SDP lookup is skipped entirely
+        for (ConnectStrategy strategy : ConnectStrategy.orderFor(address)) {
+            BluetoothSocket socket = null;
+            try {
+                socket = strategy.createSocket(device);
+                connectWithTimeout(socket, CONNECTION_TIMEOUT);
+
+                ConnectStrategy.remember(address, strategy);
+                return new BluetoothSocketTransport(socket, strategy);
+            } catch (Exception e) {
+                Log.e(TAG, "Connection attempt using " + strategy + " failed", e);
+                if (firstError == null) {
+                    firstError = e;
+                }
+
+                // Close the failed socket before trying the next strategy
+                if (socket != null) {
+                    try {
+                        socket.close();
+                    } catch (IOException closeEx) {
+                        Log.e(TAG, "Failed to close socket after failed connection", closeEx);
+                    }
+                }
+            }
+        }
+
+        throw new IOException("Failed to connect to device: "
+                + (firstError != null ? firstError.getMessage() : "unknown error"));
+    }
+
+    private static BluetoothAdapter getAdapter() {
+        Context context = FlutterBluetoothSerialPlugin.getApplicationContext();
+        if (context != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            BluetoothManager manager = context.getSystemService(BluetoothManager.class);
+            if (manager != null) {
+                return manager.getAdapter();
+            }
+        }
+        return BluetoothAdapter.getDefaultAdapter();
+    }
+
+    /**
+     * Connect the socket, closing it from a watchdog if it takes longer than the
+     * timeout; BluetoothSocket.connect() has no timeout of its own.
+     */
+    private static void connectWithTimeout(BluetoothSocket socket, long timeoutMs) throws IOException {
+        AtomicBoolean timedOut = new AtomicBoolean(false);
+        ScheduledFuture<?> watchdog = CONNECT_WATCHDOG.schedule(() -> {
+            timedOut.set(true);
+            try {
+                socket.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to close socket after connect timeout", e);
+            }
+        }, timeoutMs, TimeUnit.MILLISECONDS);
+
+        try {
+            socket.connect();
+        } catch (IOException e) {
+            if (timedOut.get()) {
+                throw new IOException("Connection timed out after " + timeoutMs + " ms");
+            }
+            throw e;
+        } finally {
+            watchdog.cancel(false);
+        }
+
+        if (timedOut.get()) {
+            throw new IOException("Connection timed out after " + timeoutMs + " ms");
+        }
+    }
+
+    /**
+     * The strategy the socket was opened with
+     */
+    public ConnectStrategy getStrategy() {
+        return strategy;
+    }
+
+    @Override
+    public String getAddress() {
+        return address;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return socket.getInputStream();
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        return socket.getOutputStream();
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
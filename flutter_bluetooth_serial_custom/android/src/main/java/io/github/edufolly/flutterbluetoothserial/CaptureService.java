@@ -0,0 +1,114 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.ServiceInfo;
+import android.os.Build;
+import android.os.IBinder;
+
+import androidx.core.app.NotificationCompat;
+import androidx.core.content.ContextCompat;
+
+/**
+ * Foreground service that keeps the process, and with it the plugin's
+ * connections, polling and trip recording, alive while the app is in the
+ * background or its Flutter engine is gone.
+ *
+ * It holds no state of its own: sessions live in the plugin's process-wide
+ * registry, and the service only has to exist for capture to continue.
+ */
+public class CaptureService extends Service {
+    private static final String NOTIFICATION_CHANNEL_ID = "flutter_bluetooth_serial.capture";
+    private static final int NOTIFICATION_ID = 0x0BD2;
+
+    private static final String EXTRA_TITLE = "title";
+    private static final String EXTRA_TEXT = "text";
+
+    private static volatile boolean running = false;
+
+    /**
+     * Start (or update the notification of) the capture service
+     */
+    public static void start(Context context, String title, String text) {
+        Intent intent = new Intent(context, CaptureService.class);
+        intent.putExtra(EXTRA_TITLE, title);
+        intent.putExtra(EXTRA_TEXT, text);
+        ContextCompat.startForegroundService(context, intent);
+        running = true;
+    }
+
+    public static void stop(Context context) {
+        running = false;
+        context.stopService(new Intent(context, CaptureService.class));
+    }
+
+    /**
+     * Whether capture should outlive the Flutter engine
+     */
+    public static boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        String title = intent != null ? intent.getStringExtra(EXTRA_TITLE) : null;
+        String text = intent != null ? intent.getStringExtra(EXTRA_TEXT) : null;
+        Notification notification = buildNotification(
+                title != null ? title : "Recording trip",
+                text != null ? text : "Connected to the OBD adapter");
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            startForeground(NOTIFICATION_ID, notification, ServiceInfo.FOREGROUND_SERVICE_TYPE_CONNECTED_DEVICE);
+        } else {
+            startForeground(NOTIFICATION_ID, notification);
+        }
+        running = true;
+
+        // Sockets cannot be brought back after the process dies, so there is nothing to restart into
+        return START_NOT_STICKY;
+    }
+
+    @Override
+    public void onDestroy() {
+        running = false;
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+
+    private Notification buildNotification(String title, String text) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            NotificationChannel channel = new NotificationChannel(NOTIFICATION_CHANNEL_ID, "Trip capture",
+                    NotificationManager.IMPORTANCE_LOW);
+            channel.setShowBadge(false);
+            NotificationManager manager = getSystemService(NotificationManager.class);
+            if (manager != null) {
+                manager.createNotificationChannel(channel);
+            }
+        }
+
+        NotificationCompat.Builder builder = new NotificationCompat.Builder(this, NOTIFICATION_CHANNEL_ID)
+                .setContentTitle(title)
+                .setContentText(text)
+                .setSmallIcon(getApplicationInfo().icon)
+                .setOngoing(true)
+                .setCategory(NotificationCompat.CATEGORY_SERVICE)
+                .setPriority(NotificationCompat.PRIORITY_LOW);
+
+        // Tapping the notification brings the app back
+        Intent launch = getPackageManager().getLaunchIntentForPackage(getPackageName());
+        if (launch != null) {
+            int flags = PendingIntent.FLAG_UPDATE_CURRENT
+                    | (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M ? PendingIntent.FLAG_IMMUTABLE : 0);
+            builder.setContentIntent(PendingIntent.getActivity(this, 0, launch, flags));
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,499 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shares the adapter's one request slot (an ELM327 answers one command at a
+ * time, up to its prompt) between three lanes:
+ * <ul>
+ *   <li>{@link Lane#REALTIME}: the {@link ObdCommandScheduler} poll requests</li>
+ *   <li>{@link Lane#INTERACTIVE}: one-off requests a user is waiting for (DTCs, VIN)</li>
+ *   <li>{@link Lane#BULK}: background requests (freeze-frame dumps)</li>
+ * </ul>
+ *
+ * The slot changes hands only at a prompt, so a command is never cut short.
+ * Interactive commands go first, then due poll requests, then bulk commands.
+ * So that neither side starves, the poller gets a turn after
+ * {@link #MAX_LANE_BURST} lane commands in a row, and a bulk command that has
+ * waited {@link #BULK_AGING_NANOS} goes ahead of polling like an interactive one.
+ *
+ * Answers to a lane command go to its {@link Callback} only. When a command
+ * (or poll request) times out, the adapter may still be working on it, so the
+ * slot stays taken and whatever it prints is dropped until its prompt, or
+ * until {@link #DRAIN_TIMEOUT_NANOS} passes without one; only then is the next
+ * command sent. Raw writes that bypass the arbiter are not coordinated with it.
+ */
+public class CommandArbiter {
+    private static final String TAG = "CommandArbiter";
+
+    public enum Lane {
+        /** Native polling; the slot is taken through {@link #acquireRealtime()} */
+        REALTIME("realtime"),
+        /** Waited on by a user; ahead of polling */
+        INTERACTIVE("interactive"),
+        /** Background; fills the gaps polling leaves */
+        BULK("bulk");
+
+        /** Name used on the method channel */
+        public final String wireName;
+
+        Lane(String wireName) {
+            this.wireName = wireName;
+        }
+
+        /**
+         * The lane with the given wire name, or null
+         */
+        public static Lane fromWireName(String name) {
+            for (Lane lane : values()) {
+                if (lane.wireName.equals(name)) {
+                    return lane;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Told how a command ended; called with the arbiter locked, so
+     * implementations must only hand the result off. {@code cached} is set
+     * when an {@link ObdResponseCache} answered without sending.
+     */
+    public interface Callback {
+        void onComplete(List<ObdResponse> responses, List<String> messages, long waitedNanos, long roundTripNanos,
+                        boolean cached);
+
+        void onError(String code, String message);
+    }
+
+    public static final long DEFAULT_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+    // Lane commands sent in a row while the poller is waiting
+    static final int MAX_LANE_BURST = 4;
+
+    // A bulk command waiting this long is no longer held back by polling
+    static final long BULK_AGING_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+    // How long to wait for the prompt of a command that timed out
+    static final long DRAIN_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private static final int MAX_QUEUED_COMMANDS = 32;
+
+    private static final class Command {
+        final Lane lane;
+        final byte[] bytes;
+        final Callback callback;
+        final long queuedNanos;
+        final List<ObdResponse> responses = new ArrayList<>();
+        final List<String> messages = new ArrayList<>();
+        long sentNanos;
+        ScheduledFuture<?> timeout;
+
+        Command(Lane lane, byte[] bytes, Callback callback, long queuedNanos) {
+            this.lane = lane;
+            this.bytes = bytes;
+            this.callback = callback;
+            this.queuedNanos = queuedNanos;
+        }
+    }
+
+    private final ObdCommandScheduler.CommandSink sink;
+    private final ScheduledExecutorService executor;
+    private volatile Runnable pollerWakeup;
+
+    private final ArrayDeque<Command> interactive = new ArrayDeque<>();
+    private final ArrayDeque<Command> bulk = new ArrayDeque<>();
+
+    // Who holds the slot: a lane command, the poller, or (both clear) nobody
+    private Command inFlight;
+    private boolean realtimeOwns = false;
+    // The poller has a request due and was turned away
+    private boolean realtimeWaiting = false;
+    // The slot is kept free for the woken poller
+    private boolean realtimeReserved = false;
+    private int laneBurst = 0;
+    // A timed-out request may still be answered: the slot is held until its prompt
+    private boolean draining = false;
+    private ScheduledFuture<?> drainTimeout;
+    private boolean closed = false;
+
+    private final long[] sent = new long[Lane.values().length];
+    private final long[] maxWaitNanos = new long[Lane.values().length];
+    private long realtimeDenied = 0;
+    private long timeouts = 0;
+    private long strayLines = 0;
+    private long drainTimeouts = 0;
+
+    public CommandArbiter(ObdCommandScheduler.CommandSink sink, ScheduledExecutorService executor) {
+        this.sink = sink;
+        this.executor = executor;
+    }
+
+    /**
+     * Run when the slot is handed to the poller after it was turned away
+     */
+    public void setPollerWakeup(Runnable wakeup) {
+        this.pollerWakeup = wakeup;
+    }
+
+    /**
+     * Queue a command on the interactive or bulk lane; the callback gets its
+     * answers, or an error once {@code timeoutNanos} have passed since now.
+     * Returns false if the lane is full or the arbiter closed.
+     */
+    public boolean submit(Lane lane, byte[] command, long timeoutNanos, Callback callback) {
+        if (lane == Lane.REALTIME) {
+            throw new IllegalArgumentException("The realtime lane belongs to the poller");
+        }
+        boolean wake;
+        synchronized (this) {
+            ArrayDeque<Command> queue = lane == Lane.INTERACTIVE ? interactive : bulk;
+            if (closed || queue.size() >= MAX_QUEUED_COMMANDS) {
+                return false;
+            }
+            Command entry = new Command(lane, command, callback, System.nanoTime());
+            try {
+                entry.timeout = executor.schedule(() -> expire(entry), timeoutNanos, TimeUnit.NANOSECONDS);
+            } catch (RejectedExecutionException e) {
+                // The runtime is shutting down
+                return false;
+            }
+            queue.add(entry);
+            wake = dispatchNext();
+        }
+        wakePoller(wake);
+        return true;
+    }
+
+    /**
+     * The poller wants to send a request: returns true if it now holds the
+     * slot, false if it has to wait for the wakeup
+     */
+    public synchronized boolean acquireRealtime() {
+        if (closed) {
+            return false;
+        }
+        if (realtimeOwns) {
+            return true;
+        }
+        if (slotFree() && (realtimeReserved || laneBurst >= MAX_LANE_BURST || nextLaneCommand(true) == null)) {
+            grantRealtime();
+            return true;
+        }
+        realtimeDenied++;
+        realtimeWaiting = true;
+        // An interactive or aged bulk command is queued and the slot is free
+        if (slotFree() && dispatchNext()) {
+            grantRealtime();
+            return true;
+        }
+        return false;
+    }
+
+    private void grantRealtime() {
+        realtimeOwns = true;
+        realtimeWaiting = false;
+        realtimeReserved = false;
+        laneBurst = 0;
+        sent[Lane.REALTIME.ordinal()]++;
+    }
+
+    /**
+     * The poll request ended or polling stopped; {@code answered} is false if
+     * the request was sent but its prompt has not come (timeout, stop), so the
+     * adapter may still answer it. The poller ticks again by itself if it has
+     * more to send.
+     */
+    public void releaseRealtime(boolean answered) {
+        boolean wake = false;
+        synchronized (this) {
+            if (!realtimeOwns) {
+                return;
+            }
+            realtimeOwns = false;
+            if (answered) {
+                // Serve the lanes between poll requests; bulk only once it has aged
+                wake = dispatchLane(true);
+            } else {
+                startDrain();
+            }
+        }
+        wakePoller(wake);
+    }
+
+    /**
+     * The poller has nothing due (or stopped): the slot may go to bulk commands
+     */
+    public void onRealtimeIdle() {
+        boolean wake;
+        synchronized (this) {
+            realtimeWaiting = false;
+            realtimeReserved = false;
+            laneBurst = 0;
+            wake = dispatchNext();
+        }
+        wakePoller(wake);
+    }
+
+    /**
+     * A decoded response arrived (dispatcher thread); returns true if it answers a
+     * lane command and so belongs to that command's caller only
+     */
+    public synchronized boolean onResponse(ObdResponse response) {
+        if (draining) {
+            strayLines++;
+            return true;
+        }
+        if (inFlight == null) {
+            return false;
+        }
+        inFlight.responses.add(response);
+        return true;
+    }
+
+    /**
+     * A non-data line arrived (dispatcher thread); returns true if it belongs to a
+     * lane command
+     */
+    public synchronized boolean onMessage(String message) {
+        if (draining) {
+            strayLines++;
+            return true;
+        }
+        if (inFlight == null) {
+            return false;
+        }
+        inFlight.messages.add(message);
+        return true;
+    }
+
+    /**
+     * The adapter printed its prompt (dispatcher thread); returns true if this
+     * completed a lane command or a timed-out request, false if the prompt
+     * ends a poll request
+     */
+    public boolean onPrompt() {
+        boolean wake;
+        synchronized (this) {
+            Command done = inFlight;
+            if (draining) {
+                endDrain();
+            } else if (done != null) {
+                inFlight = null;
+                done.timeout.cancel(false);
+                done.callback.onComplete(done.responses, done.messages,
+                        done.sentNanos - done.queuedNanos, System.nanoTime() - done.sentNanos, false);
+            } else {
+                return false;
+            }
+            wake = dispatchNext();
+        }
+        wakePoller(wake);
+        return true;
+    }
+
+    /**
+     * Fail every queued and in-flight command; nothing is accepted afterwards
+     */
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            endDrain();
+            if (inFlight != null) {
+                fail(inFlight, "NOT_CONNECTED", "Connection closed");
+                inFlight = null;
+            }
+            for (Command command : interactive) {
+                fail(command, "NOT_CONNECTED", "Connection closed");
+            }
+            for (Command command : bulk) {
+                fail(command, "NOT_CONNECTED", "Connection closed");
+            }
+            interactive.clear();
+            bulk.clear();
+            realtimeOwns = false;
+        }
+    }
+
+    /**
+     * Queue depths and per-lane counters, reported under "lanes" in connection stats
+     */
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("queuedInteractive", interactive.size());
+        stats.put("queuedBulk", bulk.size());
+        stats.put("realtimeDenied", realtimeDenied);
+        stats.put("timeouts", timeouts);
+        stats.put("strayLines", strayLines);
+        stats.put("drainTimeouts", drainTimeouts);
+        for (Lane lane : Lane.values()) {
+            Map<String, Object> laneStats = new HashMap<>();
+            laneStats.put("sent", sent[lane.ordinal()]);
+            if (lane != Lane.REALTIME) {
+                laneStats.put("maxWaitMs", maxWaitNanos[lane.ordinal()] / 1e6);
+            }
+            stats.put(lane.wireName, laneStats);
+        }
+        return stats;
+    }
+
+    /**
+     * The deadline of a command passed, queued or in flight
+     */
+    private void expire(Command command) {
+        boolean wake = false;
+        synchronized (this) {
+            if (command == inFlight) {
+                timeouts++;
+                inFlight = null;
+                fail(command, "TIMEOUT", "No answer to " + describe(command) + " in time");
+                startDrain();
+            } else if (interactive.remove(command) || bulk.remove(command)) {
+                timeouts++;
+                fail(command, "TIMEOUT", "Adapter busy, " + describe(command) + " was not sent in time");
+            }
+        }
+        wakePoller(wake);
+    }
+
+    /**
+     * Hold the slot until the prompt of the request that timed out, so its
+     * late answer is not taken for the next command's
+     */
+    private void startDrain() {
+        if (closed) {
+            return;
+        }
+        draining = true;
+        try {
+            drainTimeout = executor.schedule(this::drainExpired, DRAIN_TIMEOUT_NANOS, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            // The runtime is shutting down
+            draining = false;
+        }
+    }
+
+    private void endDrain() {
+        draining = false;
+        if (drainTimeout != null) {
+            drainTimeout.cancel(false);
+            drainTimeout = null;
+        }
+    }
+
+    /**
+     * No prompt came for the request that timed out: take the adapter as ready
+     */
+    private void drainExpired() {
+        boolean wake;
+        synchronized (this) {
+            if (!draining) {
+                return;
+            }
+            drainTimeouts++;
+            endDrain();
+            wake = dispatchNext();
+        }
+        wakePoller(wake);
+    }
+
+    private boolean slotFree() {
+        return inFlight == null && !realtimeOwns && !draining;
+    }
+
+    /**
+     * Hand the free slot on: a lane command, or the waiting poller. Returns
+     * whether the poller should be woken.
+     */
+    private boolean dispatchNext() {
+        return dispatchLane(false);
+    }
+
+    private boolean dispatchLane(boolean pollerNext) {
+        while (!closed && slotFree() && !realtimeReserved) {
+            boolean pollerWants = pollerNext || realtimeWaiting;
+            if (realtimeWaiting && laneBurst >= MAX_LANE_BURST) {
+                realtimeReserved = true;
+                return true;
+            }
+            Command next = nextLaneCommand(pollerWants);
+            if (next == null) {
+                if (realtimeWaiting) {
+                    realtimeReserved = true;
+                    return true;
+                }
+                return false;
+            }
+            (next.lane == Lane.INTERACTIVE ? interactive : bulk).remove(next);
+            if (send(next) && pollerWants) {
+                laneBurst++;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The lane command that should have the slot next: interactive first, bulk
+     * only when the poller does not want the slot or once it has aged
+     */
+    private Command nextLaneCommand(boolean pollerWants) {
+        Command first = interactive.peek();
+        Command firstBulk = bulk.peek();
+        if (firstBulk != null && (!pollerWants || System.nanoTime() - firstBulk.queuedNanos >= BULK_AGING_NANOS)) {
+            // An aged bulk command competes with interactive ones by age
+            if (first == null || firstBulk.queuedNanos < first.queuedNanos) {
+                return firstBulk;
+            }
+        }
+        return first;
+    }
+
+    private boolean send(Command command) {
+        command.sentNanos = System.nanoTime();
+        try {
+            sink.send(command.bytes);
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot send " + describe(command) + ": " + e.getMessage());
+            fail(command, "BUFFER_FULL", e.getMessage());
+            return false;
+        }
+        inFlight = command;
+        int lane = command.lane.ordinal();
+        sent[lane]++;
+        maxWaitNanos[lane] = Math.max(maxWaitNanos[lane], command.sentNanos - command.queuedNanos);
+        return true;
+    }
+
+    private static void fail(Command command, String code, String message) {
+        if (command.timeout != null) {
+            command.timeout.cancel(false);
+        }
+        command.callback.onError(code, message);
+    }
+
+    private static String describe(Command command) {
+        int length = command.bytes.length;
+        while (length > 0 && (command.bytes[length - 1] == '\r' || command.bytes[length - 1] == '\n')) {
+            length--;
+        }
+        return command.lane.wireName + " command \"" + new String(command.bytes, 0, length) + "\"";
+    }
+
+    private void wakePoller(boolean wake) {
+        Runnable wakeup = pollerWakeup;
+        if (wake && wakeup != null) {
+            wakeup.run();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothSocket;
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Ways of opening an RFCOMM socket to an adapter, and the per-device memory of
+ * which one worked last so reconnects try it first.
+ */
+public enum ConnectStrategy {
+    /** Standard SPP connect; performs an SDP lookup for the channel first */
+    SERVICE_RECORD(ConnectionStats.CONNECT_PATH_PRIMARY) {
+        @Override
+        BluetoothSocket createSocket(BluetoothDevice device) throws Exception {
+            return device.createRfcommSocketToServiceRecord(SPP_UUID);
+        }
+    },
+
+    /** Hidden createRfcommSocket(1) API; no SDP, needed by many cheap ELM327 clones */
+    RFCOMM_CHANNEL(ConnectionStats.CONNECT_PATH_FALLBACK) {
+        @Override
+        BluetoothSocket createSocket(BluetoothDevice device) throws Exception {
+            return (BluetoothSocket) device.getClass()
+                    .getMethod("createRfcommSocket", int.class)
+                    .invoke(device, 1);
+        }
+    };
+
+    // Standard UUID for Serial Port Profile
+    private static final UUID SPP_UUID = UUID.fromString("00001101-0000-1000-8000-00805F9B34FB");
+
+    private static final String PREFS_NAME = "flutter_bluetooth_serial.connect";
+
+    private static final ConcurrentHashMap<String, ConnectStrategy> preferred = new ConcurrentHashMap<>();
+
+    final String statsPath;
+
+    ConnectStrategy(String statsPath) {
+        this.statsPath = statsPath;
+    }
+
+    abstract BluetoothSocket createSocket(BluetoothDevice device) throws Exception;
+
+    /**
+     * Strategies in the order to try them for the device
+     */
+    static ConnectStrategy[] orderFor(String address) {
+        ConnectStrategy cached = lookup(address);
+        if (cached == RFCOMM_CHANNEL) {
+            return new ConnectStrategy[]{RFCOMM_CHANNEL, SERVICE_RECORD};
+        }
+        return new ConnectStrategy[]{SERVICE_RECORD, RFCOMM_CHANNEL};
+    }
+
+    /**
+     * Record the strategy that just connected, in memory and on disk
+     */
+    static void remember(String address, ConnectStrategy strategy) {
+        if (preferred.put(address, strategy) == strategy) {
+            return;
+        }
+        SharedPreferences prefs = preferences();
+        if (prefs != null) {
+            prefs.edit().putString(address, strategy.name()).apply();
+        }
+    }
+
+    private static ConnectStrategy lookup(String address) {
+        ConnectStrategy cached = preferred.get(address);
+        if (cached != null) {
+            return cached;
+        }
+        SharedPreferences prefs = preferences();
+        if (prefs == null) {
+            return null;
+        }
+        String stored = prefs.getString(address, null);
+        if (stored == null) {
+            return null;
+        }
+        try {
+            cached = valueOf(stored);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        preferred.put(address, cached);
+        return cached;
+    }
+
+    private static SharedPreferences preferences() {
+        Context context = FlutterBluetoothSerialPlugin.getApplicationContext();
+        return context != null ? context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE) : null;
+    }
+}
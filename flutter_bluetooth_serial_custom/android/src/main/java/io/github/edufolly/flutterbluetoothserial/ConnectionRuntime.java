@@ -0,0 +1,184 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+import android.util.Log;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Threads owned by the plugin: a bounded pool for connect attempts, one named
+ * reader thread per live socket, one writer and one dispatcher thread per
+ * session and a shared pool for PID polling. Everything
+ * is torn down by {@link #shutdown()} when the plugin detaches.
+ */
+public class ConnectionRuntime {
+    private static final String TAG = "ConnectionRuntime";
+
+    // Connect attempts block for seconds; a couple in parallel is plenty
+    private static final int CONNECT_THREADS = 2;
+
+    // Further attempts are rejected instead of piling up during reconnect storms
+    private static final int CONNECT_QUEUE_CAPACITY = 8;
+
+    private static final int POLL_THREADS = 2;
+
+    private final ThreadPoolExecutor connectExecutor;
+    private final ScheduledThreadPoolExecutor pollExecutor;
+    private final Set<Thread> readerThreads = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private final AtomicInteger readersStarted = new AtomicInteger();
+    private final Set<Thread> writerThreads = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private final Set<Thread> dispatcherThreads = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private volatile boolean shutdown = false;
+
+    public ConnectionRuntime() {
+        connectExecutor = new ThreadPoolExecutor(CONNECT_THREADS, CONNECT_THREADS,
+                30, TimeUnit.SECONDS, new ArrayBlockingQueue<>(CONNECT_QUEUE_CAPACITY),
+                namedThreadFactory("bt-connect-"));
+        connectExecutor.allowCoreThreadTimeOut(true);
+
+        pollExecutor = new ScheduledThreadPoolExecutor(POLL_THREADS, namedThreadFactory("obd-poll-"));
+        pollExecutor.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Queue a connect attempt; returns false if the runtime is saturated or shut down
+     */
+    public boolean submitConnect(Runnable task) {
+        if (shutdown) {
+            return false;
+        }
+        try {
+            connectExecutor.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "Connect queue full, rejecting attempt");
+            return false;
+        }
+    }
+
+    /**
+     * Start the dedicated reader thread of one socket
+     */
+    public boolean startReader(String address, Runnable loop) {
+        if (!startThread(readerThreads, "bt-reader-" + address, loop)) {
+            return false;
+        }
+        readersStarted.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Start the writer thread of one session; it outlives reconnects and
+     * returns when the session's write queue is closed
+     */
+    public boolean startWriter(String address, Runnable loop) {
+        return startThread(writerThreads, "bt-writer-" + address, loop);
+    }
+
+    /**
+     * Start the dispatcher thread of one session, which runs what its readers
+     * hand over; it outlives reconnects and returns when the session closes
+     */
+    public boolean startDispatcher(String address, Runnable loop) {
+        return startThread(dispatcherThreads, "bt-dispatch-" + address, loop);
+    }
+
+    private boolean startThread(Set<Thread> threads, String name, Runnable loop) {
+        if (shutdown) {
+            return false;
+        }
+        Thread thread = new Thread(() -> {
+            try {
+                loop.run();
+            } finally {
+                threads.remove(Thread.currentThread());
+            }
+        }, name);
+        threads.add(thread);
+        thread.start();
+        return true;
+    }
+
+    /**
+     * Run a short task after a delay on the shared pool; returns false once shut down
+     */
+    public boolean schedule(Runnable task, long delayMs) {
+        if (shutdown) {
+            return false;
+        }
+        try {
+            pollExecutor.schedule(task, delayMs, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Shared executor for per-connection PID schedulers
+     */
+    public ScheduledExecutorService getPollExecutor() {
+        return pollExecutor;
+    }
+
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    /**
+     * Stop all runtime threads. Sockets must be closed first so blocked readers return.
+     */
+    public void shutdown() {
+        shutdown = true;
+        connectExecutor.shutdownNow();
+        pollExecutor.shutdownNow();
+        for (Thread thread : readerThreads) {
+            thread.interrupt();
+        }
+        for (Thread thread : writerThreads) {
+            thread.interrupt();
+        }
+        for (Thread thread : dispatcherThreads) {
+            thread.interrupt();
+        }
+    }
+
+    /**
+     * Thread and queue counts, exposed to Dart through getRuntimeStats
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("connectActive", connectExecutor.getActiveCount());
+        stats.put("connectQueued", connectExecutor.getQueue().size());
+        stats.put("connectCompleted", connectExecutor.getCompletedTaskCount());
+        stats.put("connectPoolSize", connectExecutor.getPoolSize());
+        stats.put("readerThreads", readerThreads.size());
+        stats.put("readersStarted", readersStarted.get());
+        stats.put("writerThreads", writerThreads.size());
+        stats.put("dispatcherThreads", dispatcherThreads.size());
+        stats.put("pollQueued", pollExecutor.getQueue().size());
+        stats.put("pollPoolSize", pollExecutor.getPoolSize());
+        stats.put("shutdown", shutdown);
+        return stats;
+    }
+
+    private static ThreadFactory namedThreadFactory(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,716 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import io.flutter.plugin.common.BinaryMessenger;
+import io.flutter.plugin.common.EventChannel;
+
+/**
+ * Plugin-side state of one live connection: the socket, the framing stage, the
+ * native PID poller and the batched data stream exposed to Dart on
+ * {@code flutter_bluetooth_serial/data/<handle>}.
+ *
+ * With a {@link ReconnectPolicy} the session outlives its socket: a new
+ * connection is swapped in after a drop and the same data stream, poll
+ * schedule and queued writes carry on.
+ *
+ * Poll requests and one-off commands share the adapter through a
+ * {@link CommandArbiter}, so a DTC or VIN read is answered between poll
+ * requests instead of waiting behind them; an {@link ObdResponseCache} in
+ * front of it answers repeats of slow-changing queries without the link.
+ *
+ * Its {@link ConnectionState} is driven by the reader and writer threads and
+ * by ACL broadcasts, and every change is reported to the {@link StateListener}.
+ *
+ * A session can also outlive the Flutter engine that opened it (see
+ * {@link CaptureService}): polling and recording go on, samples are kept in a
+ * {@link SampleBacklog} and the next engine picks the session up again.
+ */
+public class ConnectionSession {
+    private static final String TAG = "ConnectionSession";
+    private static final String DATA_CHANNEL_PREFIX = "flutter_bluetooth_serial/data/";
+
+    // Bounds how much of a trip is lost if the process dies while recording
+    private static final long RECORDER_FLUSH_INTERVAL_MS = 2000;
+
+    /**
+     * Told about every state change, on the thread that caused it
+     */
+    public interface StateListener {
+        void onStateChanged(ConnectionSession session, ConnectionState previous, ConnectionState state);
+    }
+
+    private final int handle;
+    private final String address;
+    private volatile BluetoothConnection connection;
+    private final Handler mainHandler;
+    private final long maxLatencyMs;
+    private final DataBatcher batcher;
+    // Read chunks on their way from the reader thread to the dispatcher thread
+    private final ReadRing readRing;
+    // Re-created for each engine that attaches; null while none is
+    private EventChannel dataChannel;
+    private final ObdFrameAssembler assembler;
+
+    // Drained by the connection's writer thread; paused while the link is down
+    private final WriteQueue writeQueue;
+
+    // Created on the first startPolling call, ticking on the runtime's shared poll pool
+    private final ScheduledExecutorService pollExecutor;
+    private volatile ObdCommandScheduler scheduler;
+    // Hands the adapter's request slot to polling or to queued commands
+    private final CommandArbiter arbiter;
+    // Dropped on reconnect: the adapter may have been moved to another vehicle
+    private final ObdResponseCache responseCache;
+
+    // Set when the session should survive link drops; null to disconnect on first error
+    private final ReconnectPolicy reconnectPolicy;
+    private volatile boolean reconnecting = false;
+    private volatile ConnectionState state = ConnectionState.CONNECTING;
+    private volatile StateListener stateListener;
+    private boolean resumePolling = false;
+    private int reconnects = 0;
+
+    // Set when the link is initialized with Elm327Initializer, again after every reconnect
+    private volatile boolean initializeAdapter = false;
+    private volatile AdapterProfile adapterProfile;
+
+    // Receivers of decoded mode 01 samples, fed from the dispatcher thread
+    private final List<SampleListener> sampleListeners = new CopyOnWriteArrayList<>();
+    private TripRecorder recorder;
+    private ScheduledFuture<?> recorderFlush;
+    private DrivingEventDetector eventDetector;
+    // Always on: constant memory, and the summary covers the whole session unless reset
+    private final TripAggregator tripAggregator = new TripAggregator();
+
+    // Raw traffic capture, carried over to the new connection after a reconnect
+    private RawCapture capture;
+
+    // Set while Dart listens to the binary sample channel; mode 01 answers then go only there
+    private volatile SampleStream sampleStream;
+    // Takes the samples instead while no engine is attached
+    private SampleBacklog sampleBacklog;
+
+    public ConnectionSession(int handle, String address, BluetoothConnection connection,
+                             BinaryMessenger messenger, Handler mainHandler, ScheduledExecutorService pollExecutor,
+                             int maxBatchBytes, long maxLatencyMs, ReconnectPolicy reconnectPolicy) {
+        this.handle = handle;
+        this.address = address;
+        this.connection = connection;
+        this.pollExecutor = pollExecutor;
+        this.reconnectPolicy = reconnectPolicy;
+        this.mainHandler = mainHandler;
+        this.maxLatencyMs = maxLatencyMs;
+        this.batcher = new DataBatcher(mainHandler, maxBatchBytes, maxLatencyMs);
+        this.readRing = new ReadRing(ReadRing.DEFAULT_SLOTS, BluetoothConnection.DEFAULT_READ_BUFFER_SIZE);
+        this.dataChannel = new EventChannel(messenger, DATA_CHANNEL_PREFIX + handle);
+        this.dataChannel.setStreamHandler(batcher);
+        // Always targets the current socket, so queued data survives reconnects
+        this.writeQueue = new WriteQueue(data -> {
+            try {
+                this.connection.write(data);
+            } catch (IOException e) {
+                // The reader sees the drop too and decides between reconnect and close
+                transition(ConnectionState.CONNECTED, ConnectionState.DEGRADED);
+                throw e;
+            }
+        }, WriteQueue.DEFAULT_MAX_QUEUED_BYTES, WriteQueue.DEFAULT_COALESCE_WINDOW_NANOS);
+        this.arbiter = new CommandArbiter(data -> {
+            if (!writeQueue.offer(data)) {
+                throw new IOException("Write queue full");
+            }
+        }, pollExecutor);
+        this.responseCache = new ObdResponseCache(arbiter);
+
+        // Frames ELM327 output into complete responses so Dart never sees partial chunks
+        this.assembler = new ObdFrameAssembler(new ObdFrameAssembler.Listener() {
+            @Override
+            public void onResponse(ObdResponse response) {
+                // Answers to a queued command go to its caller only
+                if (arbiter.onResponse(response)) {
+                    return;
+                }
+                boolean currentData = response.getMode() == ObdPids.MODE_CURRENT_DATA;
+                if (!currentData || sampleStream == null) {
+                    batcher.addResponse(response);
+                }
+
+                if (currentData && !sampleListeners.isEmpty()) {
+                    long timestampNanos = SystemClock.elapsedRealtimeNanos();
+                    long rawValue = response.getRawValue();
+                    for (SampleListener listener : sampleListeners) {
+                        listener.onSample(timestampNanos, response.getPid(), rawValue);
+                    }
+                }
+
+                ObdCommandScheduler currentScheduler = scheduler;
+                if (currentScheduler != null) {
+                    currentScheduler.onResponse(response);
+                }
+            }
+
+            @Override
+            public void onMessage(String message) {
+                Log.d(TAG, "Adapter message from " + address + ": " + message);
+                if (arbiter.onMessage(message)) {
+                    return;
+                }
+
+                ObdCommandScheduler currentScheduler = scheduler;
+                if (currentScheduler != null) {
+                    currentScheduler.onMessage(message);
+                }
+            }
+
+            @Override
+            public void onPrompt() {
+                if (arbiter.onPrompt()) {
+                    return;
+                }
+                ObdCommandScheduler currentScheduler = scheduler;
+                if (currentScheduler != null) {
+                    currentScheduler.onPrompt();
+                }
+            }
+        });
+        sampleListeners.add(tripAggregator);
+    }
+
+    /**
+     * Plugin-unique id of this session, handed to Dart as the connection handle
+     */
+    public int getHandle() {
+        return handle;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    public BluetoothConnection getConnection() {
+        return connection;
+    }
+
+    public ReconnectPolicy getReconnectPolicy() {
+        return reconnectPolicy;
+    }
+
+    public boolean isReconnecting() {
+        return reconnecting;
+    }
+
+    public WriteQueue getWriteQueue() {
+        return writeQueue;
+    }
+
+    public ReadRing getReadRing() {
+        return readRing;
+    }
+
+    public boolean isInitializingAdapter() {
+        return initializeAdapter;
+    }
+
+    /**
+     * Whether every (re)connected link gets the ELM327 init stage before its reader starts
+     */
+    public void setInitializeAdapter(boolean initializeAdapter) {
+        this.initializeAdapter = initializeAdapter;
+    }
+
+    /**
+     * What the init stage learned about the adapter, or null if it did not run or failed
+     */
+    public AdapterProfile getAdapterProfile() {
+        return adapterProfile;
+    }
+
+    public void setAdapterProfile(AdapterProfile adapterProfile) {
+        this.adapterProfile = adapterProfile;
+    }
+
+    public ConnectionState getState() {
+        return state;
+    }
+
+    public void setStateListener(StateListener listener) {
+        this.stateListener = listener;
+    }
+
+    /**
+     * Reader and writer are running (initial connect)
+     */
+    public void markConnected() {
+        transition(ConnectionState.CONNECTING, ConnectionState.CONNECTED);
+    }
+
+    /**
+     * The remote asked to drop the ACL link; the socket is still open for now
+     */
+    public void onDisconnectRequested() {
+        transition(ConnectionState.CONNECTED, ConnectionState.DEGRADED);
+    }
+
+    /**
+     * The ACL link is up again after a disconnect request that did not go through
+     */
+    public void onLinkRestored() {
+        if (connection.isConnected()) {
+            transition(ConnectionState.DEGRADED, ConnectionState.CONNECTED);
+        }
+    }
+
+    /**
+     * The ACL link or the adapter went away. Closing the socket unblocks the
+     * reader, which then reconnects or drops the session as it would on a read
+     * error, without waiting for the RFCOMM timeout.
+     */
+    public void onLinkLost() {
+        ConnectionState current = state;
+        if (current == ConnectionState.CONNECTED || current == ConnectionState.DEGRADED) {
+            connection.close();
+        }
+    }
+
+    /**
+     * Move to {@code to} if the session is still in {@code from}; returns whether it did
+     */
+    private boolean transition(ConnectionState from, ConnectionState to) {
+        synchronized (this) {
+            if (state != from) {
+                return false;
+            }
+            state = to;
+        }
+        notifyState(from, to);
+        return true;
+    }
+
+    private void notifyState(ConnectionState previous, ConnectionState current) {
+        StateListener listener = stateListener;
+        if (listener != null && previous != current) {
+            listener.onStateChanged(this, previous, current);
+        }
+    }
+
+    /**
+     * Queue data for the device without blocking; while reconnecting it is held
+     * until the link is back. Returns false if the write queue is full.
+     */
+    public boolean write(byte[] data) {
+        return writeQueue.offer(data);
+    }
+
+    /**
+     * Answer a command from the response cache if it holds an answer no older
+     * than {@code maxAgeNanos} ({@link ObdResponseCache#DEFAULT_MAX_AGE} for
+     * the per-PID default), else queue it on the interactive or bulk lane; it
+     * is sent once the adapter is free and the callback gets its answers. A
+     * command queued while reconnecting waits for the link, within its
+     * timeout. Returns false if the lane is full.
+     */
+    public boolean sendCommand(CommandArbiter.Lane lane, byte[] command, long timeoutNanos, long maxAgeNanos,
+                               CommandArbiter.Callback callback) {
+        return responseCache.submit(lane, command, timeoutNanos, maxAgeNanos, callback);
+    }
+
+    /**
+     * Drop cached command answers: all of them with {@code mode} < 0, all of a
+     * mode with {@code pid} < 0, else the one of that mode and PID
+     */
+    public void invalidateCache(int mode, int pid) {
+        responseCache.invalidate(mode, pid);
+    }
+
+    /**
+     * The link dropped and will be re-established: pause polling but keep its
+     * configuration, and hold outbound writes (reader thread)
+     */
+    public void beginReconnect() {
+        ConnectionState previous;
+        synchronized (this) {
+            if (state == ConnectionState.CLOSED) {
+                return;
+            }
+            previous = state;
+            state = ConnectionState.CONNECTING;
+            reconnecting = true;
+            writeQueue.pause();
+            resumePolling = scheduler != null && scheduler.isRunning();
+            if (scheduler != null) {
+                scheduler.stop();
+            }
+            connection.close();
+        }
+        notifyState(previous, ConnectionState.CONNECTING);
+    }
+
+    /**
+     * Swap in the re-established connection before its reader starts, release
+     * the writes held meanwhile and resume polling where it left off
+     */
+    public void completeReconnect(BluetoothConnection newConnection) {
+        synchronized (this) {
+            connection = newConnection;
+            newConnection.setCapture(capture);
+            // The dispatcher may still be running the old link's last chunks
+            readRing.markGap();
+            responseCache.invalidateAll();
+            reconnects++;
+            reconnecting = false;
+            writeQueue.resume();
+
+            if (scheduler != null) {
+                scheduler.setStats(newConnection.getStats());
+                if (resumePolling) {
+                    scheduler.start();
+                }
+            }
+        }
+        transition(ConnectionState.CONNECTING, ConnectionState.CONNECTED);
+    }
+
+    /**
+     * Dispatcher thread loop: run the chunks the readers put in the read ring
+     * through batching and framing; returns once the session is closed
+     */
+    public void runDispatcher() {
+        readRing.drain((buffer, offset, length, afterGap) -> {
+            if (afterGap) {
+                assembler.reset();
+            }
+            onDataRead(buffer, offset, length);
+        });
+    }
+
+    /**
+     * Handle bytes read from the socket (dispatcher thread)
+     */
+    public void onDataRead(byte[] buffer, int offset, int length) {
+        batcher.addData(buffer, offset, length);
+        assembler.feed(buffer, offset, length);
+    }
+
+    /**
+     * Poll the given PID to target rate (Hz) map natively until {@link #stopPolling()}
+     */
+    public synchronized void startPolling(Map<Integer, Double> ratesHz, boolean multiPid, boolean adaptive) {
+        if (scheduler == null) {
+            // Goes through the write queue, so polling never blocks on the socket
+            scheduler = new ObdCommandScheduler(data -> {
+                if (!writeQueue.offer(data)) {
+                    throw new IOException("Write queue full");
+                }
+            }, pollExecutor, arbiter, connection.getStats());
+            arbiter.setPollerWakeup(scheduler::wake);
+        }
+        scheduler.setMultiPidEnabled(multiPid);
+        scheduler.setAdaptive(adaptive);
+        scheduler.setPids(supportedOnly(ratesHz));
+        if (reconnecting) {
+            resumePolling = true;
+        } else {
+            scheduler.start();
+        }
+    }
+
+    /**
+     * The rates without PIDs the ECU said it does not support, which would only
+     * cost "NO DATA" round trips
+     */
+    private Map<Integer, Double> supportedOnly(Map<Integer, Double> ratesHz) {
+        AdapterProfile profile = adapterProfile;
+        if (profile == null || !profile.arePidsKnown()) {
+            return ratesHz;
+        }
+        Map<Integer, Double> supported = new HashMap<>();
+        for (Map.Entry<Integer, Double> entry : ratesHz.entrySet()) {
+            if (profile.supports(entry.getKey())) {
+                supported.put(entry.getKey(), entry.getValue());
+            } else {
+                Log.w(TAG, "Not polling PID " + entry.getKey() + ", unsupported by the ECU of " + address);
+            }
+        }
+        return supported;
+    }
+
+    public synchronized void stopPolling() {
+        resumePolling = false;
+        if (scheduler != null) {
+            scheduler.stop();
+        }
+    }
+
+    public void addSampleListener(SampleListener listener) {
+        sampleListeners.add(listener);
+    }
+
+    public void removeSampleListener(SampleListener listener) {
+        sampleListeners.remove(listener);
+    }
+
+    /**
+     * Start appending samples to a new trip log at the given path
+     */
+    public synchronized void startRecording(File file) throws IOException {
+        if (recorder != null) {
+            throw new IllegalStateException("Already recording to " + recorder.getFile());
+        }
+        recorder = new TripRecorder(file, System.currentTimeMillis(), SystemClock.elapsedRealtimeNanos());
+        addSampleListener(recorder);
+        final TripRecorder flushed = recorder;
+        recorderFlush = pollExecutor.scheduleWithFixedDelay(flushed::flushQuietly,
+                RECORDER_FLUSH_INTERVAL_MS, RECORDER_FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop and close the trip log, returning its recorder, or null if not recording
+     */
+    public synchronized TripRecorder stopRecording() throws IOException {
+        TripRecorder stopped = recorder;
+        if (stopped == null) {
+            return null;
+        }
+        recorder = null;
+        removeSampleListener(stopped);
+        recorderFlush.cancel(false);
+        recorderFlush = null;
+        stopped.close();
+        return stopped;
+    }
+
+    public synchronized boolean isRecording() {
+        return recorder != null;
+    }
+
+    /**
+     * Start copying raw inbound and outbound bytes into a ring capture file of
+     * the given size
+     */
+    public synchronized void startCapture(File file, int capacityBytes) throws IOException {
+        if (capture != null) {
+            throw new IllegalStateException("Already capturing to " + capture.getFile());
+        }
+        capture = RawCapture.open(file, capacityBytes);
+        connection.setCapture(capture);
+    }
+
+    /**
+     * Stop capturing and close the file, returning the capture, or null if not capturing
+     */
+    public synchronized RawCapture stopCapture() throws IOException {
+        RawCapture stopped = capture;
+        if (stopped == null) {
+            return null;
+        }
+        capture = null;
+        connection.setCapture(null);
+        stopped.close();
+        return stopped;
+    }
+
+    public synchronized boolean isCapturing() {
+        return capture != null;
+    }
+
+    /**
+     * Send mode 01 samples as binary records through the sink instead of as
+     * response maps on the data stream
+     */
+    public synchronized void startSampleStream(SampleStream.Sink sink) {
+        if (sampleStream != null) {
+            return;
+        }
+        SampleBacklog backlog = sampleBacklog;
+        if (backlog != null) {
+            sampleBacklog = null;
+            removeSampleListener(backlog);
+        }
+        sampleStream = new SampleStream(handle, sink, mainHandler, maxLatencyMs, SampleStream.DEFAULT_CAPACITY);
+        addSampleListener(sampleStream);
+        // Live records are flushed after the latency bound, so the backlog goes out first
+        if (backlog != null) {
+            backlog.drainTo(sink, SampleStream.DEFAULT_CAPACITY);
+        }
+    }
+
+    /**
+     * The engine is going away but the session stays: drop the data stream
+     * listener and keep samples for the next engine (main thread)
+     */
+    public synchronized void detachFromEngine() {
+        if (dataChannel != null) {
+            dataChannel.setStreamHandler(null);
+            dataChannel = null;
+        }
+        batcher.onCancel(null);
+        stopSampleStream();
+        if (sampleBacklog == null && state != ConnectionState.CLOSED) {
+            sampleBacklog = new SampleBacklog(handle, SampleBacklog.DEFAULT_CAPACITY);
+            addSampleListener(sampleBacklog);
+        }
+    }
+
+    /**
+     * Expose the data stream on a newly attached engine; held samples are
+     * delivered once it starts the sample stream
+     */
+    public synchronized void attachToEngine(BinaryMessenger messenger) {
+        if (state == ConnectionState.CLOSED) {
+            return;
+        }
+        dataChannel = new EventChannel(messenger, DATA_CHANNEL_PREFIX + handle);
+        dataChannel.setStreamHandler(batcher);
+    }
+
+    public synchronized void stopSampleStream() {
+        SampleStream stopped = sampleStream;
+        if (stopped != null) {
+            sampleStream = null;
+            removeSampleListener(stopped);
+            stopped.close();
+        }
+    }
+
+    /**
+     * Run driving event detection on the sample stream, replacing any previous
+     * configuration; events go out on the data stream
+     */
+    public synchronized void startEventDetection(DrivingEventDetector.Config config) {
+        stopEventDetection();
+        eventDetector = new DrivingEventDetector(config, (type, timestampNanos, value) -> {
+            tripAggregator.onEvent(type);
+            Map<String, Object> event = new HashMap<>();
+            event.put("type", type);
+            event.put("value", value);
+            event.put("timestampNanos", timestampNanos);
+            // Wall-clock time for display, derived from the monotonic capture time
+            long ageMillis = (SystemClock.elapsedRealtimeNanos() - timestampNanos) / 1_000_000L;
+            event.put("time", System.currentTimeMillis() - ageMillis);
+            batcher.addEvent(event);
+        });
+        addSampleListener(eventDetector);
+    }
+
+    public synchronized void stopEventDetection() {
+        if (eventDetector != null) {
+            removeSampleListener(eventDetector);
+            eventDetector = null;
+        }
+    }
+
+    /**
+     * Distance, speeds, idle time, fuel and event counts of the trip so far;
+     * with {@code reset} a new trip starts after this summary
+     */
+    public Map<String, Object> getTripSummary(boolean reset) {
+        Map<String, Object> summary = tripAggregator.getSummary();
+        if (reset) {
+            tripAggregator.reset();
+        }
+        return summary;
+    }
+
+    /**
+     * Link counters plus the poller state, as returned by getStats; rates are
+     * since the link came up
+     */
+    public Map<String, Object> getStats() {
+        return getStats(null);
+    }
+
+    /**
+     * {@link #getStats()} with rates since the previous call through {@code window}
+     */
+    public Map<String, Object> getStats(ConnectionStats.RateWindow window) {
+        Map<String, Object> stats = connection.getStats().snapshot(window);
+        stats.put("reconnecting", reconnecting);
+        stats.put("state", state.wireName);
+        synchronized (this) {
+            stats.put("reconnects", reconnects);
+        }
+        ObdCommandScheduler currentScheduler = scheduler;
+        if (currentScheduler != null) {
+            stats.put("polling", currentScheduler.getStats());
+        }
+        stats.put("writeQueue", writeQueue.getStats());
+        stats.put("lanes", arbiter.getStats());
+        stats.put("cache", responseCache.getStats());
+        stats.put("readRing", readRing.getStats());
+        AdapterProfile profile = adapterProfile;
+        if (profile != null) {
+            stats.put("adapter", profile.toMap());
+        }
+        SampleStream currentSampleStream = sampleStream;
+        if (currentSampleStream != null) {
+            stats.put("samplesSent", currentSampleStream.getSamplesSent());
+            stats.put("samplesDropped", currentSampleStream.getSamplesDropped());
+        }
+        synchronized (this) {
+            if (sampleBacklog != null) {
+                stats.put("backlogSamples", sampleBacklog.size());
+                stats.put("backlogDropped", sampleBacklog.getSamplesDropped());
+            }
+            if (recorder != null) {
+                stats.put("recordedSamples", recorder.getSampleCount());
+            }
+            if (capture != null) {
+                stats.put("capture", capture.getStats());
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Close the socket and tear down the data stream
+     */
+    public void close() {
+        ConnectionState previous;
+        synchronized (this) {
+            previous = state;
+            state = ConnectionState.CLOSED;
+            reconnecting = false;
+            writeQueue.close();
+            if (scheduler != null) {
+                scheduler.stop();
+            }
+            arbiter.close();
+            try {
+                stopRecording();
+            } catch (IOException e) {
+                Log.e(TAG, "Error closing trip log for " + address, e);
+            }
+            try {
+                stopCapture();
+            } catch (IOException e) {
+                Log.e(TAG, "Error closing capture for " + address, e);
+            }
+            stopSampleStream();
+            if (sampleBacklog != null) {
+                removeSampleListener(sampleBacklog);
+                sampleBacklog.close();
+                sampleBacklog = null;
+            }
+            connection.close();
+            readRing.close();
+            batcher.close();
+            if (dataChannel != null) {
+                dataChannel.setStreamHandler(null);
+                dataChannel = null;
+            }
+        }
+        notifyState(previous, ConnectionState.CLOSED);
+    }
+}
@@ -0,0 +1,23 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+/**
+ * Lifecycle of a {@link ConnectionSession}, pushed to Dart on every change so
+ * nothing has to poll the socket to learn whether the link is up.
+ */
+public enum ConnectionState {
+    /** Opening the link, or re-opening it after a drop */
+    CONNECTING("connecting"),
+    /** Link up and reading */
+    CONNECTED("connected"),
+    /** Link still open but failing: a write failed or the remote asked to disconnect */
+    DEGRADED("degraded"),
+    /** Session gone for good */
+    CLOSED("closed");
+
+    /** Name used on the method channel */
+    public final String wireName;
+
+    ConnectionState(String wireName) {
+        this.wireName = wireName;
+    }
+}
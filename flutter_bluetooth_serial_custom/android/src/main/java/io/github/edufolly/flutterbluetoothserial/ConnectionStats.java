@@ -0,0 +1,138 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Throughput and latency counters of one connection.
+ *
+ * Recording is lock-free and allocation-free so it can sit on the read and
+ * write paths; {@link #snapshot()} builds the map returned by getStats.
+ */
+public class ConnectionStats {
+    /**
+     * Where one consumer's previous snapshot left off, so the rates it gets
+     * cover its own reporting interval and snapshots taken by others (getStats,
+     * the stats stream) do not shorten it. Owned by that consumer; a window
+     * used with the stats of a new link starts over from that link's creation.
+     */
+    public static final class RateWindow {
+        private ConnectionStats stats;
+        private long nanos;
+        private long reads;
+        private long bytesIn;
+    }
+
+    public static final String CONNECT_PATH_PRIMARY = "primary";
+    public static final String CONNECT_PATH_FALLBACK = "fallback";
+
+    private static final long NANOS_PER_MICRO = 1000;
+
+    // Connect durations across all connections, by the path that succeeded
+    private static final Histogram primaryConnectNanos = new Histogram();
+    private static final Histogram fallbackConnectNanos = new Histogram();
+
+    private final long createdNanos = System.nanoTime();
+
+    private final AtomicLong bytesIn = new AtomicLong();
+    private final AtomicLong bytesOut = new AtomicLong();
+    private final AtomicLong reads = new AtomicLong();
+    private final AtomicLong writes = new AtomicLong();
+
+    private final Histogram readSizes = new Histogram();
+    private final Histogram writeNanos = new Histogram();
+    private final Histogram roundTripNanos = new Histogram();
+
+    private volatile String connectPath;
+    private volatile long connectNanos;
+
+    public void recordConnect(String path, long durationNanos) {
+        connectPath = path;
+        connectNanos = durationNanos;
+        if (CONNECT_PATH_FALLBACK.equals(path)) {
+            fallbackConnectNanos.record(durationNanos);
+        } else {
+            primaryConnectNanos.record(durationNanos);
+        }
+    }
+
+    public void recordRead(int byteCount) {
+        reads.incrementAndGet();
+        bytesIn.addAndGet(byteCount);
+        readSizes.record(byteCount);
+    }
+
+    /**
+     * A write of {@code byteCount} bytes took {@code durationNanos}, flush included
+     */
+    public void recordWrite(int byteCount, long durationNanos) {
+        writes.incrementAndGet();
+        bytesOut.addAndGet(byteCount);
+        writeNanos.record(durationNanos);
+    }
+
+    /**
+     * Time from sending an OBD request to the adapter prompt that ends its response
+     */
+    public void recordRoundTrip(long durationNanos) {
+        roundTripNanos.record(durationNanos);
+    }
+
+    /**
+     * Counters, with rates since the connection was made
+     */
+    public Map<String, Object> snapshot() {
+        return snapshot(null);
+    }
+
+    /**
+     * Counters, with rates since the previous snapshot through {@code window}
+     * (or since the connection was made, without one)
+     */
+    public Map<String, Object> snapshot(RateWindow window) {
+        long now = System.nanoTime();
+        long currentReads = reads.get();
+        long currentBytesIn = bytesIn.get();
+        long fromNanos = createdNanos;
+        long fromReads = 0;
+        long fromBytesIn = 0;
+        if (window != null) {
+            if (window.stats == this) {
+                fromNanos = window.nanos;
+                fromReads = window.reads;
+                fromBytesIn = window.bytesIn;
+            }
+            window.stats = this;
+            window.nanos = now;
+            window.reads = currentReads;
+            window.bytesIn = currentBytesIn;
+        }
+        double intervalSeconds = Math.max(1e-9, (now - fromNanos) / 1e9);
+
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("uptimeMs", (now - createdNanos) / 1_000_000);
+        stats.put("bytesIn", currentBytesIn);
+        stats.put("bytesOut", bytesOut.get());
+        stats.put("reads", currentReads);
+        stats.put("writes", writes.get());
+        stats.put("readsPerSecond", (currentReads - fromReads) / intervalSeconds);
+        stats.put("bytesInPerSecond", (currentBytesIn - fromBytesIn) / intervalSeconds);
+        stats.put("readSizeBytes", readSizes.snapshot(1));
+        stats.put("writeLatencyUs", writeNanos.snapshot(NANOS_PER_MICRO));
+        stats.put("roundTripUs", roundTripNanos.snapshot(NANOS_PER_MICRO));
+        stats.put("connectPath", connectPath);
+        stats.put("connectMs", connectNanos / 1_000_000);
+        return stats;
+    }
+
+    /**
+     * Connect durations of all connections so far, split by connect path
+     */
+    public static Map<String, Object> connectSnapshot() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put(CONNECT_PATH_PRIMARY + "Us", primaryConnectNanos.snapshot(NANOS_PER_MICRO));
+        stats.put(CONNECT_PATH_FALLBACK + "Us", fallbackConnectNanos.snapshot(NANOS_PER_MICRO));
+        return stats;
+    }
+}
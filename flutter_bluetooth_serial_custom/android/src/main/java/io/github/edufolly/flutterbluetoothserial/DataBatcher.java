@@ -0,0 +1,192 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+import android.os.Handler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.flutter.plugin.common.EventChannel;
+
+/**
+ * Coalesces received bytes, decoded responses and driving events into batches
+ * for an EventChannel.
+ *
+ * The dispatcher thread appends; a batch is sent on the main thread once either
+ * {@code maxBatchBytes} have accumulated or {@code maxLatencyMs} have passed since
+ * the first pending item, so the platform channel sees a handful of messages per
+ * second instead of one per read.
+ */
+public class DataBatcher implements EventChannel.StreamHandler {
+    public static final int DEFAULT_MAX_BATCH_BYTES = 4096;
+    public static final long DEFAULT_MAX_LATENCY_MS = 10;
+
+    // Driving events kept while nobody listens, e.g. with the engine detached
+    private static final int MAX_HELD_EVENTS = 256;
+
+    private final Handler mainHandler;
+    private final long maxLatencyMs;
+
+    private final Object lock = new Object();
+    private final byte[] pending;
+    private int pendingLength = 0;
+    private List<Map<String, Object>> pendingResponses = new ArrayList<>();
+    private List<Map<String, Object>> pendingEvents = new ArrayList<>();
+    private boolean flushScheduled = false;
+
+    // Only touched on the main thread
+    private EventChannel.EventSink sink;
+    private final List<Map<String, Object>> heldEvents = new ArrayList<>();
+
+    private final Runnable flushRunnable = this::flush;
+
+    public DataBatcher(Handler mainHandler, int maxBatchBytes, long maxLatencyMs) {
+        this.mainHandler = mainHandler;
+        this.pending = new byte[maxBatchBytes > 0 ? maxBatchBytes : DEFAULT_MAX_BATCH_BYTES];
+        this.maxLatencyMs = maxLatencyMs >= 0 ? maxLatencyMs : DEFAULT_MAX_LATENCY_MS;
+    }
+
+    /**
+     * Queue raw bytes received from the device (dispatcher thread)
+     */
+    public void addData(byte[] buffer, int offset, int length) {
+        synchronized (lock) {
+            while (length > 0) {
+                int count = Math.min(length, pending.length - pendingLength);
+                System.arraycopy(buffer, offset, pending, pendingLength, count);
+                pendingLength += count;
+                offset += count;
+                length -= count;
+
+                if (pendingLength == pending.length) {
+                    // Size bound reached: hand this batch off now rather than waiting for the timer
+                    Map<String, Object> batch = takeBatchLocked();
+                    mainHandler.post(() -> send(batch));
+                }
+            }
+            scheduleFlushLocked();
+        }
+    }
+
+    /**
+     * Queue a decoded OBD response (dispatcher thread)
+     */
+    public void addResponse(ObdResponse response) {
+        Map<String, Object> message = new HashMap<>();
+        message.put("mode", response.getMode());
+        message.put("pid", response.getPid());
+        message.put("data", response.getData());
+
+        synchronized (lock) {
+            pendingResponses.add(message);
+            scheduleFlushLocked();
+        }
+    }
+
+    /**
+     * Queue a detected driving event; it goes out with the next main thread
+     * turn rather than after the latency bound (dispatcher thread)
+     */
+    public void addEvent(Map<String, Object> event) {
+        synchronized (lock) {
+            pendingEvents.add(event);
+            mainHandler.removeCallbacks(flushRunnable);
+            flushScheduled = true;
+            mainHandler.post(flushRunnable);
+        }
+    }
+
+    /**
+     * Send whatever is pending right away (main thread)
+     */
+    public void flush() {
+        Map<String, Object> batch;
+        synchronized (lock) {
+            flushScheduled = false;
+            batch = takeBatchLocked();
+        }
+        send(batch);
+    }
+
+    /**
+     * Drop pending data and stop scheduled flushes
+     */
+    public void close() {
+        synchronized (lock) {
+            mainHandler.removeCallbacks(flushRunnable);
+            flushScheduled = false;
+            pendingLength = 0;
+            pendingResponses.clear();
+            pendingEvents.clear();
+        }
+    }
+
+    @Override
+    public void onListen(Object arguments, EventChannel.EventSink events) {
+        sink = events;
+        if (!heldEvents.isEmpty()) {
+            Map<String, Object> batch = new HashMap<>();
+            batch.put("events", new ArrayList<>(heldEvents));
+            heldEvents.clear();
+            events.success(batch);
+        }
+    }
+
+    @Override
+    public void onCancel(Object arguments) {
+        sink = null;
+    }
+
+    private void scheduleFlushLocked() {
+        if (!flushScheduled && (pendingLength > 0 || !pendingResponses.isEmpty())) {
+            flushScheduled = true;
+            mainHandler.postDelayed(flushRunnable, maxLatencyMs);
+        }
+    }
+
+    private Map<String, Object> takeBatchLocked() {
+        if (pendingLength == 0 && pendingResponses.isEmpty() && pendingEvents.isEmpty()) {
+            return null;
+        }
+
+        Map<String, Object> batch = new HashMap<>();
+        if (pendingLength > 0) {
+            byte[] data = new byte[pendingLength];
+            System.arraycopy(pending, 0, data, 0, pendingLength);
+            batch.put("data", data);
+            pendingLength = 0;
+        }
+        if (!pendingResponses.isEmpty()) {
+            batch.put("responses", pendingResponses);
+            pendingResponses = new ArrayList<>();
+        }
+        if (!pendingEvents.isEmpty()) {
+            batch.put("events", pendingEvents);
+            pendingEvents = new ArrayList<>();
+        }
+        return batch;
+    }
+
+    private void send(Map<String, Object> batch) {
+        if (batch == null) {
+            return;
+        }
+        EventChannel.EventSink currentSink = sink;
+        if (currentSink != null) {
+            currentSink.success(batch);
+            return;
+        }
+
+        // Bytes and responses are only useful live, but events are kept for the next listener
+        @SuppressWarnings("unchecked")
+        List<Map<String, Object>> events = (List<Map<String, Object>>) batch.get("events");
+        if (events != null) {
+            heldEvents.addAll(events);
+            int excess = heldEvents.size() - MAX_HELD_EVENTS;
+            if (excess > 0) {
+                heldEvents.subList(0, excess).clear();
+            }
+        }
+    }
+}
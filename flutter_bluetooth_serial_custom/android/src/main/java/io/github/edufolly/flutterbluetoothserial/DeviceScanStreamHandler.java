@@ -0,0 +1,282 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothClass;
+import android.bluetooth.BluetoothDevice;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Build;
+import android.os.Handler;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import io.flutter.plugin.common.EventChannel;
+
+/**
+ * Device scan on {@code flutter_bluetooth_serial/scan}: each listen streams
+ * the bonded devices right away, then what discovery finds as ACTION_FOUND
+ * broadcasts come in, and ends the stream after {@code timeoutMs} or when
+ * discovery finishes.
+ *
+ * Every device is sent once as {name, address, type, bonded, rssi,
+ * likelyObd, isConnected}; with {@code obdOnly} only devices that look like
+ * an OBD adapter are sent. Listen arguments: {@code timeoutMs} (default
+ * 12000), {@code obdOnly} (default false) and {@code discover} (default true,
+ * false for bonded devices only).
+ */
+public class DeviceScanStreamHandler implements EventChannel.StreamHandler {
+    private static final String TAG = "DeviceScanStreamHandler";
+
+    private static final long DEFAULT_TIMEOUT_MS = 12000;
+    private static final long MAX_TIMEOUT_MS = 60000;
+
+    // Lowercase name fragments of common ELM327 clones and OBD dongles
+    private static final String[] OBD_NAME_HINTS = {
+            "obd", "elm", "v-link", "vlink", "vgate", "icar", "veepeak", "konnwei", "carista", "kiwi",
+    };
+
+    private final Context context;
+    private final BluetoothAdapter adapter;
+    private final Handler mainHandler;
+    private final SessionManager sessions;
+    private final ConnectionRuntime runtime;
+
+    // Only touched on the main thread
+    private EventChannel.EventSink sink;
+    private final Set<String> seen = new HashSet<>();
+    private boolean obdOnly = false;
+    private boolean receiverRegistered = false;
+    private boolean discoveryStarted = false;
+    // Set once the adapter reports our discovery running, so the end of one cancelled before is ignored
+    private boolean discoveryRunning = false;
+    // Bumped by every listen and cancel, so a stale bonded enumeration is ignored
+    private int generation = 0;
+
+    private final Runnable timeoutRunnable = this::finish;
+
+    private final BroadcastReceiver discoveryReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            String action = intent.getAction();
+            if (BluetoothDevice.ACTION_FOUND.equals(action)) {
+                BluetoothDevice device = getDeviceExtra(intent);
+                if (device != null) {
+                    short rssi = intent.getShortExtra(BluetoothDevice.EXTRA_RSSI, Short.MIN_VALUE);
+                    emit(describe(device, sessions, rssi != Short.MIN_VALUE ? (int) rssi : null));
+                }
+            } else if (BluetoothAdapter.ACTION_DISCOVERY_STARTED.equals(action)) {
+                discoveryRunning = discoveryStarted;
+            } else if (BluetoothAdapter.ACTION_DISCOVERY_FINISHED.equals(action) && discoveryRunning) {
+                finish();
+            }
+        }
+    };
+
+    public DeviceScanStreamHandler(Context context, BluetoothAdapter adapter, Handler mainHandler,
+                                   SessionManager sessions, ConnectionRuntime runtime) {
+        this.context = context;
+        this.adapter = adapter;
+        this.mainHandler = mainHandler;
+        this.sessions = sessions;
+        this.runtime = runtime;
+    }
+
+    @Override
+    public void onListen(Object arguments, EventChannel.EventSink events) {
+        stop();
+        long timeoutMs = DEFAULT_TIMEOUT_MS;
+        boolean discover = true;
+        obdOnly = false;
+        if (arguments instanceof Map) {
+            Map<?, ?> args = (Map<?, ?>) arguments;
+            if (args.get("timeoutMs") instanceof Number) {
+                timeoutMs = Math.min(MAX_TIMEOUT_MS, Math.max(0, ((Number) args.get("timeoutMs")).longValue()));
+            }
+            if (args.get("obdOnly") instanceof Boolean) {
+                obdOnly = (Boolean) args.get("obdOnly");
+            }
+            if (args.get("discover") instanceof Boolean) {
+                discover = (Boolean) args.get("discover");
+            }
+        }
+
+        if (adapter == null) {
+            events.error("UNAVAILABLE", "Bluetooth is not available", null);
+            return;
+        }
+        if (!PermissionManager.hasPermissions(context)) {
+            events.error("PERMISSION_DENIED", "Bluetooth permissions not granted", null);
+            return;
+        }
+        sink = events;
+        int scan = ++generation;
+
+        // Bonded devices first, enumerated off the main thread
+        boolean scheduled = runtime.schedule(() -> {
+            List<Map<String, Object>> bonded = bondedDevices(adapter, sessions);
+            mainHandler.post(() -> {
+                if (scan != generation) {
+                    return;
+                }
+                for (Map<String, Object> device : bonded) {
+                    emit(device);
+                }
+                if (!discoveryStarted) {
+                    finish();
+                }
+            });
+        }, 0);
+        if (!scheduled) {
+            stop();
+            events.error("UNAVAILABLE", "Plugin is shutting down", null);
+            return;
+        }
+
+        if (discover) {
+            IntentFilter filter = new IntentFilter();
+            filter.addAction(BluetoothDevice.ACTION_FOUND);
+            filter.addAction(BluetoothAdapter.ACTION_DISCOVERY_STARTED);
+            filter.addAction(BluetoothAdapter.ACTION_DISCOVERY_FINISHED);
+            context.registerReceiver(discoveryReceiver, filter);
+            receiverRegistered = true;
+            try {
+                // A discovery left running by someone else would hold back ours
+                if (adapter.isDiscovering()) {
+                    adapter.cancelDiscovery();
+                }
+                discoveryStarted = adapter.startDiscovery();
+                if (!discoveryStarted) {
+                    Log.w(TAG, "Discovery did not start, streaming bonded devices only");
+                }
+            } catch (SecurityException e) {
+                Log.w(TAG, "Discovery not permitted: " + e.getMessage());
+            }
+        }
+        if (discoveryStarted) {
+            mainHandler.postDelayed(timeoutRunnable, timeoutMs);
+        }
+    }
+
+    @Override
+    public void onCancel(Object arguments) {
+        stop();
+    }
+
+    /**
+     * End the scan and close the stream (main thread)
+     */
+    private void finish() {
+        EventChannel.EventSink current = sink;
+        stop();
+        if (current != null) {
+            current.endOfStream();
+        }
+    }
+
+    private void stop() {
+        generation++;
+        sink = null;
+        seen.clear();
+        mainHandler.removeCallbacks(timeoutRunnable);
+        if (receiverRegistered) {
+            context.unregisterReceiver(discoveryReceiver);
+            receiverRegistered = false;
+        }
+        discoveryRunning = false;
+        if (discoveryStarted) {
+            discoveryStarted = false;
+            try {
+                // Discovery slows down every open RFCOMM link, so don't leave it running
+                adapter.cancelDiscovery();
+            } catch (SecurityException e) {
+                Log.w(TAG, "Cannot cancel discovery: " + e.getMessage());
+            }
+        }
+    }
+
+    private void emit(Map<String, Object> device) {
+        if (sink == null || (obdOnly && !Boolean.TRUE.equals(device.get("likelyObd")))) {
+            return;
+        }
+        // Bonded devices show up in discovery again, and discovery repeats devices
+        if (seen.add((String) device.get("address"))) {
+            sink.success(device);
+        }
+    }
+
+    /**
+     * The bonded devices as scan results; empty if they cannot be read
+     */
+    public static List<Map<String, Object>> bondedDevices(BluetoothAdapter adapter, SessionManager sessions) {
+        List<Map<String, Object>> devices = new ArrayList<>();
+        try {
+            Set<BluetoothDevice> bonded = adapter.getBondedDevices();
+            if (bonded != null) {
+                for (BluetoothDevice device : bonded) {
+                    devices.add(describe(device, sessions, null));
+                }
+            }
+        } catch (SecurityException e) {
+            Log.w(TAG, "Cannot read bonded devices: " + e.getMessage());
+        }
+        return devices;
+    }
+
+    /**
+     * A device as sent to Dart, with its connection state from the session registry
+     */
+    public static Map<String, Object> describe(BluetoothDevice device, SessionManager sessions, Integer rssi) {
+        String name = device.getName();
+        BluetoothClass bluetoothClass = device.getBluetoothClass();
+        ConnectionSession session = sessions.getByAddress(device.getAddress());
+        ConnectionState state = session != null ? session.getState() : ConnectionState.CLOSED;
+
+        Map<String, Object> map = new HashMap<>();
+        map.put("name", name);
+        map.put("address", device.getAddress());
+        map.put("type", device.getType());
+        map.put("bonded", device.getBondState() == BluetoothDevice.BOND_BONDED);
+        map.put("rssi", rssi);
+        map.put("likelyObd", isLikelyObd(name, bluetoothClass));
+        map.put("isConnected", state == ConnectionState.CONNECTED || state == ConnectionState.DEGRADED);
+        return map;
+    }
+
+    /**
+     * OBD dongles have no device class of their own: go by the name, and for
+     * unnamed devices by the uncategorized class most of them report
+     */
+    static boolean isLikelyObd(String name, BluetoothClass bluetoothClass) {
+        if (name != null && !name.isEmpty()) {
+            String lower = name.toLowerCase(Locale.US);
+            for (String hint : OBD_NAME_HINTS) {
+                if (lower.contains(hint)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        if (bluetoothClass == null) {
+            return true;
+        }
+        int major = bluetoothClass.getMajorDeviceClass();
+        return major == BluetoothClass.Device.Major.UNCATEGORIZED || major == BluetoothClass.Device.Major.MISC;
+    }
+
+    @SuppressWarnings("deprecation")
+    private static BluetoothDevice getDeviceExtra(Intent intent) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+            return intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE, BluetoothDevice.class);
+        }
+        return intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
+    }
+}
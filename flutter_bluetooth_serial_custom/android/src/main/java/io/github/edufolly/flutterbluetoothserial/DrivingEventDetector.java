@@ -0,0 +1,190 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+/**
+ * Detects harsh braking, harsh acceleration, over-speed and over-rev from the
+ * decoded sample stream of a connection.
+ *
+ * Acceleration is the least-squares slope of the speed samples in a sliding
+ * window, so a single quantized 1 km/h step cannot fire an event the way a
+ * two-point difference would. All events are edge triggered with hysteresis,
+ * so one long stop yields one event; harsh events also have a cooldown.
+ *
+ * Runs on the dispatcher thread and is not thread-safe; timestamps are whatever
+ * the caller passes, which makes it easy to drive with synthetic traces.
+ */
+public class DrivingEventDetector implements SampleListener {
+    public static final String HARSH_BRAKING = "harshBraking";
+    public static final String HARSH_ACCELERATION = "harshAcceleration";
+    public static final String OVER_SPEED = "overSpeed";
+    public static final String OVER_REV = "overRev";
+
+    private static final int WINDOW_CAPACITY = 64;
+
+    // Samples further apart than this (dropout, reconnect) restart the window
+    private static final long MAX_GAP_NANOS = 2_000_000_000L;
+
+    private static final double SPEED_HYSTERESIS_KMH = 5;
+    private static final double RPM_HYSTERESIS = 200;
+
+    // A harsh episode ends once the slope drops below this share of its threshold
+    private static final double SLOPE_REARM_RATIO = 0.5;
+
+    /**
+     * Detection thresholds; a threshold of 0 or less disables that event
+     */
+    public static class Config {
+        /** Deceleration in km/h per second */
+        public double harshBrakingKmhPerS = 10;
+        /** Acceleration in km/h per second */
+        public double harshAccelerationKmhPerS = 10;
+        public double overSpeedKmh = 120;
+        public double overRevRpm = 5000;
+        /** Span the speed slope is fitted over */
+        public long windowMs = 1000;
+        /** Minimum time between two harsh events of the same kind */
+        public long cooldownMs = 3000;
+    }
+
+    /**
+     * Receives detected events on the dispatcher thread
+     */
+    public interface Listener {
+        /**
+         * @param type           one of the event constants
+         * @param timestampNanos monotonic time of the sample that triggered it
+         * @param value          km/h per second for harsh events, km/h or rpm otherwise
+         */
+        void onEvent(String type, long timestampNanos, double value);
+    }
+
+    private final Config config;
+    private final Listener listener;
+    private final long windowNanos;
+    private final long cooldownNanos;
+
+    // Ring of recent speed samples
+    private final long[] times = new long[WINDOW_CAPACITY];
+    private final double[] speeds = new double[WINDOW_CAPACITY];
+    private int head = 0;
+    private int count = 0;
+
+    private long brakingQuietUntil = Long.MIN_VALUE;
+    private long accelerationQuietUntil = Long.MIN_VALUE;
+    private boolean braking = false;
+    private boolean accelerating = false;
+    private boolean overSpeed = false;
+    private boolean overRev = false;
+
+    public DrivingEventDetector(Config config, Listener listener) {
+        this.config = config;
+        this.listener = listener;
+        this.windowNanos = Math.max(1, config.windowMs) * 1_000_000L;
+        this.cooldownNanos = Math.max(0, config.cooldownMs) * 1_000_000L;
+    }
+
+    @Override
+    public void onSample(long timestampNanos, int pid, long rawValue) {
+        if (pid == ObdPids.VEHICLE_SPEED) {
+            onSpeed(timestampNanos, ObdPids.decode(pid, rawValue));
+        } else if (pid == ObdPids.ENGINE_RPM) {
+            onRpm(timestampNanos, ObdPids.decode(pid, rawValue));
+        }
+    }
+
+    private void onSpeed(long timestampNanos, double speedKmh) {
+        if (config.overSpeedKmh > 0) {
+            if (!overSpeed && speedKmh > config.overSpeedKmh) {
+                overSpeed = true;
+                listener.onEvent(OVER_SPEED, timestampNanos, speedKmh);
+            } else if (overSpeed && speedKmh < config.overSpeedKmh - SPEED_HYSTERESIS_KMH) {
+                overSpeed = false;
+            }
+        }
+
+        addSpeed(timestampNanos, speedKmh);
+        if (count < 3) {
+            return;
+        }
+        int oldest = (head - count + WINDOW_CAPACITY) % WINDOW_CAPACITY;
+        // Wait for the window to fill enough for a meaningful slope
+        if (timestampNanos - times[oldest] < windowNanos / 2) {
+            return;
+        }
+
+        double slope = slopeKmhPerSecond(oldest);
+        if (config.harshBrakingKmhPerS > 0) {
+            if (!braking && -slope >= config.harshBrakingKmhPerS && timestampNanos >= brakingQuietUntil) {
+                braking = true;
+                brakingQuietUntil = timestampNanos + cooldownNanos;
+                listener.onEvent(HARSH_BRAKING, timestampNanos, -slope);
+            } else if (braking && -slope < config.harshBrakingKmhPerS * SLOPE_REARM_RATIO) {
+                braking = false;
+            }
+        }
+        if (config.harshAccelerationKmhPerS > 0) {
+            if (!accelerating && slope >= config.harshAccelerationKmhPerS
+                    && timestampNanos >= accelerationQuietUntil) {
+                accelerating = true;
+                accelerationQuietUntil = timestampNanos + cooldownNanos;
+                listener.onEvent(HARSH_ACCELERATION, timestampNanos, slope);
+            } else if (accelerating && slope < config.harshAccelerationKmhPerS * SLOPE_REARM_RATIO) {
+                accelerating = false;
+            }
+        }
+    }
+
+    private void onRpm(long timestampNanos, double rpm) {
+        if (config.overRevRpm <= 0) {
+            return;
+        }
+        if (!overRev && rpm > config.overRevRpm) {
+            overRev = true;
+            listener.onEvent(OVER_REV, timestampNanos, rpm);
+        } else if (overRev && rpm < config.overRevRpm - RPM_HYSTERESIS) {
+            overRev = false;
+        }
+    }
+
+    private void addSpeed(long timestampNanos, double speedKmh) {
+        if (count > 0) {
+            int newest = (head - 1 + WINDOW_CAPACITY) % WINDOW_CAPACITY;
+            long gap = timestampNanos - times[newest];
+            if (gap < 0 || gap > MAX_GAP_NANOS) {
+                count = 0;
+                braking = false;
+                accelerating = false;
+            }
+        }
+
+        times[head] = timestampNanos;
+        speeds[head] = speedKmh;
+        head = (head + 1) % WINDOW_CAPACITY;
+        if (count < WINDOW_CAPACITY) {
+            count++;
+        }
+
+        // Drop samples that fell out of the window
+        while (count > 1 && timestampNanos - times[(head - count + WINDOW_CAPACITY) % WINDOW_CAPACITY] > windowNanos) {
+            count--;
+        }
+    }
+
+    /**
+     * Least-squares slope of the samples in the window, times relative to the oldest
+     */
+    private double slopeKmhPerSecond(int oldest) {
+        long base = times[oldest];
+        double sumT = 0, sumV = 0, sumTT = 0, sumTV = 0;
+        for (int i = 0; i < count; i++) {
+            int index = (oldest + i) % WINDOW_CAPACITY;
+            double t = (times[index] - base) / 1e9;
+            double v = speeds[index];
+            sumT += t;
+            sumV += v;
+            sumTT += t * t;
+            sumTV += t * v;
+        }
+        double denominator = count * sumTT - sumT * sumT;
+        return denominator > 0 ? (count * sumTV - sumT * sumV) / denominator : 0;
+    }
+}
@@ -0,0 +1,216 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Init stage run on a fresh connection before its reader starts: applies an AT
+ * profile that keeps responses short and probes what the adapter and ECU
+ * support, or takes the latter from the {@link AdapterProfile} cache. The
+ * cache is keyed by adapter address, and the adapter may have moved to
+ * another vehicle since: a cached profile is only used after 0100 reads the
+ * same as when it was probed.
+ *
+ * With echo, spaces, linefeeds and headers off "010D" is answered with
+ * "410D32\r\r>" instead of "010D\r\n41 0D 32 \r\n\r\n>", about half the bytes.
+ */
+public class Elm327Initializer {
+    private static final String TAG = "Elm327Initializer";
+
+    // Echo first: every later answer is shorter for it
+    private static final String[] AT_PROFILE = {"ATE0", "ATL0", "ATS0", "ATH0", "ATAT1"};
+
+    private static final long AT_TIMEOUT_MS = 1000;
+    // The first OBD request makes the adapter search for the vehicle's protocol
+    private static final long FIRST_PROBE_TIMEOUT_MS = 6000;
+    private static final long PROBE_TIMEOUT_MS = 2000;
+
+    // How long to sleep between checks for more input while waiting for the prompt
+    private static final long POLL_INTERVAL_MS = 5;
+
+    private final BluetoothConnection connection;
+    private final StringBuilder received = new StringBuilder();
+    private final byte[] buffer = new byte[256];
+
+    private Elm327Initializer(BluetoothConnection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * Apply the AT profile and return the adapter's profile, probing it unless
+     * cached. Throws if the device does not answer like an ELM327 at all.
+     */
+    public static AdapterProfile initialize(BluetoothConnection connection, String address) throws IOException {
+        return new Elm327Initializer(connection).run(address);
+    }
+
+    private AdapterProfile run(String address) throws IOException {
+        drain();
+        for (String command : AT_PROFILE) {
+            List<String> lines = exchange(command, AT_TIMEOUT_MS);
+            if (lines == null) {
+                throw new IOException("No prompt after " + command + ", not an ELM327 adapter?");
+            }
+            // Clones without adaptive timing answer "?"; nothing else to do about it
+            if (!lines.contains("OK")) {
+                Log.w(TAG, command + " not accepted by " + address + ": " + lines);
+            }
+        }
+
+        List<String> info = exchange("ATI", AT_TIMEOUT_MS);
+        String adapterId = info != null && !info.isEmpty() ? info.get(0) : "";
+
+        // Another adapter behind the same address (or a firmware update) gets probed afresh
+        AdapterProfile cached = AdapterProfile.lookup(address);
+        if (cached != null) {
+            if (cached.getAdapterId().equals(adapterId)) {
+                long bitmap = readBitmap(0x00, FIRST_PROBE_TIMEOUT_MS);
+                if (bitmap == cached.supportedBitmap(0x00)) {
+                    return cached;
+                }
+                if (bitmap < 0) {
+                    // Ignition off? Which vehicle this is cannot be told, so poll without filtering
+                    Log.w(TAG, "Could not confirm the cached PIDs of " + address);
+                    return cached.unconfirmed();
+                }
+                Log.i(TAG, "Supported PIDs of " + address + " changed, probing again");
+            }
+            AdapterProfile.forget(address);
+        }
+
+        long[] supportedPids = new long[4];
+        boolean pidsKnown = probeSupportedPids(supportedPids);
+
+        List<String> protocolLines = exchange("ATDPN", AT_TIMEOUT_MS);
+        String protocol = protocolLines != null && !protocolLines.isEmpty() ? protocolLines.get(0) : "";
+
+        AdapterProfile profile = new AdapterProfile(adapterId, protocol, supportedPids, pidsKnown, false);
+        // Only a complete probe is worth keeping; with the ignition off the next connect tries again
+        if (pidsKnown) {
+            AdapterProfile.remember(address, profile);
+        } else {
+            Log.w(TAG, "Could not read supported PIDs from " + address);
+        }
+        return profile;
+    }
+
+    /**
+     * Walk the 0100/0120/... support bitmaps as far as the ECU chains them
+     */
+    private boolean probeSupportedPids(long[] supportedPids) throws IOException {
+        for (int base = 0x00; base < 0x100; base += 0x20) {
+            long bitmap = readBitmap(base, base == 0 ? FIRST_PROBE_TIMEOUT_MS : PROBE_TIMEOUT_MS);
+            if (bitmap < 0) {
+                return base > 0;
+            }
+
+            // Bit 31 of the bitmap is PID base+1, bit 0 is PID base+32
+            for (int bit = 0; bit < 32; bit++) {
+                if ((bitmap & (1L << (31 - bit))) != 0) {
+                    int pid = base + 1 + bit;
+                    if (pid < 256) {
+                        supportedPids[pid >> 6] |= 1L << (pid & 63);
+                    }
+                }
+            }
+            if ((bitmap & 1) == 0) {
+                break;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The support bitmap of PIDs base+1 to base+32, or -1 if the ECU did not
+     * answer with one
+     */
+    private long readBitmap(int base, long timeoutMs) throws IOException {
+        List<String> lines = exchange("01" + hexByte(base), timeoutMs);
+        if (lines == null) {
+            return -1;
+        }
+        // Each ECU on the bus answers with its own bitmap; a PID any of them has counts
+        long bitmap = 0;
+        boolean answered = false;
+        for (String line : lines) {
+            long value = parseBitmap(line, base);
+            if (value >= 0) {
+                bitmap |= value;
+                answered = true;
+            }
+        }
+        return answered ? bitmap : -1;
+    }
+
+    /**
+     * The 32-bit bitmap from a "41 <base> XX XX XX XX" line, or -1 if the line is not one
+     */
+    private static long parseBitmap(String line, int base) {
+        String hex = line.replace(" ", "");
+        if (hex.length() != 12 || !hex.startsWith("41" + hexByte(base))) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(hex.substring(4), 16);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static String hexByte(int value) {
+        return (value < 0x10 ? "0" : "") + Integer.toHexString(value).toUpperCase();
+    }
+
+    /**
+     * Send a command and collect the answer lines up to the prompt, without the
+     * echo and "SEARCHING..."; null on timeout
+     */
+    private List<String> exchange(String command, long timeoutMs) throws IOException {
+        // A late answer to a command that timed out must not pass for this one's
+        drain();
+        connection.write((command + "\r").getBytes(StandardCharsets.US_ASCII));
+
+        received.setLength(0);
+        long deadline = SystemClock.elapsedRealtime() + timeoutMs;
+        while (received.indexOf(">") < 0) {
+            if (SystemClock.elapsedRealtime() >= deadline) {
+                return null;
+            }
+            // The socket read has no timeout, so only read what is already there
+            if (connection.available() > 0) {
+                int length = connection.read(buffer, 0, buffer.length);
+                for (int i = 0; i < length; i++) {
+                    received.append((char) (buffer[i] & 0xFF));
+                }
+            } else {
+                SystemClock.sleep(POLL_INTERVAL_MS);
+            }
+        }
+
+        List<String> lines = new ArrayList<>();
+        String text = received.substring(0, received.indexOf(">"));
+        for (String line : text.split("[\r\n]")) {
+            line = line.trim();
+            if (line.isEmpty() || line.equals(command) || line.startsWith("SEARCHING")) {
+                continue;
+            }
+            lines.add(line);
+        }
+        return lines;
+    }
+
+    /**
+     * Discard anything left over from before, e.g. a banner sent on connect
+     * or the tail of an answer that came too late
+     */
+    private void drain() throws IOException {
+        while (connection.available() > 0) {
+            connection.read(buffer, 0, buffer.length);
+        }
+    }
+}
@@ -4,25 +4,39 @@ import android.Manifest;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothManager;
+import android.content.BroadcastReceiver;
 import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.pm.PackageManager;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
 import androidx.core.app.ActivityCompat;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 import io.flutter.embedding.engine.plugins.FlutterPlugin;
 import io.flutter.embedding.engine.plugins.activity.ActivityAware;
 import io.flutter.embedding.engine.plugins.activity.ActivityPluginBinding;
+import io.flutter.plugin.common.BasicMessageChannel;
+import io.flutter.plugin.common.BinaryCodec;
+import io.flutter.plugin.common.BinaryMessenger;
+import io.flutter.plugin.common.EventChannel;
 import io.flutter.plugin.common.MethodCall;
 import io.flutter.plugin.common.MethodChannel;
 import io.flutter.plugin.common.MethodChannel.MethodCallHandler;
@@ -33,16 +47,49 @@ import io.flutter.plugin.common.PluginRegistry.RequestPermissionsResultListener;
 public class FlutterBluetoothSerialPlugin implements FlutterPlugin, MethodCallHandler, ActivityAware {
   private static final String TAG = "FlutterBlueSerialPlugin";
   
+  // Trip logs live under the app's files dir
+  private static final String TRIPS_DIR = "trips";
+  // Raw traffic captures, likewise
+  private static final String CAPTURES_DIR = "captures";
+  private static final int DEFAULT_READ_CHUNK_SAMPLES = 4096;
+  // Bounds the buffers a chunk read allocates; Dart asks for the next chunk anyway
+  private static final int MAX_READ_CHUNK_SAMPLES = 4 * DEFAULT_READ_CHUNK_SAMPLES;
+  private static final long MAX_COMMAND_TIMEOUT_MS = 30000;
+  
   /// The MethodChannel that will the communication between Flutter and native Android
   private MethodChannel channel;
   private MethodChannel permissionChannel;
+  private EventChannel statsChannel;
+  private EventChannel scanChannel;
+  private DeviceScanStreamHandler scanHandler;
+  private BasicMessageChannel<ByteBuffer> samplesChannel;
   private static Context applicationContext;
   private BluetoothAdapter bluetoothAdapter;
   private ActivityPluginBinding activityBinding;
   private PermissionManager permissionManager;
 
-  // Track active connections
-  private final ConcurrentHashMap<String, BluetoothConnection> connections = new ConcurrentHashMap<>();
+  // Track active connections. Process-wide, as with background capture they
+  // outlive the engine that opened them.
+  private static final SessionManager sessions = new SessionManager();
+
+  // Single cached handler for everything posted back to the platform thread
+  private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+  private BinaryMessenger messenger;
+
+  // Connect pool, reader threads and poll pool; kept while sessions run in the background
+  private static ConnectionRuntime runtime;
+  
+  // Method channel of the attached engine for notifications; null while none is
+  private static volatile MethodChannel attachedChannel;
+  
+  // ACL and adapter broadcasts, so a dead link is noticed without probing sockets
+  private static final BroadcastReceiver linkStateReceiver = new BroadcastReceiver() {
+    @Override
+    public void onReceive(Context context, Intent intent) {
+      onLinkStateBroadcast(intent);
+    }
+  };
+  private static boolean linkStateReceiverRegistered = false;
 
   /**
    * Provides access to the application context
@@ -54,11 +101,23 @@ public class FlutterBluetoothSerialPlugin implements FlutterPlugin, MethodCallHa
   @Override
   public void onAttachedToEngine(@NonNull FlutterPluginBinding flutterPluginBinding) {
     applicationContext = flutterPluginBinding.getApplicationContext();
-    channel = new MethodChannel(flutterPluginBinding.getBinaryMessenger(), "flutter_bluetooth_serial");
+    messenger = flutterPluginBinding.getBinaryMessenger();
+    if (runtime == null || runtime.isShutdown()) {
+      runtime = new ConnectionRuntime();
+    }
+    channel = new MethodChannel(messenger, "flutter_bluetooth_serial");
     channel.setMethodCallHandler(this);
+    attachedChannel = channel;
+    
+    // Periodic link statistics for all connections
+    statsChannel = new EventChannel(messenger, "flutter_bluetooth_serial/stats");
+    statsChannel.setStreamHandler(new StatsStreamHandler(mainHandler, sessions));
+    
+    // Binary mode 01 samples of all connections, see SampleStream
+    samplesChannel = new BasicMessageChannel<>(messenger, "flutter_bluetooth_serial/samples", BinaryCodec.INSTANCE);
     
     // Separate channel for permission requests
-    permissionChannel = new MethodChannel(flutterPluginBinding.getBinaryMessenger(), "flutter_bluetooth_serial/permissions");
+    permissionChannel = new MethodChannel(messenger, "flutter_bluetooth_serial/permissions");
     
     // Initialize Bluetooth adapter
     if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
@@ -69,6 +128,27 @@ public class FlutterBluetoothSerialPlugin implements FlutterPlugin, MethodCallHa
     } else {
       bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
     }
+    
+    IntentFilter linkFilter = new IntentFilter();
+    linkFilter.addAction(BluetoothDevice.ACTION_ACL_CONNECTED);
+    linkFilter.addAction(BluetoothDevice.ACTION_ACL_DISCONNECT_REQUESTED);
+    linkFilter.addAction(BluetoothDevice.ACTION_ACL_DISCONNECTED);
+    linkFilter.addAction(BluetoothAdapter.ACTION_STATE_CHANGED);
+    
+    // Bonded devices, then discovery results, see DeviceScanStreamHandler
+    scanChannel = new EventChannel(messenger, "flutter_bluetooth_serial/scan");
+    scanHandler = new DeviceScanStreamHandler(applicationContext, bluetoothAdapter, mainHandler, sessions, runtime);
+    scanChannel.setStreamHandler(scanHandler);
+    
+    if (!linkStateReceiverRegistered) {
+      applicationContext.registerReceiver(linkStateReceiver, linkFilter);
+      linkStateReceiverRegistered = true;
+    }
+    
+    // Sessions kept running by background capture carry on with this engine
+    for (ConnectionSession session : sessions.all()) {
+      session.attachToEngine(messenger);
+    }
   }
 
   @Override
@@ -76,6 +156,7 @@ public class FlutterBluetoothSerialPlugin implements FlutterPlugin, MethodCallHa
     // Check if we have permissions for Bluetooth operations
     if (!call.method.equals("isAvailable") && 
         !call.method.equals("requestPermissions") && 
+        !call.method.equals("readRecording") && 
         !PermissionManager.hasPermissions(applicationContext)) {
       result.error("PERMISSION_DENIED", "Bluetooth permissions not granted", null);
       return;
@@ -142,19 +223,14 @@ public class FlutterBluetoothSerialPlugin implements FlutterPlugin, MethodCallHa
               }
             }
             
-            List<Map<String, Object>> devicesList = new ArrayList<>();
-            Set<BluetoothDevice> bondedDevices = bluetoothAdapter.getBondedDevices();
-            
-            for (BluetoothDevice device : bondedDevices) {
-              Map<String, Object> deviceMap = new HashMap<>();
-              deviceMap.put("name", device.getName());
-              deviceMap.put("address", device.getAddress());
-              deviceMap.put("type", device.getType());
-              deviceMap.put("isConnected", false);  // Connection state requires additional tracking
-              devicesList.add(deviceMap);
+            // Enumerated off the main thread, connection state from the session registry
+            boolean scheduled = runtime.schedule(() -> {
+              List<Map<String, Object>> devicesList = DeviceScanStreamHandler.bondedDevices(bluetoothAdapter, sessions);
+              mainHandler.post(() -> result.success(devicesList));
+            }, 0);
+            if (!scheduled) {
+              result.success(new ArrayList<>());
             }
-            
-            result.success(devicesList);
           } catch (Exception e) {
             Log.e(TAG, "Error getting bonded devices", e);
             result.success(new ArrayList<>());
@@ -174,10 +250,89 @@ public class FlutterBluetoothSerialPlugin implements FlutterPlugin, MethodCallHa
         writeToDevice(call, result);
         break;
         
+      case "sendCommand":
+        sendCommand(call, result);
+        break;
+        
+      case "invalidateCache":
+        invalidateCache(call, result);
+        break;
+        
       case "isConnected":
         checkConnection(call, result);
         break;
         
+      case "startPolling":
+        startPolling(call, result);
+        break;
+        
+      case "stopPolling":
+        stopPolling(call, result);
+        break;
+        
+      case "getStats":
+        getConnectionStats(call, result);
+        break;
+        
+      case "getTripSummary":
+        getTripSummary(call, result);
+        break;
+        
+      case "startEventDetection":
+        startEventDetection(call, result);
+        break;
+        
+      case "stopEventDetection":
+        stopEventDetection(call, result);
+        break;
+        
+      case "startSampleStream":
+        startSampleStream(call, result);
+        break;
+        
+      case "stopSampleStream":
+        stopSampleStream(call, result);
+        break;
+        
+      case "startRecording":
+        startRecording(call, result);
+        break;
+        
+      case "stopRecording":
+        stopRecording(call, result);
+        break;
+        
+      case "readRecording":
+        readRecording(call, result);
+        break;
+        
+      case "startCapture":
+        startCapture(call, result);
+        break;
+        
+      case "stopCapture":
+        stopCapture(call, result);
+        break;
+        
+      case "getSessions":
+        getSessions(result);
+        break;
+        
+      case "startBackgroundCapture":
+        startBackgroundCapture(call, result);
+        break;
+        
+      case "stopBackgroundCapture":
+        CaptureService.stop(applicationContext);
+        result.success(true);
+        break;
+        
+      case "getRuntimeStats":
+        Map<String, Object> runtimeStats = runtime.getStats();
+        runtimeStats.put("sessions", sessions.size());
+        result.success(runtimeStats);
+        break;
+        
       default:
         result.notImplemented();
         break;
@@ -192,58 +347,109 @@ public class FlutterBluetoothSerialPlugin implements FlutterPlugin, MethodCallHa
     }
     
     // Check if already connected
-    if (connections.containsKey(address) && connections.get(address) != null && 
-        connections.get(address).isConnected()) {
-      result.success(1); // Connection handle (ID)
+    ConnectionSession existing = sessions.getByAddress(address);
+    if (existing != null && (existing.isReconnecting() || existing.getConnection().isConnected())) {
+      result.success(existing.getHandle());
       return;
     }
     
-    // Start connection in background thread to not block UI
-    new Thread(() -> {
+    Integer batchMaxBytes = call.argument("batchMaxBytes");
+    Integer batchLatencyMs = call.argument("batchLatencyMs");
+    int maxBatchBytes = batchMaxBytes != null ? batchMaxBytes : DataBatcher.DEFAULT_MAX_BATCH_BYTES;
+    long maxLatencyMs = batchLatencyMs != null ? batchLatencyMs : DataBatcher.DEFAULT_MAX_LATENCY_MS;
+    
+    // Opt-in: keep the session alive across link drops
+    Boolean autoReconnect = call.argument("autoReconnect");
+    Integer reconnectAttempts = call.argument("reconnectAttempts");
+    ReconnectPolicy reconnectPolicy = null;
+    if (autoReconnect != null && autoReconnect) {
+      reconnectPolicy = new ReconnectPolicy(ReconnectPolicy.DEFAULT_INITIAL_DELAY_MS,
+          ReconnectPolicy.DEFAULT_MAX_DELAY_MS,
+          reconnectAttempts != null ? reconnectAttempts : ReconnectPolicy.DEFAULT_MAX_ATTEMPTS);
+    }
+    ReconnectPolicy policy = reconnectPolicy;
+    
+    // ELM327 AT profile and capability probe before the reader starts
+    Boolean initializeAdapterArg = call.argument("initializeAdapter");
+    boolean initializeAdapter = initializeAdapterArg != null && initializeAdapterArg;
+    
+    // Connect on the bounded connect pool to not block UI
+    boolean accepted = runtime.submitConnect(() -> {
       try {
         BluetoothConnection connection = BluetoothConnection.connect(address);
-        connections.put(address, connection);
+        AdapterProfile profile = initializeAdapter ? initializeAdapter(connection, address) : null;
+        ConnectionSession session = new ConnectionSession(sessions.nextHandle(), address, connection,
+            messenger, mainHandler, runtime.getPollExecutor(), maxBatchBytes, maxLatencyMs, policy);
+        session.setInitializeAdapter(initializeAdapter);
+        session.setAdapterProfile(profile);
+        
+        // A concurrent connect to the same device got there first: keep that one
+        ConnectionSession registered = sessions.register(session);
+        if (registered != session) {
+          session.close();
+          mainHandler.post(() -> result.success(registered.getHandle()));
+          return;
+        }
+        
+        session.setStateListener(this::onSessionStateChanged);
+        session.getWriteQueue().setBackpressureListener((backpressured, queuedBytes) ->
+            mainHandler.post(() -> {
+              Map<String, Object> message = new HashMap<>();
+              message.put("address", address);
+              message.put("handle", session.getHandle());
+              message.put("backpressured", backpressured);
+              message.put("queuedBytes", queuedBytes);
+              invokeFlutter("onWriteBackpressure", message);
+            }));
+        
+        // Start the dedicated reader and writer before reporting success so no data is missed
+        if (!runtime.startDispatcher(address, session::runDispatcher)
+            || !startReading(session)
+            || !runtime.startWriter(address, session.getWriteQueue()::run)) {
+          sessions.remove(session);
+          session.close();
+          throw new IOException("Plugin is shutting down");
+        }
+        session.markConnected();
         
         // Send success on main thread
-        new android.os.Handler(android.os.Looper.getMainLooper()).post(() -> {
-          result.success(1); // Connection handle (ID)
+        mainHandler.post(() -> {
+          result.success(session.getHandle());
         });
-        
-        // Start reading in background
-        startReading(address);
       } catch (IOException e) {
         Log.e(TAG, "Error connecting: " + e.getMessage(), e);
         
         // Send error on main thread
-        new android.os.Handler(android.os.Looper.getMainLooper()).post(() -> {
+        mainHandler.post(() -> {
           result.error("CONNECTION_FAILED", e.getMessage(), null);
         });
       }
-    }).start();
+    });
+    
+    if (!accepted) {
+      result.error("CONNECTION_REJECTED", "Too many connection attempts in progress", null);
+    }
   }
   
   private void disconnectDevice(MethodCall call, Result result) {
-    String address = call.argument("address");
-    if (address == null || address.isEmpty()) {
-      result.error("INVALID_ARGUMENT", "Device address is required", null);
+    if (!hasSessionKey(call)) {
+      result.error("INVALID_ARGUMENT", "Connection handle or device address is required", null);
       return;
     }
     
-    BluetoothConnection connection = connections.get(address);
-    if (connection != null) {
-      connection.close();
-      connections.remove(address);
+    ConnectionSession session = findSession(call);
+    if (session != null && sessions.remove(session)) {
+      session.close();
     }
     
     result.success(true);
   }
   
   private void writeToDevice(MethodCall call, Result result) {
-    String address = call.argument("address");
     byte[] data = call.argument("data");
     
-    if (address == null || address.isEmpty()) {
-      result.error("INVALID_ARGUMENT", "Device address is required", null);
+    if (!hasSessionKey(call)) {
+      result.error("INVALID_ARGUMENT", "Connection handle or device address is required", null);
       return;
     }
     
@@ -252,83 +458,748 @@ public class FlutterBluetoothSerialPlugin implements FlutterPlugin, MethodCallHa
       return;
     }
     
-    BluetoothConnection connection = connections.get(address);
-    if (connection == null || !connection.isConnected()) {
+    ConnectionSession session = findSession(call);
+    if (session == null || (!session.isReconnecting() && !session.getConnection().isConnected())) {
       result.error("NOT_CONNECTED", "Device is not connected", null);
       return;
     }
     
-    try {
-      connection.write(data);
+    // Queued for the writer thread; while reconnecting it is sent once the link is back
+    if (session.write(data)) {
       result.success(true);
-    } catch (IOException e) {
-      Log.e(TAG, "Error writing data: " + e.getMessage(), e);
-      result.error("WRITE_FAILED", e.getMessage(), null);
+    } else {
+      result.error("BUFFER_FULL", "Write queue is full", null);
     }
   }
   
+  private void sendCommand(MethodCall call, Result result) {
+    String command = call.argument("command");
+    String priority = call.argument("priority");
+    Number timeoutMs = call.argument("timeoutMs");
+    Number maxAgeMs = call.argument("maxAgeMs");
+    
+    if (!hasSessionKey(call)) {
+      result.error("INVALID_ARGUMENT", "Connection handle or device address is required", null);
+      return;
+    }
+    
+    String trimmed = command != null ? command.trim() : "";
+    if (trimmed.isEmpty() || trimmed.indexOf('\r') >= 0 || trimmed.indexOf('\n') >= 0) {
+      result.error("INVALID_ARGUMENT", "A single command is required", null);
+      return;
+    }
+    
+    CommandArbiter.Lane lane = priority != null ? CommandArbiter.Lane.fromWireName(priority)
+        : CommandArbiter.Lane.INTERACTIVE;
+    if (lane == null || lane == CommandArbiter.Lane.REALTIME) {
+      result.error("INVALID_ARGUMENT", "Priority must be interactive or bulk", null);
+      return;
+    }
+    
+    ConnectionSession session = findSession(call);
+    if (session == null || (!session.isReconnecting() && !session.getConnection().isConnected())) {
+      result.error("NOT_CONNECTED", "Device is not connected", null);
+      return;
+    }
+    
+    long timeoutNanos = timeoutMs != null
+        ? TimeUnit.MILLISECONDS.toNanos(Math.max(1, Math.min(MAX_COMMAND_TIMEOUT_MS, timeoutMs.longValue())))
+        : CommandArbiter.DEFAULT_TIMEOUT_NANOS;
+    long maxAgeNanos = maxAgeMs != null
+        ? TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxAgeMs.longValue()))
+        : ObdResponseCache.DEFAULT_MAX_AGE;
+    byte[] bytes = (trimmed + "\r").getBytes(StandardCharsets.US_ASCII);
+    
+    // Completed here from the cache, or later on the dispatcher thread or a poll pool thread
+    boolean queued = session.sendCommand(lane, bytes, timeoutNanos, maxAgeNanos, new CommandArbiter.Callback() {
+      @Override
+      public void onComplete(List<ObdResponse> responses, List<String> messages, long waitedNanos,
+                             long roundTripNanos, boolean cached) {
+        List<Map<String, Object>> responseMaps = new ArrayList<>();
+        for (ObdResponse response : responses) {
+          Map<String, Object> map = new HashMap<>();
+          map.put("mode", response.getMode());
+          map.put("pid", response.getPid());
+          map.put("data", response.getData());
+          responseMaps.add(map);
+        }
+        Map<String, Object> answer = new HashMap<>();
+        answer.put("responses", responseMaps);
+        answer.put("messages", new ArrayList<>(messages));
+        answer.put("waitedMs", waitedNanos / 1e6);
+        answer.put("roundTripMs", roundTripNanos / 1e6);
+        answer.put("cached", cached);
+        mainHandler.post(() -> result.success(answer));
+      }
+      
+      @Override
+      public void onError(String code, String message) {
+        mainHandler.post(() -> result.error(code, message, null));
+      }
+    });
+    if (!queued) {
+      result.error("BUFFER_FULL", "Too many " + lane.wireName + " commands queued", null);
+    }
+  }
+  
+  private void invalidateCache(MethodCall call, Result result) {
+    Integer mode = call.argument("mode");
+    Integer pid = call.argument("pid");
+    
+    if (!hasSessionKey(call)) {
+      result.error("INVALID_ARGUMENT", "Connection handle or device address is required", null);
+      return;
+    }
+    
+    if (mode == null && pid != null) {
+      result.error("INVALID_ARGUMENT", "A PID needs its mode", null);
+      return;
+    }
+    
+    ConnectionSession session = findSession(call);
+    if (session != null) {
+      session.invalidateCache(mode != null ? mode : -1, pid != null ? pid : -1);
+    }
+    result.success(true);
+  }
+  
   private void checkConnection(MethodCall call, Result result) {
-    String address = call.argument("address");
+    if (!hasSessionKey(call)) {
+      result.error("INVALID_ARGUMENT", "Connection handle or device address is required", null);
+      return;
+    }
     
-    if (address == null || address.isEmpty()) {
-      result.error("INVALID_ARGUMENT", "Device address is required", null);
+    // Answered from the tracked state; nothing touches the socket
+    ConnectionSession session = findSession(call);
+    ConnectionState state = session != null ? session.getState() : ConnectionState.CLOSED;
+    result.success(state == ConnectionState.CONNECTED || state == ConnectionState.DEGRADED);
+  }
+  
+  private void startPolling(MethodCall call, Result result) {
+    Map<Object, Object> pids = call.argument("pids");
+    Boolean multiPid = call.argument("multiPid");
+    Boolean adaptive = call.argument("adaptive");
+    
+    if (!hasSessionKey(call)) {
+      result.error("INVALID_ARGUMENT", "Connection handle or device address is required", null);
+      return;
+    }
+    
+    if (pids == null || pids.isEmpty()) {
+      result.error("INVALID_ARGUMENT", "At least one PID is required", null);
+      return;
+    }
+    
+    ConnectionSession session = findSession(call);
+    if (session == null || (!session.isReconnecting() && !session.getConnection().isConnected())) {
+      result.error("NOT_CONNECTED", "Device is not connected", null);
+      return;
+    }
+    
+    // PID -> target rate in Hz; Dart may send either ints or doubles
+    Map<Integer, Double> ratesHz = new HashMap<>();
+    for (Map.Entry<Object, Object> entry : pids.entrySet()) {
+      ratesHz.put(((Number) entry.getKey()).intValue(), ((Number) entry.getValue()).doubleValue());
+    }
+    
+    session.startPolling(ratesHz, multiPid == null || multiPid, adaptive == null || adaptive);
+    result.success(true);
+  }
+  
+  private void stopPolling(MethodCall call, Result result) {
+    if (!hasSessionKey(call)) {
+      result.error("INVALID_ARGUMENT", "Connection handle or device address is required", null);
+      return;
+    }
+    
+    ConnectionSession session = findSession(call);
+    if (session != null) {
+      session.stopPolling();
+    }
+    result.success(true);
+  }
+  
+  private void getConnectionStats(MethodCall call, Result result) {
+    if (!hasSessionKey(call)) {
+      result.error("INVALID_ARGUMENT", "Connection handle or device address is required", null);
+      return;
+    }
+    
+    ConnectionSession session = findSession(call);
+    if (session == null) {
+      result.error("NOT_CONNECTED", "Device is not connected", null);
+      return;
+    }
+    
+    Map<String, Object> stats = session.getStats();
+    stats.put("connectHistory", ConnectionStats.connectSnapshot());
+    result.success(stats);
+  }
+  
+  private void getTripSummary(MethodCall call, Result result) {
+    Boolean reset = call.argument("reset");
+    
+    if (!hasSessionKey(call)) {
+      result.error("INVALID_ARGUMENT", "Connection handle or device address is required", null);
+      return;
+    }
+    
+    ConnectionSession session = findSession(call);
+    if (session == null) {
+      result.error("NOT_CONNECTED", "Device is not connected", null);
+      return;
+    }
+    
+    result.success(session.getTripSummary(reset != null && reset));
+  }
+  
+  private void startEventDetection(MethodCall call, Result result) {
+    if (!hasSessionKey(call)) {
+      result.error("INVALID_ARGUMENT", "Connection handle or device address is required", null);
+      return;
+    }
+    
+    ConnectionSession session = findSession(call);
+    if (session == null) {
+      result.error("NOT_CONNECTED", "Device is not connected", null);
+      return;
+    }
+    
+    // Unset thresholds keep their defaults; 0 disables an event
+    DrivingEventDetector.Config config = new DrivingEventDetector.Config();
+    Number value;
+    if ((value = call.argument("harshBrakingKmhPerS")) != null) {
+      config.harshBrakingKmhPerS = value.doubleValue();
+    }
+    if ((value = call.argument("harshAccelerationKmhPerS")) != null) {
+      config.harshAccelerationKmhPerS = value.doubleValue();
+    }
+    if ((value = call.argument("overSpeedKmh")) != null) {
+      config.overSpeedKmh = value.doubleValue();
+    }
+    if ((value = call.argument("overRevRpm")) != null) {
+      config.overRevRpm = value.doubleValue();
+    }
+    if ((value = call.argument("windowMs")) != null) {
+      config.windowMs = value.longValue();
+    }
+    if ((value = call.argument("cooldownMs")) != null) {
+      config.cooldownMs = value.longValue();
+    }
+    
+    session.startEventDetection(config);
+    result.success(true);
+  }
+  
+  private void stopEventDetection(MethodCall call, Result result) {
+    if (!hasSessionKey(call)) {
+      result.error("INVALID_ARGUMENT", "Connection handle or device address is required", null);
+      return;
+    }
+    
+    ConnectionSession session = findSession(call);
+    if (session != null) {
+      session.stopEventDetection();
+    }
+    result.success(true);
+  }
+  
+  private void startSampleStream(MethodCall call, Result result) {
+    if (!hasSessionKey(call)) {
+      result.error("INVALID_ARGUMENT", "Connection handle or device address is required", null);
+      return;
+    }
+    
+    ConnectionSession session = findSession(call);
+    if (session == null) {
+      result.error("NOT_CONNECTED", "Device is not connected", null);
       return;
     }
     
-    BluetoothConnection connection = connections.get(address);
-    result.success(connection != null && connection.isConnected());
+    session.startSampleStream(samplesChannel::send);
+    result.success(true);
+  }
+  
+  private void stopSampleStream(MethodCall call, Result result) {
+    if (!hasSessionKey(call)) {
+      result.error("INVALID_ARGUMENT", "Connection handle or device address is required", null);
+      return;
+    }
+    
+    ConnectionSession session = findSession(call);
+    if (session != null) {
+      session.stopSampleStream();
+    }
+    result.success(true);
+  }
+  
+  private void startRecording(MethodCall call, Result result) {
+    String name = call.argument("name");
+    
+    if (!hasSessionKey(call)) {
+      result.error("INVALID_ARGUMENT", "Connection handle or device address is required", null);
+      return;
+    }
+    
+    if (name != null && (name.isEmpty() || name.contains("/") || name.startsWith("."))) {
+      result.error("INVALID_ARGUMENT", "Invalid recording name: " + name, null);
+      return;
+    }
+    
+    ConnectionSession session = findSession(call);
+    if (session == null) {
+      result.error("NOT_CONNECTED", "Device is not connected", null);
+      return;
+    }
+    
+    if (session.isRecording()) {
+      result.error("ALREADY_RECORDING", "A trip is already being recorded for " + session.getAddress(), null);
+      return;
+    }
+    
+    File dir = new File(applicationContext.getFilesDir(), TRIPS_DIR);
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      result.error("RECORDING_FAILED", "Cannot create " + dir, null);
+      return;
+    }
+    
+    if (name == null) {
+      String timestamp = new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date());
+      name = timestamp + "_" + session.getAddress().replace(":", "") + ".trip";
+    }
+    
+    File file = new File(dir, name);
+    try {
+      session.startRecording(file);
+      result.success(file.getAbsolutePath());
+    } catch (IOException | IllegalStateException e) {
+      Log.e(TAG, "Error starting recording: " + e.getMessage(), e);
+      result.error("RECORDING_FAILED", e.getMessage(), null);
+    }
+  }
+  
+  private void stopRecording(MethodCall call, Result result) {
+    if (!hasSessionKey(call)) {
+      result.error("INVALID_ARGUMENT", "Connection handle or device address is required", null);
+      return;
+    }
+    
+    ConnectionSession session = findSession(call);
+    if (session == null) {
+      result.success(null);
+      return;
+    }
+    
+    try {
+      TripRecorder recorder = session.stopRecording();
+      if (recorder == null) {
+        result.success(null);
+        return;
+      }
+      Map<String, Object> summary = new HashMap<>();
+      summary.put("path", recorder.getFile().getAbsolutePath());
+      summary.put("samples", recorder.getSampleCount());
+      summary.put("bytes", recorder.getBytesWritten());
+      result.success(summary);
+    } catch (IOException e) {
+      Log.e(TAG, "Error stopping recording: " + e.getMessage(), e);
+      result.error("RECORDING_FAILED", e.getMessage(), null);
+    }
   }
   
-  private void startReading(String address) {
-    BluetoothConnection connection = connections.get(address);
-    if (connection == null) {
+  private void readRecording(MethodCall call, Result result) {
+    String path = call.argument("path");
+    Number offset = call.argument("offset");
+    Number timestampUs = call.argument("timestampUs");
+    Integer maxSamples = call.argument("maxSamples");
+    
+    if (path == null || path.isEmpty()) {
+      result.error("INVALID_ARGUMENT", "Recording path is required", null);
       return;
     }
     
-    new Thread(() -> {
-      while (connections.containsKey(address) && 
-             connections.get(address) != null && 
-             connections.get(address).isConnected()) {
+    int limit = maxSamples != null && maxSamples > 0
+        ? Math.min(maxSamples, MAX_READ_CHUNK_SAMPLES) : DEFAULT_READ_CHUNK_SAMPLES;
+    long fromOffset = offset != null ? offset.longValue() : 0;
+    long fromTimestamp = timestampUs != null ? timestampUs.longValue() : 0;
+    
+    // File IO off the main thread
+    boolean scheduled = runtime.schedule(() -> {
+      try {
+        TripLog.Chunk chunk = TripLog.read(new File(path), fromOffset, fromTimestamp, limit);
+        Map<String, Object> response = chunk.toMap();
+        if (fromOffset == 0) {
+          response.put("startMillis", TripLog.readStartMillis(new File(path)));
+        }
+        mainHandler.post(() -> result.success(response));
+      } catch (IOException e) {
+        Log.e(TAG, "Error reading recording: " + e.getMessage(), e);
+        mainHandler.post(() -> result.error("READ_FAILED", e.getMessage(), null));
+      }
+    }, 0);
+    
+    if (!scheduled) {
+      result.error("READ_FAILED", "Plugin is shutting down", null);
+    }
+  }
+  
+  private void startCapture(MethodCall call, Result result) {
+    String name = call.argument("name");
+    Integer sizeBytes = call.argument("sizeBytes");
+    
+    if (!hasSessionKey(call)) {
+      result.error("INVALID_ARGUMENT", "Connection handle or device address is required", null);
+      return;
+    }
+    
+    if (name != null && (name.isEmpty() || name.contains("/") || name.startsWith("."))) {
+      result.error("INVALID_ARGUMENT", "Invalid capture name: " + name, null);
+      return;
+    }
+    
+    ConnectionSession session = findSession(call);
+    if (session == null) {
+      result.error("NOT_CONNECTED", "Device is not connected", null);
+      return;
+    }
+    
+    if (session.isCapturing()) {
+      result.error("ALREADY_CAPTURING", "Traffic of " + session.getAddress() + " is already being captured", null);
+      return;
+    }
+    
+    File dir = new File(applicationContext.getFilesDir(), CAPTURES_DIR);
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      result.error("CAPTURE_FAILED", "Cannot create " + dir, null);
+      return;
+    }
+    
+    if (name == null) {
+      String timestamp = new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date());
+      name = timestamp + "_" + session.getAddress().replace(":", "") + ".rawcap";
+    }
+    
+    File file = new File(dir, name);
+    try {
+      session.startCapture(file, sizeBytes != null ? sizeBytes : RawCapture.DEFAULT_CAPACITY_BYTES);
+      result.success(file.getAbsolutePath());
+    } catch (IOException | IllegalStateException e) {
+      Log.e(TAG, "Error starting capture: " + e.getMessage(), e);
+      result.error("CAPTURE_FAILED", e.getMessage(), null);
+    }
+  }
+  
+  private void stopCapture(MethodCall call, Result result) {
+    if (!hasSessionKey(call)) {
+      result.error("INVALID_ARGUMENT", "Connection handle or device address is required", null);
+      return;
+    }
+    
+    ConnectionSession session = findSession(call);
+    if (session == null) {
+      result.success(null);
+      return;
+    }
+    
+    try {
+      RawCapture capture = session.stopCapture();
+      result.success(capture != null ? capture.getStats() : null);
+    } catch (IOException e) {
+      Log.e(TAG, "Error stopping capture: " + e.getMessage(), e);
+      result.error("CAPTURE_FAILED", e.getMessage(), null);
+    }
+  }
+  
+  /**
+   * Live sessions, for an engine that attaches while they are running
+   */
+  private void getSessions(Result result) {
+    List<Map<String, Object>> list = new ArrayList<>();
+    for (ConnectionSession session : sessions.all()) {
+      Map<String, Object> entry = new HashMap<>();
+      entry.put("handle", session.getHandle());
+      entry.put("address", session.getAddress());
+      entry.put("state", session.getState().wireName);
+      entry.put("recording", session.isRecording());
+      list.add(entry);
+    }
+    result.success(list);
+  }
+  
+  /**
+   * Keep connections, polling and recording going when the engine detaches,
+   * under a foreground service so the process is not killed in the background
+   */
+  private void startBackgroundCapture(MethodCall call, Result result) {
+    String title = call.argument("title");
+    String text = call.argument("text");
+    try {
+      CaptureService.start(applicationContext, title, text);
+      result.success(true);
+    } catch (RuntimeException e) {
+      // Android 12+ refuses to start foreground services from the background
+      Log.e(TAG, "Error starting background capture: " + e.getMessage(), e);
+      result.error("CAPTURE_FAILED", e.getMessage(), null);
+    }
+  }
+  
+  /**
+   * Whether the call names a connection, by "handle" or by device "address"
+   */
+  private static boolean hasSessionKey(MethodCall call) {
+    String address = call.argument("address");
+    return call.argument("handle") != null || (address != null && !address.isEmpty());
+  }
+  
+  /**
+   * Session a call is for: by handle when given, else by device address
+   */
+  private ConnectionSession findSession(MethodCall call) {
+    Integer handle = call.argument("handle");
+    if (handle != null) {
+      return sessions.get(handle);
+    }
+    String address = call.argument("address");
+    return address != null ? sessions.getByAddress(address) : null;
+  }
+  
+  private boolean startReading(ConnectionSession session) {
+    String address = session.getAddress();
+    BluetoothConnection connection = session.getConnection();
+    
+    return runtime.startReader(address, () -> {
+      // Reads straight into the ring's buffers; the session's dispatcher thread batches and frames them
+      ReadRing ring = session.getReadRing();
+      
+      while (session.getState() != ConnectionState.CLOSED && connection.isConnected()) {
         try {
-          byte[] data = connection.read();
-          if (data.length > 0) {
-            // Send data to Flutter
-            Map<String, Object> message = new HashMap<>();
-            message.put("address", address);
-            message.put("data", data);
-            
-            new android.os.Handler(android.os.Looper.getMainLooper()).post(() -> {
-              channel.invokeMethod("onDataReceived", message);
-            });
+          byte[] buffer = ring.claim();
+          int bytesRead = connection.read(buffer, 0, buffer.length);
+          if (bytesRead > 0) {
+            ring.publish(bytesRead);
           }
         } catch (IOException e) {
           Log.e(TAG, "Error reading data: " + e.getMessage());
           
-          // Disconnect on error
-          if (connections.containsKey(address)) {
-            BluetoothConnection conn = connections.get(address);
-            if (conn != null) {
-              conn.close();
-            }
-            connections.remove(address);
-            
-            // Notify Flutter about disconnection
-            new android.os.Handler(android.os.Looper.getMainLooper()).post(() -> {
-              Map<String, Object> message = new HashMap<>();
-              message.put("address", address);
-              channel.invokeMethod("onDeviceDisconnected", message);
-            });
+          if (session.getReconnectPolicy() != null && sessions.isActive(session)) {
+            session.beginReconnect();
+            scheduleReconnect(session, 1);
+          } else {
+            // Disconnect on error
+            dropSession(session);
           }
           break;
         }
       }
-    }).start();
+    });
+  }
+  
+  /**
+   * Retry the connection of a session after the policy's backoff delay,
+   * giving up and disconnecting once attempts are exhausted
+   */
+  private void scheduleReconnect(ConnectionSession session, int attempt) {
+    String address = session.getAddress();
+    long delayMs = session.getReconnectPolicy().delayForAttempt(attempt);
+    if (delayMs < 0 || !sessions.isActive(session)) {
+      dropSession(session);
+      return;
+    }
+    
+    mainHandler.post(() -> {
+      Map<String, Object> message = new HashMap<>();
+      message.put("address", address);
+      message.put("handle", session.getHandle());
+      message.put("attempt", attempt);
+      message.put("delayMs", delayMs);
+      invokeFlutter("onDeviceReconnecting", message);
+    });
+    
+    boolean scheduled = runtime.schedule(() -> {
+      if (!runtime.submitConnect(() -> attemptReconnect(session, attempt))) {
+        scheduleReconnect(session, attempt + 1);
+      }
+    }, delayMs);
+    
+    if (!scheduled) {
+      dropSession(session);
+    }
+  }
+  
+  private void attemptReconnect(ConnectionSession session, int attempt) {
+    String address = session.getAddress();
+    if (!sessions.isActive(session)) {
+      return;
+    }
+    
+    BluetoothConnection connection = null;
+    try {
+      connection = BluetoothConnection.connect(address);
+      
+      // The adapter may have been power cycled; the cached profile keeps this short
+      if (session.isInitializingAdapter()) {
+        session.setAdapterProfile(initializeAdapter(connection, address));
+      }
+      
+      // Disconnected by the app while this attempt was running
+      if (!sessions.isActive(session)) {
+        connection.close();
+        return;
+      }
+      
+      session.completeReconnect(connection);
+      if (!startReading(session)) {
+        dropSession(session);
+        return;
+      }
+      
+      mainHandler.post(() -> {
+        Map<String, Object> message = new HashMap<>();
+        message.put("address", address);
+        message.put("handle", session.getHandle());
+        message.put("attempts", attempt);
+        invokeFlutter("onDeviceReconnected", message);
+      });
+    } catch (IOException e) {
+      Log.w(TAG, "Reconnect attempt " + attempt + " to " + address + " failed: " + e.getMessage());
+      if (connection != null) {
+        connection.close();
+      }
+      scheduleReconnect(session, attempt + 1);
+    }
+  }
+  
+  /**
+   * Run the ELM327 init stage on a fresh link; a device that does not answer
+   * like an ELM327 is used as a plain serial link
+   */
+  private static AdapterProfile initializeAdapter(BluetoothConnection connection, String address) {
+    try {
+      return Elm327Initializer.initialize(connection, address);
+    } catch (IOException e) {
+      Log.w(TAG, "Adapter init for " + address + " failed: " + e.getMessage());
+      return null;
+    }
+  }
+  
+  /**
+   * Close a session for good and tell Flutter the device is gone
+   */
+  private void dropSession(ConnectionSession session) {
+    String address = session.getAddress();
+    if (sessions.remove(session)) {
+      session.close();
+      
+      // Notify Flutter about disconnection
+      mainHandler.post(() -> {
+        Map<String, Object> message = new HashMap<>();
+        message.put("address", address);
+        message.put("handle", session.getHandle());
+        invokeFlutter("onDeviceDisconnected", message);
+      });
+    }
+  }
+
+  /**
+   * Notify the attached engine, if any; sessions may be running without one
+   * (main thread)
+   */
+  private static void invokeFlutter(String method, Map<String, Object> message) {
+    MethodChannel current = attachedChannel;
+    if (current != null) {
+      current.invokeMethod(method, message);
+    }
+  }
+  
+  /**
+   * Push a session state change to Flutter
+   */
+  private void onSessionStateChanged(ConnectionSession session, ConnectionState previous, ConnectionState state) {
+    mainHandler.post(() -> {
+      Map<String, Object> message = new HashMap<>();
+      message.put("address", session.getAddress());
+      message.put("handle", session.getHandle());
+      message.put("state", state.wireName);
+      message.put("previous", previous.wireName);
+      invokeFlutter("onConnectionStateChanged", message);
+    });
+  }
+  
+  /**
+   * ACL and adapter broadcasts (main thread). A lost link closes the session's
+   * socket, so its reader fails right away and runs the usual reconnect or
+   * disconnect path.
+   */
+  private static void onLinkStateBroadcast(Intent intent) {
+    String action = intent.getAction();
+    if (BluetoothAdapter.ACTION_STATE_CHANGED.equals(action)) {
+      int state = intent.getIntExtra(BluetoothAdapter.EXTRA_STATE, BluetoothAdapter.ERROR);
+      if (state == BluetoothAdapter.STATE_TURNING_OFF || state == BluetoothAdapter.STATE_OFF) {
+        for (ConnectionSession session : sessions.all()) {
+          String address = session.getAddress();
+          if (!SimulatedElm327Transport.isSimulatedAddress(address) && !ReplayTransport.isReplayAddress(address)) {
+            session.onLinkLost();
+          }
+        }
+      }
+      return;
+    }
+    
+    BluetoothDevice device = getDeviceExtra(intent);
+    ConnectionSession session = device != null ? sessions.getByAddress(device.getAddress()) : null;
+    if (session == null) {
+      return;
+    }
+    if (BluetoothDevice.ACTION_ACL_CONNECTED.equals(action)) {
+      session.onLinkRestored();
+    } else if (BluetoothDevice.ACTION_ACL_DISCONNECT_REQUESTED.equals(action)) {
+      session.onDisconnectRequested();
+    } else if (BluetoothDevice.ACTION_ACL_DISCONNECTED.equals(action)) {
+      session.onLinkLost();
+    }
+  }
+  
+  @SuppressWarnings("deprecation")
+  private static BluetoothDevice getDeviceExtra(Intent intent) {
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+      return intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE, BluetoothDevice.class);
+    }
+    return intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
   }
 
   @Override
   public void onDetachedFromEngine(@NonNull FlutterPluginBinding binding) {
+    if (attachedChannel == channel) {
+      attachedChannel = null;
+    }
     channel.setMethodCallHandler(null);
+    statsChannel.setStreamHandler(null);
+    scanChannel.setStreamHandler(null);
+    // Unregisters its receiver and cancels a running discovery
+    scanHandler.onCancel(null);
     permissionChannel.setMethodCallHandler(null);
+    
+    // Background capture: sessions, runtime and link receiver stay for the next engine
+    if (CaptureService.isRunning()) {
+      for (ConnectionSession session : sessions.all()) {
+        session.detachFromEngine();
+      }
+      return;
+    }
+    
+    if (linkStateReceiverRegistered) {
+      applicationContext.unregisterReceiver(linkStateReceiver);
+      linkStateReceiverRegistered = false;
+    }
+    
+    // Close sockets first so reader threads unblock, then stop the runtime
+    for (ConnectionSession session : sessions.all()) {
+      if (sessions.remove(session)) {
+        session.close();
+      }
+    }
+    runtime.shutdown();
+    mainHandler.removeCallbacksAndMessages(null);
     applicationContext = null;
   }
 
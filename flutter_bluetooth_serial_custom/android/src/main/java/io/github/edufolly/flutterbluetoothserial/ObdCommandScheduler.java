@@ -0,0 +1,491 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Polls a set of mode 01 PIDs at per-PID target rates over one adapter.
+ *
+ * Exactly one request is in flight at a time; it completes when the adapter
+ * prints its prompt (or after {@link #RESPONSE_TIMEOUT_NANOS}). Due PIDs are
+ * packed up to six per request ("010D0C11") while the ECU answers such requests,
+ * and the scheduler falls back to one PID per request when it does not.
+ *
+ * With adaptive rates on, the requested rates are an upper bound. The link's
+ * sample capacity is estimated from the smoothed round-trip time and the
+ * packing, shrunk multiplicatively on "BUFFER FULL", "STOPPED" and timeouts
+ * and grown back additively on clean round trips. When the requested rates do
+ * not fit, {@link #PRIORITY_PIDS} (speed, for harsh-braking detection) are
+ * served first and the rest share what is left. A PID that keeps answering
+ * "NO DATA" on its own is backed off on top of that.
+ *
+ * Requests go out on the realtime lane of a {@link CommandArbiter}: before
+ * each one the scheduler takes the adapter's request slot, and while
+ * interactive or bulk commands hold it the scheduler waits to be woken.
+ */
+public class ObdCommandScheduler {
+    private static final String TAG = "ObdCommandScheduler";
+
+    /**
+     * Where encoded commands are written
+     */
+    public interface CommandSink {
+        void send(byte[] command) throws IOException;
+    }
+
+    // ELM327 default timeout is ~200 ms per ECU; allow for slow clones and long frames
+    static final long RESPONSE_TIMEOUT_NANOS = TimeUnit.MILLISECONDS.toNanos(1000);
+
+    // Multi-PID requests that go unanswered this many times in a row disable packing
+    private static final int MAX_MULTI_PID_FAILURES = 2;
+
+    // Served first when the link cannot carry every requested rate
+    static final int[] PRIORITY_PIDS = {ObdPids.VEHICLE_SPEED};
+
+    // Share of the capacity priority PIDs may always claim, however much the rest ask for
+    private static final double PRIORITY_SHARE = 0.6;
+
+    // Leave room for answers that run long, so the link is not driven to the edge
+    private static final double CAPACITY_HEADROOM = 0.85;
+
+    // Adaptation never slows a PID below this (or below its requested rate, if lower)
+    private static final double MIN_RATE_HZ = 0.2;
+
+    // AIMD steps of the error scale
+    private static final double BUFFER_FULL_DECREASE = 0.5;
+    private static final double STOPPED_DECREASE = 0.7;
+    private static final double TIMEOUT_DECREASE = 0.7;
+    private static final double CLEAN_INCREASE = 0.02;
+    private static final double MIN_ERROR_SCALE = 0.05;
+
+    // Consecutive "NO DATA" answers before a PID's interval is doubled, up to MAX_NO_DATA_BACKOFF
+    private static final int NO_DATA_BACKOFF_AFTER = 3;
+    private static final int MAX_NO_DATA_BACKOFF = 16;
+
+    private static final class PidState {
+        final int pid;
+        final long requestedIntervalNanos;
+        final boolean priority;
+        long intervalNanos;
+        long nextDueNanos;
+        int noDataStreak = 0;
+        int backoff = 1;
+
+        PidState(int pid, long intervalNanos, long nextDueNanos) {
+            this.pid = pid;
+            this.requestedIntervalNanos = intervalNanos;
+            this.intervalNanos = intervalNanos;
+            this.nextDueNanos = nextDueNanos;
+            this.priority = isPriority(pid);
+        }
+
+        /** Requested rate in Hz after any NO DATA back-off */
+        double wantedRateHz() {
+            return 1e9 / ((double) requestedIntervalNanos * backoff);
+        }
+    }
+
+    private static final Comparator<PidState> BY_DUE_TIME =
+            (a, b) -> Long.compare(a.nextDueNanos, b.nextDueNanos);
+
+    private final CommandSink sink;
+    private final ScheduledExecutorService executor;
+    private final CommandArbiter arbiter;
+    private ConnectionStats stats;
+    private final Runnable tickRunnable = this::tick;
+
+    private final List<PidState> pids = new ArrayList<>();
+    private final List<PidState> due = new ArrayList<>();
+
+    // The request currently awaiting the adapter prompt
+    private final List<PidState> inFlight = new ArrayList<>();
+    private int inFlightAnswered = 0;
+    private long inFlightSentNanos = 0;
+
+    private boolean running = false;
+    private boolean multiPidEnabled = true;
+    private int multiPidFailures = 0;
+    private ScheduledFuture<?> pendingTick;
+
+    private long requestsSent = 0;
+    private long timeouts = 0;
+
+    private boolean adaptive = true;
+    // Smoothed round-trip time of a request, 0 until the first one completes
+    private long srttNanos = 0;
+    private double errorScale = 1.0;
+    private boolean inFlightError = false;
+    private double capacityHz = Double.POSITIVE_INFINITY;
+    private long noDataAnswers = 0;
+    private long bufferFullAnswers = 0;
+    private long stoppedAnswers = 0;
+
+    public ObdCommandScheduler(CommandSink sink, ScheduledExecutorService executor, CommandArbiter arbiter,
+                               ConnectionStats stats) {
+        this.sink = sink;
+        this.executor = executor;
+        this.arbiter = arbiter;
+        this.stats = stats;
+    }
+
+    /**
+     * Replace the polled PIDs with the given PID to target rate (Hz) map
+     */
+    public synchronized void setPids(Map<Integer, Double> ratesHz) {
+        long now = System.nanoTime();
+        pids.clear();
+        for (Map.Entry<Integer, Double> entry : ratesHz.entrySet()) {
+            double rate = entry.getValue();
+            if (rate <= 0) {
+                continue;
+            }
+            pids.add(new PidState(entry.getKey(), (long) (TimeUnit.SECONDS.toNanos(1) / rate), now));
+        }
+        updateRates();
+        scheduleTick(0);
+    }
+
+    /**
+     * Fit polling rates to the measured link capacity (the default), or poll
+     * exactly at the requested rates
+     */
+    public synchronized void setAdaptive(boolean adaptive) {
+        this.adaptive = adaptive;
+        updateRates();
+    }
+
+    /**
+     * Allow packing several PIDs into one request; re-enabling resets the fallback
+     */
+    public synchronized void setMultiPidEnabled(boolean enabled) {
+        multiPidEnabled = enabled;
+        multiPidFailures = 0;
+        updateRates();
+    }
+
+    /**
+     * Record round trips into the given stats from now on (after a reconnect);
+     * the new link is measured afresh
+     */
+    public synchronized void setStats(ConnectionStats stats) {
+        this.stats = stats;
+        srttNanos = 0;
+        errorScale = 1.0;
+        updateRates();
+    }
+
+    public synchronized void start() {
+        running = true;
+        scheduleTick(0);
+    }
+
+    public synchronized void stop() {
+        running = false;
+        // A request under way may still be answered
+        boolean answered = inFlight.isEmpty();
+        inFlight.clear();
+        if (pendingTick != null) {
+            pendingTick.cancel(false);
+            pendingTick = null;
+        }
+        arbiter.releaseRealtime(answered);
+        arbiter.onRealtimeIdle();
+    }
+
+    /**
+     * The arbiter handed the request slot over after turning a request away
+     */
+    public synchronized void wake() {
+        if (!running || pids.isEmpty()) {
+            arbiter.onRealtimeIdle();
+            return;
+        }
+        scheduleTick(0);
+    }
+
+    public synchronized boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * A decoded response arrived (dispatcher thread)
+     */
+    public synchronized void onResponse(ObdResponse response) {
+        if (response.getMode() != ObdPids.MODE_CURRENT_DATA) {
+            return;
+        }
+        for (int i = 0; i < inFlight.size(); i++) {
+            PidState state = inFlight.get(i);
+            if (state.pid == response.getPid()) {
+                inFlightAnswered++;
+                if (state.backoff > 1 || state.noDataStreak > 0) {
+                    state.noDataStreak = 0;
+                    state.backoff = 1;
+                    updateRates();
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * A non-data line from the adapter (dispatcher thread); the ones that say the
+     * link or the ECU is overloaded feed the rate adaptation
+     */
+    public synchronized void onMessage(String message) {
+        if (inFlight.isEmpty()) {
+            return;
+        }
+        if (message.contains("BUFFER FULL")) {
+            bufferFullAnswers++;
+            inFlightError = true;
+            errorScale = Math.max(MIN_ERROR_SCALE, errorScale * BUFFER_FULL_DECREASE);
+            updateRates();
+        } else if (message.contains("STOPPED")) {
+            stoppedAnswers++;
+            inFlightError = true;
+            errorScale = Math.max(MIN_ERROR_SCALE, errorScale * STOPPED_DECREASE);
+            updateRates();
+        } else if (message.contains("NO DATA")) {
+            noDataAnswers++;
+            // Only a single-PID request says which PID has nothing to report
+            if (inFlight.size() == 1) {
+                PidState state = inFlight.get(0);
+                if (++state.noDataStreak >= NO_DATA_BACKOFF_AFTER && state.backoff < MAX_NO_DATA_BACKOFF) {
+                    state.noDataStreak = 0;
+                    state.backoff *= 2;
+                    updateRates();
+                }
+            }
+        }
+    }
+
+    /**
+     * The adapter is ready for the next command (dispatcher thread)
+     */
+    public synchronized void onPrompt() {
+        if (inFlight.isEmpty()) {
+            return;
+        }
+        long roundTripNanos = System.nanoTime() - inFlightSentNanos;
+        stats.recordRoundTrip(roundTripNanos);
+        // Same smoothing as TCP's SRTT, 1/8 weight per sample
+        srttNanos = srttNanos == 0 ? roundTripNanos : srttNanos + (roundTripNanos - srttNanos) / 8;
+        if (!inFlightError && errorScale < 1.0) {
+            errorScale = Math.min(1.0, errorScale + CLEAN_INCREASE);
+        }
+        completeInFlight(true);
+        updateRates();
+        scheduleTick(0);
+    }
+
+    /**
+     * Snapshot of scheduler counters
+     */
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("running", running);
+        stats.put("multiPid", multiPidEnabled);
+        stats.put("requestsSent", requestsSent);
+        stats.put("timeouts", timeouts);
+        stats.put("adaptive", adaptive);
+        stats.put("srttMs", srttNanos / 1e6);
+        stats.put("errorScale", errorScale);
+        stats.put("noData", noDataAnswers);
+        stats.put("bufferFull", bufferFullAnswers);
+        stats.put("stopped", stoppedAnswers);
+        if (!Double.isInfinite(capacityHz)) {
+            stats.put("capacityHz", capacityHz);
+        }
+        Map<Integer, Double> rates = new HashMap<>();
+        for (int i = 0; i < pids.size(); i++) {
+            PidState state = pids.get(i);
+            rates.put(state.pid, 1e9 / state.intervalNanos);
+        }
+        stats.put("ratesHz", rates);
+        return stats;
+    }
+
+    private synchronized void tick() {
+        pendingTick = null;
+        if (!running || pids.isEmpty()) {
+            arbiter.onRealtimeIdle();
+            return;
+        }
+
+        long now = System.nanoTime();
+        if (!inFlight.isEmpty()) {
+            long waited = now - inFlightSentNanos;
+            if (waited < RESPONSE_TIMEOUT_NANOS) {
+                scheduleTick(RESPONSE_TIMEOUT_NANOS - waited);
+                return;
+            }
+            timeouts++;
+            errorScale = Math.max(MIN_ERROR_SCALE, errorScale * TIMEOUT_DECREASE);
+            completeInFlight(false);
+            updateRates();
+        }
+
+        due.clear();
+        long nextDue = Long.MAX_VALUE;
+        for (int i = 0; i < pids.size(); i++) {
+            PidState state = pids.get(i);
+            if (state.nextDueNanos <= now) {
+                due.add(state);
+            } else {
+                nextDue = Math.min(nextDue, state.nextDueNanos);
+            }
+        }
+
+        if (due.isEmpty()) {
+            arbiter.onRealtimeIdle();
+            scheduleTick(nextDue - now);
+            return;
+        }
+
+        // Interactive commands go first; the arbiter wakes us when the slot is ours
+        if (!arbiter.acquireRealtime()) {
+            return;
+        }
+
+        // Most overdue first, so a PID never starves behind faster ones
+        Collections.sort(due, BY_DUE_TIME);
+        int limit = multiPidEnabled ? ObdPids.MAX_PIDS_PER_REQUEST : 1;
+        // A multi-PID answer is split by the known data lengths, so a PID of
+        // unknown length goes in a request of its own; skipped ones stay due
+        boolean alone = ObdPids.dataLength(due.get(0).pid) == 0;
+
+        StringBuilder command = new StringBuilder(3 + 2 * limit);
+        command.append("01");
+        for (int i = 0; i < due.size() && inFlight.size() < limit; i++) {
+            PidState state = due.get(i);
+            if (i > 0 && (alone || ObdPids.dataLength(state.pid) == 0)) {
+                continue;
+            }
+            command.append(Character.toUpperCase(Character.forDigit(state.pid >> 4, 16)))
+                    .append(Character.toUpperCase(Character.forDigit(state.pid & 0xF, 16)));
+            inFlight.add(state);
+
+            // Keep the cadence, but don't try to catch up on missed slots
+            state.nextDueNanos = Math.max(state.nextDueNanos + state.intervalNanos, now);
+        }
+        command.append('\r');
+
+        inFlightAnswered = 0;
+        inFlightError = false;
+        inFlightSentNanos = now;
+        try {
+            sink.send(command.toString().getBytes(StandardCharsets.US_ASCII));
+            requestsSent++;
+            scheduleTick(RESPONSE_TIMEOUT_NANOS);
+        } catch (IOException e) {
+            // The reader notices the broken link and tears the session down
+            Log.e(TAG, "Error sending poll request: " + e.getMessage());
+            inFlight.clear();
+            running = false;
+            arbiter.releaseRealtime(true);
+            arbiter.onRealtimeIdle();
+        }
+    }
+
+    /**
+     * The request ended: by its prompt if {@code answered}, else by the timeout
+     */
+    private void completeInFlight(boolean answered) {
+        if (inFlight.size() > 1) {
+            if (inFlightAnswered == 0) {
+                multiPidFailures++;
+                if (multiPidFailures >= MAX_MULTI_PID_FAILURES) {
+                    Log.w(TAG, "ECU does not answer multi-PID requests, polling one PID at a time");
+                    multiPidEnabled = false;
+                }
+            } else {
+                multiPidFailures = 0;
+            }
+        }
+        inFlight.clear();
+        arbiter.releaseRealtime(answered);
+    }
+
+    /**
+     * Recompute every PID's effective interval from its requested rate and the
+     * current capacity estimate
+     */
+    private void updateRates() {
+        if (!adaptive || srttNanos == 0) {
+            capacityHz = Double.POSITIVE_INFINITY;
+            for (int i = 0; i < pids.size(); i++) {
+                PidState state = pids.get(i);
+                state.intervalNanos = state.requestedIntervalNanos * state.backoff;
+            }
+            return;
+        }
+
+        int packing = multiPidEnabled ? Math.min(ObdPids.MAX_PIDS_PER_REQUEST, Math.max(1, pids.size())) : 1;
+        // One request at a time: no PID can be sampled faster than requests complete
+        double requestRateHz = CAPACITY_HEADROOM * errorScale * 1e9 / srttNanos;
+        capacityHz = requestRateHz * packing;
+
+        double priorityDemand = 0;
+        double otherDemand = 0;
+        for (int i = 0; i < pids.size(); i++) {
+            PidState state = pids.get(i);
+            double wanted = Math.min(state.wantedRateHz(), requestRateHz);
+            if (state.priority) {
+                priorityDemand += wanted;
+            } else {
+                otherDemand += wanted;
+            }
+        }
+
+        double priorityBudget = Math.max(capacityHz - otherDemand, capacityHz * PRIORITY_SHARE);
+        double priorityScale = priorityDemand > 0 ? Math.min(1.0, priorityBudget / priorityDemand) : 1.0;
+        double otherBudget = Math.max(0, capacityHz - priorityDemand * priorityScale);
+        double otherScale = otherDemand > 0 ? Math.min(1.0, otherBudget / otherDemand) : 1.0;
+
+        for (int i = 0; i < pids.size(); i++) {
+            PidState state = pids.get(i);
+            double wanted = Math.min(state.wantedRateHz(), requestRateHz);
+            double rate = Math.max(wanted * (state.priority ? priorityScale : otherScale),
+                    Math.min(state.wantedRateHz(), MIN_RATE_HZ));
+            state.intervalNanos = (long) (1e9 / rate);
+        }
+    }
+
+    private static boolean isPriority(int pid) {
+        for (int priorityPid : PRIORITY_PIDS) {
+            if (priorityPid == pid) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void scheduleTick(long delayNanos) {
+        if (!running) {
+            return;
+        }
+        if (pendingTick != null) {
+            pendingTick.cancel(false);
+        }
+        try {
+            pendingTick = executor.schedule(tickRunnable, Math.max(0, delayNanos), TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            // The runtime is shutting down
+            pendingTick = null;
+            running = false;
+        }
+    }
+}
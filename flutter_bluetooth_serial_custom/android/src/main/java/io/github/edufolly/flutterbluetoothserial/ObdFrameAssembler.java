@@ -0,0 +1,275 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reassembles the ELM327 text protocol from arbitrarily chunked reads.
+ *
+ * Bytes are accumulated until a line terminator ('\r' / '\n') or the '>' prompt,
+ * so responses split across reads or coalesced into one read are decoded the
+ * same way. Hex lines that carry an OBD-II response (0x41..0x4A) are reported as
+ * {@link ObdResponse}s, ISO-TP multi-frame responses ("014" / "0: ..." / "1: ...")
+ * are joined into one response, multi-PID mode 01 answers are split per PID, and
+ * everything else ("OK", "NO DATA", echo, "ELM327 v1.5", ...) is reported as a
+ * text message.
+ *
+ * Not thread-safe: an instance belongs to the single reader of one connection.
+ */
+public class ObdFrameAssembler {
+
+    /**
+     * Receives the decoded output of the assembler
+     */
+    public interface Listener {
+        /** A complete OBD-II response was decoded */
+        void onResponse(ObdResponse response);
+
+        /** A non-response line was received (status text, errors, echo) */
+        void onMessage(String message);
+
+        /** The adapter printed its '>' prompt and is ready for the next command */
+        void onPrompt();
+    }
+
+    // Longest line we expect from an ELM327; longer lines are garbage and dropped
+    private static final int MAX_LINE_LENGTH = 512;
+
+    // ISO-TP payloads are at most 4095 bytes
+    private static final int MAX_FRAME_LENGTH = 4095;
+
+    private static final int FIRST_RESPONSE_MODE = 0x41;
+    private static final int LAST_RESPONSE_MODE = 0x4A;
+    private static final int RESPONSE_MODE_OFFSET = 0x40;
+
+    private final Listener listener;
+
+    private final byte[] line = new byte[MAX_LINE_LENGTH];
+    private int lineLength = 0;
+    private boolean lineOverflow = false;
+
+    private final byte[] scratch = new byte[MAX_LINE_LENGTH / 2];
+
+    private final byte[] frame = new byte[MAX_FRAME_LENGTH];
+    private int frameLength = 0;
+    private int expectedFrameLength = -1;
+
+    public ObdFrameAssembler(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Feed a chunk of bytes as read from the connection
+     */
+    public void feed(byte[] buffer, int offset, int length) {
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            byte b = buffer[i];
+            if (b == '\r' || b == '\n') {
+                endLine();
+            } else if (b == '>') {
+                endLine();
+                flushMultiFrame();
+                listener.onPrompt();
+            } else if (b != 0) {
+                // Some adapters emit NUL padding, which is simply dropped
+                if (lineLength < line.length) {
+                    line[lineLength++] = b;
+                } else {
+                    lineOverflow = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Feed a complete chunk of bytes as read from the connection
+     */
+    public void feed(byte[] buffer) {
+        feed(buffer, 0, buffer.length);
+    }
+
+    /**
+     * Discard any partially received line or frame
+     */
+    public void reset() {
+        lineLength = 0;
+        lineOverflow = false;
+        frameLength = 0;
+        expectedFrameLength = -1;
+    }
+
+    private void endLine() {
+        if (lineOverflow) {
+            lineLength = 0;
+            lineOverflow = false;
+            return;
+        }
+
+        int start = 0;
+        int end = lineLength;
+        while (start < end && line[start] == ' ') {
+            start++;
+        }
+        while (end > start && line[end - 1] == ' ') {
+            end--;
+        }
+        lineLength = 0;
+
+        if (start < end) {
+            processLine(start, end);
+        }
+    }
+
+    private void processLine(int start, int end) {
+        int length = end - start;
+
+        // ISO-TP length header, e.g. "014" before a multi-frame VIN response
+        if (length == 3 && isHexDigit(line[start]) && isHexDigit(line[start + 1])
+                && isHexDigit(line[start + 2])) {
+            expectedFrameLength = Math.min(MAX_FRAME_LENGTH,
+                    (hexValue(line[start]) << 8) | (hexValue(line[start + 1]) << 4) | hexValue(line[start + 2]));
+            frameLength = 0;
+            return;
+        }
+
+        // ISO-TP segment, e.g. "0: 49 02 01 31 44 34"
+        if (expectedFrameLength >= 0 && length >= 2 && isHexDigit(line[start]) && line[start + 1] == ':') {
+            int decoded = decodeHex(start + 2, end, frame, frameLength, MAX_FRAME_LENGTH - frameLength);
+            if (decoded < 0) {
+                expectedFrameLength = -1;
+                frameLength = 0;
+                listener.onMessage(lineText(start, end));
+                return;
+            }
+            frameLength += decoded;
+            if (frameLength >= expectedFrameLength) {
+                emitFrame(frame, expectedFrameLength, start, end);
+                expectedFrameLength = -1;
+                frameLength = 0;
+            }
+            return;
+        }
+
+        int decoded = decodeHex(start, end, scratch, 0, scratch.length);
+        if (decoded > 0) {
+            emitFrame(scratch, decoded, start, end);
+        } else {
+            listener.onMessage(lineText(start, end));
+        }
+    }
+
+    private void flushMultiFrame() {
+        if (expectedFrameLength >= 0 && frameLength > 0) {
+            emitFrame(frame, frameLength, 0, 0);
+        }
+        expectedFrameLength = -1;
+        frameLength = 0;
+    }
+
+    private void emitFrame(byte[] bytes, int length, int lineStart, int lineEnd) {
+        int responseMode = bytes[0] & 0xFF;
+        if (responseMode < FIRST_RESPONSE_MODE || responseMode > LAST_RESPONSE_MODE) {
+            // Echoed commands ("010D") and negative responses ("7F 01 12") are plain hex
+            if (lineEnd > lineStart) {
+                listener.onMessage(lineText(lineStart, lineEnd));
+            }
+            return;
+        }
+
+        int mode = responseMode - RESPONSE_MODE_OFFSET;
+        if (mode == ObdPids.MODE_CURRENT_DATA) {
+            emitCurrentData(bytes, length);
+        } else if (hasPid(mode)) {
+            if (length < 2) {
+                return;
+            }
+            listener.onResponse(new ObdResponse(mode, bytes[1] & 0xFF, Arrays.copyOfRange(bytes, 2, length)));
+        } else {
+            listener.onResponse(new ObdResponse(mode, ObdResponse.NO_PID, Arrays.copyOfRange(bytes, 1, length)));
+        }
+    }
+
+    /**
+     * Split a mode 01 frame that answers a multi-PID request ("41 0D 32 0C 1A F8")
+     * into one response per PID using the known PID data lengths. A PID of
+     * unknown length only decodes as the first of the frame, where it takes
+     * the rest; later in the frame nothing tells where its data ends, so the
+     * split stops there rather than handing it the bytes of the PIDs after it.
+     */
+    private void emitCurrentData(byte[] bytes, int length) {
+        int index = 1;
+        while (index < length - 1) {
+            int pid = bytes[index] & 0xFF;
+            int dataLength = ObdPids.dataLength(pid);
+            int end;
+            if (dataLength == 0) {
+                if (index > 1) {
+                    return;
+                }
+                // Polled in a request of its own (see ObdCommandScheduler)
+                end = length;
+            } else if (index + 1 + dataLength <= length) {
+                end = index + 1 + dataLength;
+            } else {
+                return;
+            }
+            listener.onResponse(new ObdResponse(ObdPids.MODE_CURRENT_DATA, pid,
+                    Arrays.copyOfRange(bytes, index + 1, end)));
+            index = end;
+        }
+    }
+
+    /**
+     * Modes 03, 04, 07 and 0A address the whole ECU and carry no PID byte
+     */
+    private static boolean hasPid(int mode) {
+        return mode != 0x03 && mode != 0x04 && mode != 0x07 && mode != 0x0A;
+    }
+
+    /**
+     * Decode space separated (or packed, with ATS0) hex pairs; returns -1 if the
+     * range is not hex data
+     */
+    private int decodeHex(int start, int end, byte[] dst, int dstOffset, int capacity) {
+        int count = 0;
+        int high = -1;
+        for (int i = start; i < end; i++) {
+            byte c = line[i];
+            if (c == ' ') {
+                if (high >= 0) {
+                    return -1;
+                }
+                continue;
+            }
+            if (!isHexDigit(c)) {
+                return -1;
+            }
+            if (high < 0) {
+                high = hexValue(c);
+            } else {
+                if (count >= capacity) {
+                    return -1;
+                }
+                dst[dstOffset + count++] = (byte) ((high << 4) | hexValue(c));
+                high = -1;
+            }
+        }
+        return high >= 0 ? -1 : count;
+    }
+
+    private String lineText(int start, int end) {
+        return new String(line, start, end - start, StandardCharsets.US_ASCII);
+    }
+
+    private static boolean isHexDigit(byte c) {
+        return (c >= '0' && c <= '9') || (c >= 'A' && c <= 'F') || (c >= 'a' && c <= 'f');
+    }
+
+    private static int hexValue(byte c) {
+        if (c <= '9') {
+            return c - '0';
+        }
+        return (c | 0x20) - 'a' + 10;
+    }
+}
@@ -0,0 +1,85 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+/**
+ * Static knowledge about SAE J1979 mode 01 PIDs
+ */
+public final class ObdPids {
+    public static final int MODE_CURRENT_DATA = 0x01;
+
+    public static final int SUPPORTED_PIDS_01_20 = 0x00;
+    public static final int ENGINE_LOAD = 0x04;
+    public static final int COOLANT_TEMPERATURE = 0x05;
+    public static final int ENGINE_RPM = 0x0C;
+    public static final int VEHICLE_SPEED = 0x0D;
+    public static final int INTAKE_TEMPERATURE = 0x0F;
+    public static final int MAF_RATE = 0x10;
+    public static final int THROTTLE_POSITION = 0x11;
+    public static final int FUEL_LEVEL = 0x2F;
+    public static final int AMBIENT_TEMPERATURE = 0x46;
+    public static final int ENGINE_FUEL_RATE = 0x5E;
+
+    /** Most ECUs answer at most six PIDs in one mode 01 request */
+    public static final int MAX_PIDS_PER_REQUEST = 6;
+
+    // Number of data bytes returned for each mode 01 PID, 0 where unknown
+    private static final int[] DATA_LENGTHS = new int[256];
+
+    static {
+        int[][] lengths = {
+                {0x00, 4}, {0x01, 4}, {0x02, 2}, {0x03, 2}, {0x04, 1}, {0x05, 1}, {0x06, 1}, {0x07, 1},
+                {0x08, 1}, {0x09, 1}, {0x0A, 1}, {0x0B, 1}, {0x0C, 2}, {0x0D, 1}, {0x0E, 1}, {0x0F, 1},
+                {0x10, 2}, {0x11, 1}, {0x12, 1}, {0x13, 1}, {0x14, 2}, {0x15, 2}, {0x16, 2}, {0x17, 2},
+                {0x18, 2}, {0x19, 2}, {0x1A, 2}, {0x1B, 2}, {0x1C, 1}, {0x1D, 1}, {0x1E, 1}, {0x1F, 2},
+                {0x20, 4}, {0x21, 2}, {0x22, 2}, {0x23, 2}, {0x24, 4}, {0x25, 4}, {0x26, 4}, {0x27, 4},
+                {0x28, 4}, {0x29, 4}, {0x2A, 4}, {0x2B, 4}, {0x2C, 1}, {0x2D, 1}, {0x2E, 1}, {0x2F, 1},
+                {0x30, 1}, {0x31, 2}, {0x32, 2}, {0x33, 1}, {0x34, 4}, {0x35, 4}, {0x36, 4}, {0x37, 4},
+                {0x38, 4}, {0x39, 4}, {0x3A, 4}, {0x3B, 4}, {0x3C, 2}, {0x3D, 2}, {0x3E, 2}, {0x3F, 2},
+                {0x40, 4}, {0x41, 4}, {0x42, 2}, {0x43, 2}, {0x44, 2}, {0x45, 1}, {0x46, 1}, {0x47, 1},
+                {0x48, 1}, {0x49, 1}, {0x4A, 1}, {0x4B, 1}, {0x4C, 1}, {0x4D, 2}, {0x4E, 2}, {0x4F, 4},
+                {0x50, 4}, {0x51, 1}, {0x52, 1}, {0x53, 2}, {0x54, 2}, {0x55, 2}, {0x56, 2}, {0x57, 2},
+                {0x58, 2}, {0x59, 2}, {0x5A, 1}, {0x5B, 1}, {0x5C, 1}, {0x5D, 2}, {0x5E, 2}, {0x5F, 1},
+                {0x60, 4}, {0x80, 4}, {0xA0, 4}, {0xC0, 4},
+        };
+        for (int[] entry : lengths) {
+            DATA_LENGTHS[entry[0]] = entry[1];
+        }
+    }
+
+    private ObdPids() {
+    }
+
+    /**
+     * Number of data bytes a mode 01 response for the PID carries, or 0 if unknown
+     */
+    public static int dataLength(int pid) {
+        return pid >= 0 && pid < DATA_LENGTHS.length ? DATA_LENGTHS[pid] : 0;
+    }
+
+    /**
+     * Physical value of a mode 01 PID from its raw value (see
+     * {@link ObdResponse#getRawValue()}), or NaN where no formula is known.
+     * Units: km/h, rpm, %, degrees C, g/s, L/h.
+     */
+    public static double decode(int pid, long raw) {
+        switch (pid) {
+            case VEHICLE_SPEED:
+                return raw;
+            case ENGINE_RPM:
+                return raw / 4.0;
+            case ENGINE_LOAD:
+            case THROTTLE_POSITION:
+            case FUEL_LEVEL:
+                return raw * 100.0 / 255.0;
+            case COOLANT_TEMPERATURE:
+            case INTAKE_TEMPERATURE:
+            case AMBIENT_TEMPERATURE:
+                return raw - 40.0;
+            case MAF_RATE:
+                return raw / 100.0;
+            case ENGINE_FUEL_RATE:
+                return raw / 20.0;
+            default:
+                return Double.NaN;
+        }
+    }
+}
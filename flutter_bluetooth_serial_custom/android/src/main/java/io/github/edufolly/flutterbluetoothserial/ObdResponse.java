@@ -0,0 +1,82 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+import java.util.Arrays;
+
+/**
+ * A decoded OBD-II response as assembled from the ELM327 text protocol
+ */
+public final class ObdResponse {
+    /** PID value used for modes that carry no PID byte (e.g. mode 03 DTCs) */
+    public static final int NO_PID = -1;
+
+    private final int mode;
+    private final int pid;
+    private final byte[] data;
+
+    public ObdResponse(int mode, int pid, byte[] data) {
+        this.mode = mode;
+        this.pid = pid;
+        this.data = data;
+    }
+
+    /**
+     * Request mode this response answers (the 0x40 response offset removed)
+     */
+    public int getMode() {
+        return mode;
+    }
+
+    /**
+     * PID this response answers, or {@link #NO_PID}
+     */
+    public int getPid() {
+        return pid;
+    }
+
+    /**
+     * Value bytes following the mode/PID header
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    /**
+     * Value bytes as an unsigned big-endian integer (A, AB, ABCD, ...), the form
+     * the SAE J1979 formulas are written against
+     */
+    public long getRawValue() {
+        long value = 0;
+        int length = Math.min(data.length, 8);
+        for (int i = 0; i < length; i++) {
+            value = (value << 8) | (data[i] & 0xFF);
+        }
+        return value;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ObdResponse)) {
+            return false;
+        }
+        ObdResponse other = (ObdResponse) o;
+        return mode == other.mode && pid == other.pid && Arrays.equals(data, other.data);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * mode + pid) + Arrays.hashCode(data);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("ObdResponse{mode=").append(mode)
+                .append(", pid=").append(pid).append(", data=");
+        for (byte b : data) {
+            sb.append(String.format("%02X", b & 0xFF));
+        }
+        return sb.append('}').toString();
+    }
+}
@@ -0,0 +1,364 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Answers of one session's one-off commands, keyed by mode and PID, sitting
+ * in front of its {@link CommandArbiter}: a repeated query for data that does
+ * not change within a drive (VIN, calibration IDs, supported-PID bitmaps, fuel
+ * type) is answered from here without touching the link, and identical
+ * requests made while one is queued or in flight share its answer.
+ *
+ * How old an answer may be comes from the caller, or else from
+ * {@link #defaultMaxAgeNanos(int, int)}: the life of the session for vehicle
+ * information, seconds for DTCs and monitor status, and not at all for live
+ * data. Only answers with at least one decoded response, all of the key's
+ * mode and PID, are kept (a late answer to another command is not); the key
+ * space is small (mode x PID), so entries are never evicted, only replaced
+ * or invalidated. Mode 04 (clear DTCs) is never cached and invalidates the
+ * DTC and monitor entries once it completes.
+ */
+public class ObdResponseCache {
+    /** Take the per-key default for the maximum age of a cached answer */
+    public static final long DEFAULT_MAX_AGE = -1;
+
+    private static final long FOREVER = Long.MAX_VALUE;
+    private static final long DTC_MAX_AGE_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    private static final int MODE_FREEZE_FRAME = 0x02;
+    private static final int MODE_DTCS = 0x03;
+    private static final int MODE_CLEAR_DTCS = 0x04;
+    private static final int MODE_PENDING_DTCS = 0x07;
+    private static final int MODE_VEHICLE_INFO = 0x09;
+    private static final int MODE_PERMANENT_DTCS = 0x0A;
+
+    private static final int PID_MONITOR_STATUS = 0x01;
+    private static final int PID_OBD_STANDARD = 0x1C;
+    private static final int PID_FUEL_TYPE = 0x51;
+
+    private static final class Entry {
+        final List<ObdResponse> responses;
+        final List<String> messages;
+        final long storedNanos;
+
+        Entry(List<ObdResponse> responses, List<String> messages, long storedNanos) {
+            this.responses = responses;
+            this.messages = messages;
+            this.storedNanos = storedNanos;
+        }
+    }
+
+    /** A request on its way through the arbiter and the callers waiting for it */
+    private static final class Pending {
+        final CommandArbiter.Lane lane;
+        final int generation;
+        final List<CommandArbiter.Callback> waiters = new ArrayList<>();
+
+        Pending(CommandArbiter.Lane lane, int generation) {
+            this.lane = lane;
+            this.generation = generation;
+        }
+    }
+
+    private final CommandArbiter arbiter;
+
+    private final Map<Integer, Entry> entries = new HashMap<>();
+    private final Map<Integer, Pending> pending = new HashMap<>();
+    // Bumped by every invalidation, so an answer requested before one is not stored after it
+    private int generation = 0;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long joined = 0;
+
+    public ObdResponseCache(CommandArbiter arbiter) {
+        this.arbiter = arbiter;
+    }
+
+    /**
+     * Answer the command from the cache if an answer no older than
+     * {@code maxAgeNanos} is there (or {@link #DEFAULT_MAX_AGE}), join an
+     * identical request under way, or else send it through the arbiter. A
+     * caller that joins gets the answer or error of the request it joined.
+     * Returns false if it had to be sent and the lane is full.
+     */
+    public boolean submit(CommandArbiter.Lane lane, byte[] command, long timeoutNanos, long maxAgeNanos,
+                          CommandArbiter.Callback callback) {
+        int mode = parseByte(command, 0);
+        int pid = parseByte(command, 1);
+        if (!isCacheable(command, mode)) {
+            if (mode == MODE_CLEAR_DTCS) {
+                return arbiter.submit(lane, command, timeoutNanos, invalidatingDtcs(callback));
+            }
+            return arbiter.submit(lane, command, timeoutNanos, callback);
+        }
+
+        int key = key(mode, pid);
+        Pending request;
+        synchronized (this) {
+            long maxAge = maxAgeNanos >= 0 ? maxAgeNanos : defaultMaxAgeNanos(mode, pid);
+            Entry entry = entries.get(key);
+            if (entry != null && System.nanoTime() - entry.storedNanos <= maxAge) {
+                hits++;
+                callback.onComplete(entry.responses, entry.messages, 0, 0, true);
+                return true;
+            }
+            // A bulk request under way would hold an interactive caller back
+            Pending existing = pending.get(key);
+            if (existing != null && (existing.lane == lane || lane == CommandArbiter.Lane.BULK)) {
+                joined++;
+                existing.waiters.add(callback);
+                return true;
+            }
+            misses++;
+            request = new Pending(lane, generation);
+            request.waiters.add(callback);
+            // Later identical requests join this one rather than a slower one under way
+            pending.put(key, request);
+        }
+
+        // Sent without the cache locked: the arbiter calls back with its own lock held
+        if (arbiter.submit(lane, command, timeoutNanos, completing(mode, pid, request))) {
+            return true;
+        }
+        List<CommandArbiter.Callback> stranded;
+        synchronized (this) {
+            if (pending.get(key) == request) {
+                pending.remove(key);
+            }
+            stranded = new ArrayList<>(request.waiters);
+        }
+        // The first waiter is the caller, told by the return value
+        for (int i = 1; i < stranded.size(); i++) {
+            stranded.get(i).onError("BUFFER_FULL", "Too many " + lane.wireName + " commands queued");
+        }
+        return false;
+    }
+
+    /**
+     * Drop cached answers: every one with {@code mode} < 0, every PID of the
+     * mode with {@code pid} < 0, else the one of that mode and PID
+     */
+    public synchronized void invalidate(int mode, int pid) {
+        generation++;
+        if (mode < 0) {
+            entries.clear();
+            return;
+        }
+        if (pid >= 0) {
+            entries.remove(key(mode, pid));
+            return;
+        }
+        List<Integer> keys = new ArrayList<>(entries.keySet());
+        for (int key : keys) {
+            if (key >> 16 == mode) {
+                entries.remove(key);
+            }
+        }
+    }
+
+    public void invalidateAll() {
+        invalidate(-1, -1);
+    }
+
+    /**
+     * Hit, miss and shared-request counts, reported under "cache" in connection stats
+     */
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("entries", entries.size());
+        stats.put("pending", pending.size());
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        stats.put("joined", joined);
+        return stats;
+    }
+
+    /**
+     * How long an answer is served from the cache when the caller does not say
+     */
+    static long defaultMaxAgeNanos(int mode, int pid) {
+        switch (mode) {
+            case MODE_VEHICLE_INFO:
+                return FOREVER;
+            case MODE_DTCS:
+            case MODE_PENDING_DTCS:
+            case MODE_PERMANENT_DTCS:
+                return DTC_MAX_AGE_NANOS;
+            case ObdPids.MODE_CURRENT_DATA:
+                // Supported-PID bitmaps: 0x00, 0x20, 0x40, ...
+                if (pid >= 0 && pid % 0x20 == 0) {
+                    return FOREVER;
+                }
+                if (pid == PID_OBD_STANDARD || pid == PID_FUEL_TYPE) {
+                    return FOREVER;
+                }
+                if (pid == PID_MONITOR_STATUS) {
+                    return DTC_MAX_AGE_NANOS;
+                }
+                return 0;
+            default:
+                return 0;
+        }
+    }
+
+    private CommandArbiter.Callback completing(int mode, int pid, Pending request) {
+        int key = key(mode, pid);
+        return new CommandArbiter.Callback() {
+            @Override
+            public void onComplete(List<ObdResponse> responses, List<String> messages, long waitedNanos,
+                                   long roundTripNanos, boolean cached) {
+                List<CommandArbiter.Callback> waiters;
+                List<ObdResponse> keptResponses = Collections.unmodifiableList(new ArrayList<>(responses));
+                List<String> keptMessages = Collections.unmodifiableList(new ArrayList<>(messages));
+                synchronized (ObdResponseCache.this) {
+                    if (pending.get(key) == request) {
+                        pending.remove(key);
+                    }
+                    if (answers(responses, mode, pid) && request.generation == generation) {
+                        entries.put(key, new Entry(keptResponses, keptMessages, System.nanoTime()));
+                    }
+                    waiters = new ArrayList<>(request.waiters);
+                    request.waiters.clear();
+                }
+                for (CommandArbiter.Callback waiter : waiters) {
+                    waiter.onComplete(keptResponses, keptMessages, waitedNanos, roundTripNanos, false);
+                }
+            }
+
+            @Override
+            public void onError(String code, String message) {
+                List<CommandArbiter.Callback> waiters;
+                synchronized (ObdResponseCache.this) {
+                    if (pending.get(key) == request) {
+                        pending.remove(key);
+                    }
+                    waiters = new ArrayList<>(request.waiters);
+                    request.waiters.clear();
+                }
+                for (CommandArbiter.Callback waiter : waiters) {
+                    waiter.onError(code, message);
+                }
+            }
+        };
+    }
+
+    /**
+     * Whether the responses are an answer to a request of {@code mode} and
+     * {@code pid}: at least one, and every one of that mode and PID
+     */
+    private static boolean answers(List<ObdResponse> responses, int mode, int pid) {
+        if (responses.isEmpty()) {
+            return false;
+        }
+        for (ObdResponse response : responses) {
+            if (response.getMode() != mode || response.getPid() != pid) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Pass the answer to a clear-DTCs command on, dropping what it made stale
+     */
+    private CommandArbiter.Callback invalidatingDtcs(CommandArbiter.Callback callback) {
+        return new CommandArbiter.Callback() {
+            @Override
+            public void onComplete(List<ObdResponse> responses, List<String> messages, long waitedNanos,
+                                   long roundTripNanos, boolean cached) {
+                invalidateClearedByMode04();
+                callback.onComplete(responses, messages, waitedNanos, roundTripNanos, cached);
+            }
+
+            @Override
+            public void onError(String code, String message) {
+                // The ECU may have cleared before the answer was lost
+                invalidateClearedByMode04();
+                callback.onError(code, message);
+            }
+        };
+    }
+
+    /**
+     * Drop the DTCs, freeze frames and monitor status a clear-DTCs command resets
+     */
+    private synchronized void invalidateClearedByMode04() {
+        invalidate(MODE_DTCS, -1);
+        invalidate(MODE_PENDING_DTCS, -1);
+        invalidate(MODE_PERMANENT_DTCS, -1);
+        invalidate(MODE_FREEZE_FRAME, -1);
+        invalidate(ObdPids.MODE_CURRENT_DATA, PID_MONITOR_STATUS);
+    }
+
+    /**
+     * Only OBD requests of a mode and at most one PID are cached, never AT
+     * commands, multi-PID requests or clear-DTCs
+     */
+    private static boolean isCacheable(byte[] command, int mode) {
+        if (mode < ObdPids.MODE_CURRENT_DATA || mode > MODE_PERMANENT_DTCS || mode == MODE_CLEAR_DTCS) {
+            return false;
+        }
+        int digits = hexDigits(command);
+        return digits == 2 || digits == 4;
+    }
+
+    private static int key(int mode, int pid) {
+        return (mode << 16) | (pid & 0xFFFF);
+    }
+
+    /**
+     * Number of hex digits before the terminating '\r', or -1 if there are
+     * other characters (spaces aside)
+     */
+    private static int hexDigits(byte[] command) {
+        int digits = 0;
+        for (byte b : command) {
+            if (b == '\r' || b == '\n') {
+                break;
+            }
+            if (b == ' ') {
+                continue;
+            }
+            if (Character.digit((char) b, 16) < 0) {
+                return -1;
+            }
+            digits++;
+        }
+        return digits;
+    }
+
+    /**
+     * The {@code index}-th hex byte of the command (spaces skipped), or
+     * {@link ObdResponse#NO_PID} if there is none or it is not hex
+     */
+    private static int parseByte(byte[] command, int index) {
+        int value = 0;
+        int digits = 0;
+        for (byte b : command) {
+            if (b == '\r' || b == '\n') {
+                break;
+            }
+            if (b == ' ') {
+                continue;
+            }
+            int digit = Character.digit((char) b, 16);
+            if (digit < 0) {
+                return ObdResponse.NO_PID;
+            }
+            if (digits / 2 == index) {
+                value = (value << 4) | digit;
+            }
+            digits++;
+            if (digits == 2 * index + 2) {
+                return value;
+            }
+        }
+        return ObdResponse.NO_PID;
+    }
+}
@@ -0,0 +1,257 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+import android.os.SystemClock;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Raw bytes of a connection, both directions with timestamps, in a fixed-size
+ * memory-mapped ring file: once full the oldest records are overwritten. An
+ * append is a copy into the mapping, with no system call or allocation, so it
+ * can sit on the reader and writer threads. Read back with
+ * {@link #read(File, RecordVisitor)} or replayed through the plugin with
+ * {@link ReplayTransport}.
+ *
+ * File layout, little-endian:
+ * <pre>
+ *   header  int magic "RAWC", byte version, 3 bytes padding, int data size,
+ *           4 bytes padding, long head, long tail, long wall-clock start in ms,
+ *           long elapsedRealtimeNanos at start, long record count, padding to 64
+ *   data    ring of records at logical offsets tail..head (mod data size)
+ *   record  int length | (outbound ? 1 &lt;&lt; 31 : 0), long ns since start, payload
+ * </pre>
+ * head and tail only grow; tail is always at a record boundary.
+ */
+public class RawCapture {
+    static final int MAGIC = 0x52415743; // "RAWC"
+    static final byte VERSION = 1;
+    static final int HEADER_SIZE = 64;
+    static final int RECORD_HEADER_SIZE = 12;
+
+    public static final int DEFAULT_CAPACITY_BYTES = 4 * 1024 * 1024;
+    public static final int MIN_CAPACITY_BYTES = 64 * 1024;
+    public static final int MAX_CAPACITY_BYTES = 256 * 1024 * 1024;
+
+    // Longer chunks are split into several records
+    private static final int MAX_PAYLOAD = 4096;
+    private static final int OUTBOUND_FLAG = 1 << 31;
+
+    private static final int HEAD_OFFSET = 16;
+    private static final int TAIL_OFFSET = 24;
+    private static final int START_MILLIS_OFFSET = 32;
+    private static final int START_NANOS_OFFSET = 40;
+    private static final int RECORDS_OFFSET = 48;
+
+    /**
+     * Receives the records of a capture in order, oldest first
+     */
+    public interface RecordVisitor {
+        void onRecord(boolean outbound, long timestampNanos, byte[] data, int length);
+    }
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final MappedByteBuffer mapping;
+    private final ByteBuffer data;
+    private final int capacity;
+    private final long startNanos;
+
+    // Guarded by this; the reader and writer threads both append
+    private long head = 0;
+    private long tail = 0;
+    private long records = 0;
+    private boolean closed = false;
+    private final byte[] recordHeader = new byte[RECORD_HEADER_SIZE];
+    private final ByteBuffer recordHeaderBuffer = ByteBuffer.wrap(recordHeader).order(ByteOrder.LITTLE_ENDIAN);
+
+    private RawCapture(File file, int capacity) throws IOException {
+        this.file = file;
+        this.capacity = capacity;
+        this.raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(0);
+            raf.setLength(HEADER_SIZE + (long) capacity);
+            mapping = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) capacity);
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+        mapping.order(ByteOrder.LITTLE_ENDIAN);
+        mapping.position(HEADER_SIZE);
+        data = mapping.slice();
+
+        startNanos = SystemClock.elapsedRealtimeNanos();
+        mapping.putInt(0, MAGIC);
+        mapping.put(4, VERSION);
+        mapping.putInt(8, capacity);
+        mapping.putLong(HEAD_OFFSET, 0);
+        mapping.putLong(TAIL_OFFSET, 0);
+        mapping.putLong(START_MILLIS_OFFSET, System.currentTimeMillis());
+        mapping.putLong(START_NANOS_OFFSET, startNanos);
+        mapping.putLong(RECORDS_OFFSET, 0);
+    }
+
+    /**
+     * Create (or truncate) a capture file with a ring of the given size
+     */
+    public static RawCapture open(File file, int capacityBytes) throws IOException {
+        int capacity = Math.max(MIN_CAPACITY_BYTES, Math.min(MAX_CAPACITY_BYTES, capacityBytes));
+        return new RawCapture(file, capacity);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Append bytes read from the device (reader thread)
+     */
+    public void inbound(byte[] buffer, int offset, int length) {
+        append(false, buffer, offset, length);
+    }
+
+    /**
+     * Append bytes written to the device (writer thread)
+     */
+    public void outbound(byte[] buffer, int offset, int length) {
+        append(true, buffer, offset, length);
+    }
+
+    private void append(boolean outbound, byte[] buffer, int offset, int length) {
+        long timestampNanos = SystemClock.elapsedRealtimeNanos() - startNanos;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            while (length > 0) {
+                int payload = Math.min(length, MAX_PAYLOAD);
+                int size = RECORD_HEADER_SIZE + payload;
+                // Make room by dropping whole records from the tail
+                if (head + size - tail > capacity) {
+                    while (head + size - tail > capacity) {
+                        readWrapped(tail, recordHeader, 0, 4);
+                        tail += RECORD_HEADER_SIZE + (recordHeaderBuffer.getInt(0) & ~OUTBOUND_FLAG);
+                    }
+                    // Published before they are overwritten, so the header never spans a torn record
+                    mapping.putLong(TAIL_OFFSET, tail);
+                }
+
+                recordHeaderBuffer.putInt(0, payload | (outbound ? OUTBOUND_FLAG : 0));
+                recordHeaderBuffer.putLong(4, timestampNanos);
+                writeWrapped(head, recordHeader, 0, RECORD_HEADER_SIZE);
+                writeWrapped(head + RECORD_HEADER_SIZE, buffer, offset, payload);
+                head += size;
+                records++;
+                // Published after the data, so a crash leaves a readable file
+                mapping.putLong(HEAD_OFFSET, head);
+                mapping.putLong(RECORDS_OFFSET, records);
+                offset += payload;
+                length -= payload;
+            }
+        }
+    }
+
+    private void writeWrapped(long position, byte[] src, int offset, int length) {
+        int physical = (int) (position % capacity);
+        int first = Math.min(length, capacity - physical);
+        data.position(physical);
+        data.put(src, offset, first);
+        if (first < length) {
+            data.position(0);
+            data.put(src, offset + first, length - first);
+        }
+    }
+
+    private void readWrapped(long position, byte[] dst, int offset, int length) {
+        int physical = (int) (position % capacity);
+        int first = Math.min(length, capacity - physical);
+        data.position(physical);
+        data.get(dst, offset, first);
+        if (first < length) {
+            data.position(0);
+            data.get(dst, offset + first, length - first);
+        }
+    }
+
+    /**
+     * Bytes appended, records appended and how much the ring has overwritten
+     */
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("path", file.getAbsolutePath());
+        stats.put("capacityBytes", capacity);
+        stats.put("bytesWritten", head);
+        stats.put("bytesOverwritten", tail);
+        stats.put("records", records);
+        return stats;
+    }
+
+    /**
+     * Flush the mapping to the file and stop appending
+     */
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            mapping.force();
+        }
+        raf.close();
+    }
+
+    /**
+     * Visit the records of a capture file, oldest first; returns the number visited
+     */
+    public static long read(File file, RecordVisitor visitor) throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            if (in.length() < HEADER_SIZE) {
+                throw new IOException("Not a raw capture: " + file);
+            }
+            MappedByteBuffer mapped = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length());
+            mapped.order(ByteOrder.LITTLE_ENDIAN);
+            if (mapped.getInt(0) != MAGIC || mapped.get(4) != VERSION) {
+                throw new IOException("Not a raw capture: " + file);
+            }
+            int capacity = mapped.getInt(8);
+            long head = mapped.getLong(HEAD_OFFSET);
+            long tail = mapped.getLong(TAIL_OFFSET);
+            if (capacity <= 0 || in.length() < HEADER_SIZE + (long) capacity || tail > head || head - tail > capacity) {
+                throw new IOException("Corrupt raw capture: " + file);
+            }
+
+            byte[] header = new byte[RECORD_HEADER_SIZE];
+            ByteBuffer headerBuffer = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN);
+            byte[] payload = new byte[MAX_PAYLOAD];
+            long visited = 0;
+            long position = tail;
+            while (position + RECORD_HEADER_SIZE <= head) {
+                copyWrapped(mapped, capacity, position, header, RECORD_HEADER_SIZE);
+                int word = headerBuffer.getInt(0);
+                int length = word & ~OUTBOUND_FLAG;
+                if (length > MAX_PAYLOAD || position + RECORD_HEADER_SIZE + length > head) {
+                    throw new IOException("Corrupt record at " + position + " in " + file);
+                }
+                copyWrapped(mapped, capacity, position + RECORD_HEADER_SIZE, payload, length);
+                visitor.onRecord((word & OUTBOUND_FLAG) != 0, headerBuffer.getLong(4), payload, length);
+                position += RECORD_HEADER_SIZE + length;
+                visited++;
+            }
+            return visited;
+        }
+    }
+
+    private static void copyWrapped(ByteBuffer mapped, int capacity, long position, byte[] dst, int length) {
+        for (int i = 0; i < length; i++) {
+            dst[i] = mapped.get(HEADER_SIZE + (int) ((position + i) % capacity));
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Single-producer/single-consumer handoff of read chunks from a session's
+ * socket reader to its dispatcher thread, which runs framing, batching and the
+ * sample listeners. The reader then only reads: it never allocates, takes a
+ * lock or waits for the stages behind it.
+ *
+ * The ring is a fixed set of read buffers. The reader reads straight into the
+ * next free slot ({@link #claim()}) and publishes it ({@link #publish(int)});
+ * the dispatcher runs the slots in order and hands them back. When the
+ * dispatcher falls a whole ring behind, the reader reads into a spare buffer
+ * and the chunk is dropped and counted, and the next chunk is marked as
+ * following a gap so the framing starts over rather than joining the halves.
+ *
+ * An idle dispatcher spins briefly, then parks until the reader publishes.
+ * Successive readers of a reconnecting session take turns as the producer;
+ * each starts after the previous one has returned.
+ */
+public class ReadRing {
+    public static final int DEFAULT_SLOTS = 64;
+
+    // Yields before parking; a burst of reads usually arrives within this
+    private static final int SPIN_TRIES = 64;
+
+    /**
+     * Receives the published chunks in order, on the dispatcher thread
+     */
+    public interface Consumer {
+        void onData(byte[] buffer, int offset, int length, boolean afterGap);
+    }
+
+    private final byte[][] slots;
+    private final int[] lengths;
+    private final boolean[] gaps;
+    private final int mask;
+
+    // Next slot the reader publishes / the dispatcher runs
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong head = new AtomicLong();
+
+    // Reader side only
+    private long cachedHead = 0;
+    private boolean claimedSpare = false;
+    private boolean pendingGap = false;
+    private final byte[] spare;
+
+    private volatile Thread consumer;
+    private volatile boolean consumerParked = false;
+    private volatile boolean closed = false;
+
+    // Written by the reader only, read by getStats
+    private volatile long overflowChunks = 0;
+    private volatile long overflowBytes = 0;
+    // Written by the dispatcher only
+    private volatile long maxDepth = 0;
+
+    /**
+     * A ring of {@code slots} (rounded up to a power of two) buffers of
+     * {@code slotSize} bytes each
+     */
+    public ReadRing(int slots, int slotSize) {
+        int capacity = Integer.highestOneBit(Math.max(2, slots) - 1) << 1;
+        this.slots = new byte[capacity][slotSize];
+        this.lengths = new int[capacity];
+        this.gaps = new boolean[capacity];
+        this.mask = capacity - 1;
+        this.spare = new byte[slotSize];
+    }
+
+    /**
+     * The buffer to read the next chunk into (reader thread); when the ring is
+     * full a spare one, whose chunk is dropped unless a slot frees up by
+     * {@link #publish(int)}
+     */
+    public byte[] claim() {
+        long next = tail.get();
+        claimedSpare = next - cachedHead >= slots.length && next - (cachedHead = head.get()) >= slots.length;
+        return claimedSpare ? spare : slots[(int) next & mask];
+    }
+
+    /**
+     * Hand the claimed buffer's first {@code length} bytes to the dispatcher
+     * (reader thread)
+     */
+    public void publish(int length) {
+        long next = tail.get();
+        if (claimedSpare) {
+            claimedSpare = false;
+            if (next - (cachedHead = head.get()) >= slots.length) {
+                overflowChunks++;
+                overflowBytes += length;
+                pendingGap = true;
+                return;
+            }
+            System.arraycopy(spare, 0, slots[(int) next & mask], 0, length);
+        }
+        int index = (int) next & mask;
+        lengths[index] = length;
+        gaps[index] = pendingGap;
+        pendingGap = false;
+        // A full volatile store, so the check below cannot pass the dispatcher going to sleep
+        tail.set(next + 1);
+        if (consumerParked) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    /**
+     * The next chunk comes from a new link, so framing starts over with it;
+     * called before that link's reader starts
+     */
+    public void markGap() {
+        pendingGap = true;
+    }
+
+    /**
+     * Dispatcher thread loop: run published chunks through the consumer until
+     * the ring is closed and drained, or the thread is interrupted
+     */
+    public void drain(Consumer sink) {
+        consumer = Thread.currentThread();
+        long position = head.get();
+        int idle = 0;
+        while (true) {
+            long available = tail.get();
+            if (position < available) {
+                if (available - position > maxDepth) {
+                    maxDepth = available - position;
+                }
+                do {
+                    int index = (int) position & mask;
+                    sink.onData(slots[index], 0, lengths[index], gaps[index]);
+                    position++;
+                    head.lazySet(position);
+                } while (position < available);
+                idle = 0;
+                continue;
+            }
+            if (closed || Thread.currentThread().isInterrupted()) {
+                return;
+            }
+            if (++idle < SPIN_TRIES) {
+                Thread.yield();
+                continue;
+            }
+            consumerParked = true;
+            if (tail.get() == position && !closed) {
+                LockSupport.park(this);
+            }
+            consumerParked = false;
+        }
+    }
+
+    /**
+     * Let the dispatcher return once it has run what is queued
+     */
+    public void close() {
+        closed = true;
+        Thread current = consumer;
+        if (current != null) {
+            LockSupport.unpark(current);
+        }
+    }
+
+    /**
+     * Ring size, depth and overflow counters, reported under "readRing" in
+     * connection stats
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("slots", slots.length);
+        stats.put("queued", tail.get() - head.get());
+        stats.put("maxQueued", maxDepth);
+        stats.put("overflowChunks", overflowChunks);
+        stats.put("overflowBytes", overflowBytes);
+        return stats;
+    }
+}
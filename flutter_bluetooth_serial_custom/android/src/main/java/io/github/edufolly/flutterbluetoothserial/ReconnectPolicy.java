@@ -0,0 +1,48 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+import java.util.Random;
+
+/**
+ * Jittered exponential backoff for automatic reconnects.
+ *
+ * The delay before attempt n is drawn from [cap / 2, cap] where
+ * cap = min(maxDelay, initialDelay * 2^(n-1)), so the first retries come
+ * quickly after a brief dropout while adapters that stay away are not hammered.
+ */
+public class ReconnectPolicy {
+    public static final long DEFAULT_INITIAL_DELAY_MS = 250;
+    public static final long DEFAULT_MAX_DELAY_MS = 5000;
+    public static final int DEFAULT_MAX_ATTEMPTS = 20;
+
+    private final long initialDelayMs;
+    private final long maxDelayMs;
+    private final int maxAttempts;
+    private final Random random;
+
+    public ReconnectPolicy(long initialDelayMs, long maxDelayMs, int maxAttempts) {
+        this(initialDelayMs, maxDelayMs, maxAttempts, new Random());
+    }
+
+    // Seeded in tests
+    ReconnectPolicy(long initialDelayMs, long maxDelayMs, int maxAttempts, Random random) {
+        this.initialDelayMs = Math.max(1, initialDelayMs);
+        this.maxDelayMs = Math.max(this.initialDelayMs, maxDelayMs);
+        this.maxAttempts = maxAttempts;
+        this.random = random;
+    }
+
+    /**
+     * Delay before the given attempt (1-based), or -1 once attempts are exhausted
+     */
+    public long delayForAttempt(int attempt) {
+        if (attempt < 1 || attempt > maxAttempts) {
+            return -1;
+        }
+        int shift = Math.min(attempt - 1, 30);
+        long cap = Math.min(maxDelayMs, initialDelayMs << shift);
+        long half = cap / 2;
+        synchronized (random) {
+            return half + (long) (random.nextDouble() * (cap - half + 1));
+        }
+    }
+}
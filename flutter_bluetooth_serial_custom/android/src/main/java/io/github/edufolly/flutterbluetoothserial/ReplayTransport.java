@@ -0,0 +1,202 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Plays the inbound bytes of a {@link RawCapture} back as if the adapter sent
+ * them, so a field capture runs through the same framing, decoding, batching
+ * and recording as the original connection did.
+ *
+ * Selected by connecting to {@code replay:path=<capture file>[,speed=<factor>]}:
+ * reads arrive in the captured chunks at the captured spacing divided by
+ * {@code speed} (default 1), or as fast as they are read with {@code speed=0}.
+ * Writes are accepted and discarded. The stream ends after the last record,
+ * which disconnects the session. Connect without adapter initialization, as
+ * the init exchange would eat the replayed answers.
+ */
+public class ReplayTransport implements SerialTransport {
+    public static final String ADDRESS_PREFIX = "replay";
+
+    private final String address;
+    private final double speed;
+
+    // Inbound records of the capture; the playback position is guarded by this
+    private final List<byte[]> chunks = new ArrayList<>();
+    private final List<Long> timestamps = new ArrayList<>();
+    private int nextChunk = 0;
+    private int chunkOffset = 0;
+    private final long playbackStartNanos = System.nanoTime();
+
+    private volatile boolean open = true;
+
+    private final InputStream inputStream = new InputStream() {
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return readChunk(b, off, len);
+        }
+
+        @Override
+        public int available() throws IOException {
+            return availableNow();
+        }
+    };
+
+    private final OutputStream outputStream = new OutputStream() {
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (!open) {
+                throw new IOException("Broken pipe");
+            }
+        }
+    };
+
+    private ReplayTransport(String address, File file, double speed) throws IOException {
+        this.address = address;
+        this.speed = speed;
+        RawCapture.read(file, (outbound, timestampNanos, data, length) -> {
+            if (!outbound && length > 0) {
+                byte[] chunk = new byte[length];
+                System.arraycopy(data, 0, chunk, 0, length);
+                chunks.add(chunk);
+                timestamps.add(timestampNanos);
+            }
+        });
+    }
+
+    /**
+     * Whether the address selects a capture replay rather than a Bluetooth device
+     */
+    public static boolean isReplayAddress(String address) {
+        return address.startsWith(ADDRESS_PREFIX + ":");
+    }
+
+    /**
+     * Open the capture named by the options in a {@code replay:} address
+     */
+    public static ReplayTransport open(String address) throws IOException {
+        String path = null;
+        double speed = 1;
+        for (String option : address.substring(ADDRESS_PREFIX.length() + 1).split(",")) {
+            int equals = option.indexOf('=');
+            if (equals < 0) {
+                continue;
+            }
+            String key = option.substring(0, equals).trim();
+            String value = option.substring(equals + 1).trim();
+            switch (key) {
+                case "path":
+                    path = value;
+                    break;
+                case "speed":
+                    try {
+                        speed = Double.parseDouble(value);
+                    } catch (NumberFormatException e) {
+                        throw new IOException("Invalid value for speed: " + value);
+                    }
+                    if (speed < 0) {
+                        throw new IOException("Invalid value for speed: " + value);
+                    }
+                    break;
+                default:
+                    throw new IOException("Unknown replay option: " + key);
+            }
+        }
+        if (path == null || path.isEmpty()) {
+            throw new IOException("Replay address needs a path: " + address);
+        }
+        return new ReplayTransport(address, new File(path), speed);
+    }
+
+    @Override
+    public String getAddress() {
+        return address;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return inputStream;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return outputStream;
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            open = false;
+            notifyAll();
+        }
+    }
+
+    private synchronized int readChunk(byte[] b, int off, int len) throws IOException {
+        if (nextChunk == chunks.size()) {
+            return -1;
+        }
+        // Hold the chunk back until its time in the capture, scaled by the speed
+        if (chunkOffset == 0) {
+            long dueNanos = dueNanos(nextChunk);
+            long waitNanos;
+            while (open && (waitNanos = dueNanos - System.nanoTime()) > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(this, waitNanos);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Read interrupted");
+                }
+            }
+        }
+        if (!open) {
+            throw new IOException("Connection reset");
+        }
+
+        byte[] chunk = chunks.get(nextChunk);
+        int count = Math.min(len, chunk.length - chunkOffset);
+        System.arraycopy(chunk, chunkOffset, b, off, count);
+        chunkOffset += count;
+        if (chunkOffset == chunk.length) {
+            nextChunk++;
+            chunkOffset = 0;
+        }
+        return count;
+    }
+
+    private synchronized int availableNow() throws IOException {
+        if (!open) {
+            throw new IOException("Transport closed");
+        }
+        if (nextChunk == chunks.size()) {
+            return 0;
+        }
+        if (chunkOffset == 0 && dueNanos(nextChunk) > System.nanoTime()) {
+            return 0;
+        }
+        return chunks.get(nextChunk).length - chunkOffset;
+    }
+
+    private long dueNanos(int chunk) {
+        if (speed == 0) {
+            return playbackStartNanos;
+        }
+        long offsetNanos = timestamps.get(chunk) - timestamps.get(0);
+        return playbackStartNanos + (long) (offsetNanos / speed);
+    }
+}
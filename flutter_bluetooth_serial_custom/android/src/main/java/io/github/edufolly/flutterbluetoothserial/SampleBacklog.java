@@ -0,0 +1,114 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Keeps the latest mode 01 samples of a connection while no Flutter engine is
+ * attached, in the record layout of {@link SampleStream}, so a reattaching
+ * engine catches up on what it missed before live samples resume.
+ *
+ * Records go into one direct buffer used as a ring; once it is full the
+ * oldest record is overwritten and counted as dropped.
+ */
+public class SampleBacklog implements SampleListener {
+    // About 15 minutes of five PIDs at 10 Hz, 1.1 MB
+    public static final int DEFAULT_CAPACITY = 45_000;
+
+    private final int handle;
+    private final int capacity;
+    private final ByteBuffer ring;
+
+    private final Object lock = new Object();
+    // Index of the oldest record and number of records held
+    private int head = 0;
+    private int count = 0;
+    private long samplesDropped = 0;
+    private boolean closed = false;
+
+    public SampleBacklog(int handle, int capacity) {
+        this.handle = handle;
+        this.capacity = capacity > 0 ? capacity : DEFAULT_CAPACITY;
+        this.ring = ByteBuffer.allocateDirect(this.capacity * SampleStream.RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @Override
+    public void onSample(long timestampNanos, int pid, long rawValue) {
+        double value = ObdPids.decode(pid, rawValue);
+        if (Double.isNaN(value)) {
+            value = rawValue;
+        }
+
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            int index;
+            if (count == capacity) {
+                index = head;
+                head = (head + 1) % capacity;
+                samplesDropped++;
+            } else {
+                index = (head + count) % capacity;
+                count++;
+            }
+            int offset = index * SampleStream.RECORD_SIZE;
+            ring.putInt(offset, handle);
+            ring.putInt(offset + 4, pid);
+            ring.putLong(offset + 8, timestampNanos);
+            ring.putDouble(offset + 16, value);
+        }
+    }
+
+    /**
+     * Send the held records, oldest first, as sample stream messages of at
+     * most {@code maxRecords} records each, and stop taking new ones (main thread)
+     */
+    public void drainTo(SampleStream.Sink sink, int maxRecords) {
+        int batchCapacity = maxRecords > 0 ? maxRecords : SampleStream.DEFAULT_CAPACITY;
+        ByteBuffer message = ByteBuffer.allocateDirect(SampleStream.HEADER_SIZE
+                + batchCapacity * SampleStream.RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+        synchronized (lock) {
+            closed = true;
+            while (count > 0) {
+                int batch = Math.min(count, batchCapacity);
+                message.clear();
+                message.putInt(0, batch);
+                message.putInt(4, SampleStream.FORMAT_VERSION);
+                for (int i = 0; i < batch; i++) {
+                    int from = head * SampleStream.RECORD_SIZE;
+                    int to = SampleStream.HEADER_SIZE + i * SampleStream.RECORD_SIZE;
+                    message.putLong(to, ring.getLong(from));
+                    message.putLong(to + 8, ring.getLong(from + 8));
+                    message.putLong(to + 16, ring.getLong(from + 16));
+                    head = (head + 1) % capacity;
+                }
+                count -= batch;
+                // Sent up to the position, as by SampleStream; the messenger
+                // copies the message before send returns
+                message.position(SampleStream.HEADER_SIZE + batch * SampleStream.RECORD_SIZE);
+                sink.send(message);
+            }
+        }
+    }
+
+    public void close() {
+        synchronized (lock) {
+            closed = true;
+            count = 0;
+        }
+    }
+
+    public int size() {
+        synchronized (lock) {
+            return count;
+        }
+    }
+
+    public long getSamplesDropped() {
+        synchronized (lock) {
+            return samplesDropped;
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+/**
+ * Consumer of decoded mode 01 samples, called on the dispatcher thread of a
+ * connection, which takes the reader thread's chunks from its {@link ReadRing}.
+ * Implementations must be quick and must not block: while one runs, reads
+ * pile up in the ring.
+ */
+public interface SampleListener {
+    /**
+     * @param timestampNanos monotonic capture time ({@code SystemClock.elapsedRealtimeNanos()})
+     * @param pid            mode 01 PID
+     * @param rawValue       response data bytes as an unsigned big-endian integer (A, AB, ABCD)
+     */
+    void onSample(long timestampNanos, int pid, long rawValue);
+}
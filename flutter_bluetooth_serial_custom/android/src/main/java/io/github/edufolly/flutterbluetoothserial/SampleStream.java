@@ -0,0 +1,156 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+import android.os.Handler;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Mode 01 samples of one connection as fixed-layout binary records, sent in
+ * batches over the {@code flutter_bluetooth_serial/samples} BasicMessageChannel
+ * with BinaryCodec, so Dart reads them through ByteData without any codec or
+ * string work.
+ *
+ * Message layout, little-endian:
+ * <pre>
+ *   header  uint32 record count, uint32 format version
+ *   record  int32 handle, int32 PID, int64 timestamp (elapsedRealtimeNanos),
+ *           float64 value (decoded, or the raw value where no formula is known)
+ * </pre>
+ *
+ * Records are written into one of two direct buffers allocated up front; a
+ * flush sends the filled one and the reader carries on in the other. The
+ * messenger sends a direct buffer's bytes up to its position, not its
+ * remaining bytes, and copies them before send returns, so each buffer is
+ * handed over with its position after the last record and then reused.
+ */
+public class SampleStream implements SampleListener {
+    public static final int FORMAT_VERSION = 1;
+    public static final int HEADER_SIZE = 8;
+    public static final int RECORD_SIZE = 24;
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    /**
+     * Where full messages go; called on the main thread with the message's
+     * bytes from 0 up to its position
+     */
+    public interface Sink {
+        void send(ByteBuffer message);
+    }
+
+    private final int handle;
+    private final Sink sink;
+    private final Handler mainHandler;
+    private final long maxLatencyMs;
+    private final int capacity;
+
+    private final Object lock = new Object();
+    private ByteBuffer filling;
+    private ByteBuffer spare;
+    private int count = 0;
+    private boolean flushScheduled = false;
+    private boolean closed = false;
+    private long samplesSent = 0;
+    private long samplesDropped = 0;
+
+    private final Runnable flushRunnable = this::flush;
+
+    public SampleStream(int handle, Sink sink, Handler mainHandler, long maxLatencyMs, int capacity) {
+        this.handle = handle;
+        this.sink = sink;
+        this.mainHandler = mainHandler;
+        this.maxLatencyMs = Math.max(0, maxLatencyMs);
+        this.capacity = capacity > 0 ? capacity : DEFAULT_CAPACITY;
+        this.filling = allocate(this.capacity);
+        this.spare = allocate(this.capacity);
+    }
+
+    private static ByteBuffer allocate(int capacity) {
+        return ByteBuffer.allocateDirect(HEADER_SIZE + capacity * RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @Override
+    public void onSample(long timestampNanos, int pid, long rawValue) {
+        double value = ObdPids.decode(pid, rawValue);
+        if (Double.isNaN(value)) {
+            value = rawValue;
+        }
+
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            // Only if the main thread has stalled for a long while
+            if (count == capacity) {
+                samplesDropped++;
+                return;
+            }
+            int offset = HEADER_SIZE + count * RECORD_SIZE;
+            filling.putInt(offset, handle);
+            filling.putInt(offset + 4, pid);
+            filling.putLong(offset + 8, timestampNanos);
+            filling.putDouble(offset + 16, value);
+            count++;
+
+            if (count == capacity) {
+                // Size bound reached: don't wait for the latency timer
+                mainHandler.removeCallbacks(flushRunnable);
+                flushScheduled = true;
+                mainHandler.post(flushRunnable);
+            } else if (!flushScheduled) {
+                flushScheduled = true;
+                mainHandler.postDelayed(flushRunnable, maxLatencyMs);
+            }
+        }
+    }
+
+    /**
+     * Send the pending records (main thread)
+     */
+    public void flush() {
+        ByteBuffer message;
+        synchronized (lock) {
+            flushScheduled = false;
+            if (count == 0 || closed) {
+                return;
+            }
+            message = filling;
+            filling = spare;
+            spare = message;
+
+            message.putInt(0, count);
+            message.putInt(4, FORMAT_VERSION);
+            message.position(HEADER_SIZE + count * RECORD_SIZE);
+            samplesSent += count;
+            count = 0;
+        }
+        // Flushes only run on the main thread, so this buffer is not swapped
+        // back in before send() has copied it
+        sink.send(message);
+        message.clear();
+    }
+
+    /**
+     * Drop pending records and stop scheduled flushes
+     */
+    public void close() {
+        synchronized (lock) {
+            closed = true;
+            count = 0;
+            mainHandler.removeCallbacks(flushRunnable);
+            flushScheduled = false;
+        }
+    }
+
+    public long getSamplesSent() {
+        synchronized (lock) {
+            return samplesSent;
+        }
+    }
+
+    public long getSamplesDropped() {
+        synchronized (lock) {
+            return samplesDropped;
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A connected byte stream to an adapter. {@link BluetoothConnection} only talks
+ * to this, so the data path runs the same over an RFCOMM socket or a
+ * simulated adapter on a plain JVM.
+ */
+public interface SerialTransport extends Closeable {
+    /**
+     * Address the transport is connected to
+     */
+    String getAddress();
+
+    /**
+     * Stream of bytes from the adapter; reads block until data arrives and
+     * throw once the link is gone
+     */
+    InputStream getInputStream() throws IOException;
+
+    /**
+     * Stream of bytes to the adapter
+     */
+    OutputStream getOutputStream() throws IOException;
+
+    @Override
+    void close() throws IOException;
+}
@@ -0,0 +1,70 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The one registry of live sessions, indexed by handle and by device address.
+ *
+ * Handles are unique for the lifetime of the plugin, so a stale handle held by
+ * Dart after a disconnect can never reach a later session to the same device.
+ * Lookups are plain ConcurrentHashMap reads and never block; registration and
+ * removal keep both indexes in step with conditional updates.
+ */
+public class SessionManager {
+    private final ConcurrentHashMap<Integer, ConnectionSession> byHandle = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, ConnectionSession> byAddress = new ConcurrentHashMap<>();
+    private final AtomicInteger lastHandle = new AtomicInteger();
+
+    /**
+     * Reserve a handle for a session about to be created
+     */
+    public int nextHandle() {
+        return lastHandle.incrementAndGet();
+    }
+
+    /**
+     * Register a new session; if another session for the same device won a
+     * concurrent connect, that one is returned and the caller should close its own
+     */
+    public ConnectionSession register(ConnectionSession session) {
+        ConnectionSession existing = byAddress.putIfAbsent(session.getAddress(), session);
+        if (existing != null) {
+            return existing;
+        }
+        byHandle.put(session.getHandle(), session);
+        return session;
+    }
+
+    /**
+     * Remove the session if it is still registered; returns whether it was
+     */
+    public boolean remove(ConnectionSession session) {
+        byHandle.remove(session.getHandle(), session);
+        return byAddress.remove(session.getAddress(), session);
+    }
+
+    public ConnectionSession get(int handle) {
+        return byHandle.get(handle);
+    }
+
+    public ConnectionSession getByAddress(String address) {
+        return byAddress.get(address);
+    }
+
+    /**
+     * Whether the session is the live one for its handle; reader loops exit once it is not
+     */
+    public boolean isActive(ConnectionSession session) {
+        return byHandle.get(session.getHandle()) == session;
+    }
+
+    public Collection<ConnectionSession> all() {
+        return byHandle.values();
+    }
+
+    public int size() {
+        return byHandle.size();
+    }
+}
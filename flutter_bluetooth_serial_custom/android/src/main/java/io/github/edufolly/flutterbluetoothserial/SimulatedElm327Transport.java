@@ -0,0 +1,464 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A pure-JVM ELM327 stand-in: answers AT commands and mode 01 requests for a
+ * synthetic vehicle, with configurable link throughput, per-command latency,
+ * fragmentation of responses into small reads and random link drops.
+ *
+ * Selected by connecting to an address of the form
+ * {@code sim[:key=value,...]}, e.g. {@code sim:baud=38400,latencyMs=40,chunk=16,dropRate=0.001}.
+ * See {@link Config} for the keys.
+ */
+public class SimulatedElm327Transport implements SerialTransport {
+    public static final String ADDRESS_PREFIX = "sim";
+
+    private static final String VERSION = "ELM327 v1.5";
+
+    // Mode 01 PIDs the synthetic vehicle answers, besides the support bitmaps
+    private static final int[] SUPPORTED_PIDS = {
+            ObdPids.ENGINE_LOAD, ObdPids.COOLANT_TEMPERATURE, ObdPids.ENGINE_RPM, ObdPids.VEHICLE_SPEED,
+            ObdPids.INTAKE_TEMPERATURE, ObdPids.MAF_RATE, ObdPids.THROTTLE_POSITION, ObdPids.FUEL_LEVEL,
+            ObdPids.AMBIENT_TEMPERATURE, ObdPids.ENGINE_FUEL_RATE,
+    };
+
+    /**
+     * Link and adapter behaviour
+     */
+    public static class Config {
+        /** Serial link speed in bits per second, 10 bits per byte; 0 for unlimited */
+        public int baud = 38400;
+        /** Time the "ECU" takes to answer a command */
+        public long latencyMs = 40;
+        /** Largest read the response is split into; 0 to deliver it whole */
+        public int chunk = 20;
+        /** Probability that a command makes the link drop instead of answering */
+        public double dropRate = 0;
+        /** Seed for drops and the synthetic drive; 0 for a random seed */
+        public long seed = 0;
+
+        /**
+         * Parse the {@code key=value} list of a {@code sim:} address
+         */
+        public static Config parse(String address) {
+            Config config = new Config();
+            int colon = address.indexOf(':');
+            if (colon < 0) {
+                return config;
+            }
+            for (String option : address.substring(colon + 1).split(",")) {
+                int equals = option.indexOf('=');
+                if (equals < 0) {
+                    continue;
+                }
+                String key = option.substring(0, equals).trim();
+                String value = option.substring(equals + 1).trim();
+                try {
+                    switch (key) {
+                        case "baud":
+                            config.baud = Integer.parseInt(value);
+                            break;
+                        case "latencyMs":
+                            config.latencyMs = Long.parseLong(value);
+                            break;
+                        case "chunk":
+                            config.chunk = Integer.parseInt(value);
+                            break;
+                        case "dropRate":
+                            config.dropRate = Double.parseDouble(value);
+                            break;
+                        case "seed":
+                            config.seed = Long.parseLong(value);
+                            break;
+                        default:
+                            throw new IllegalArgumentException("Unknown simulator option: " + key);
+                    }
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid value for " + key + ": " + value);
+                }
+            }
+            return config;
+        }
+    }
+
+    private final String address;
+    private final Config config;
+    private final Random random;
+    private final long startNanos = System.nanoTime();
+
+    // Complete command lines written by the host
+    private final BlockingQueue<String> commands = new LinkedBlockingQueue<>();
+    private final StringBuilder commandLine = new StringBuilder();
+
+    // Bytes "on the wire" towards the host, guarded by this
+    private final byte[] inbound = new byte[64 * 1024];
+    private int inboundStart = 0;
+    private int inboundLength = 0;
+
+    private volatile boolean open = true;
+    private final Thread adapterThread;
+
+    // Adapter settings changed by AT commands; adapter thread only
+    private boolean echo = true;
+    private boolean spaces = true;
+    private boolean headers = false;
+    private boolean linefeeds = false;
+
+    private final InputStream inputStream = new InputStream() {
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return readInbound(b, off, len);
+        }
+
+        @Override
+        public int available() throws IOException {
+            synchronized (SimulatedElm327Transport.this) {
+                if (!open) {
+                    throw new IOException("Transport closed");
+                }
+                return inboundLength;
+            }
+        }
+    };
+
+    private final OutputStream outputStream = new OutputStream() {
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            writeOutbound(b, off, len);
+        }
+    };
+
+    public SimulatedElm327Transport(String address, Config config) {
+        this.address = address;
+        this.config = config;
+        this.random = config.seed != 0 ? new Random(config.seed) : new Random();
+        this.adapterThread = new Thread(this::runAdapter, "sim-elm327");
+        this.adapterThread.setDaemon(true);
+        this.adapterThread.start();
+    }
+
+    /**
+     * Whether the address selects the simulator rather than a Bluetooth device
+     */
+    public static boolean isSimulatedAddress(String address) {
+        return address.equals(ADDRESS_PREFIX) || address.startsWith(ADDRESS_PREFIX + ":");
+    }
+
+    /**
+     * Open a simulated adapter configured by the options in its address
+     */
+    public static SimulatedElm327Transport open(String address) throws IOException {
+        try {
+            return new SimulatedElm327Transport(address, Config.parse(address));
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage());
+        }
+    }
+
+    @Override
+    public String getAddress() {
+        return address;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return inputStream;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return outputStream;
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            open = false;
+            notifyAll();
+        }
+        adapterThread.interrupt();
+    }
+
+    private synchronized int readInbound(byte[] b, int off, int len) throws IOException {
+        while (open && inboundLength == 0) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Read interrupted");
+            }
+        }
+        if (!open) {
+            throw new IOException("Connection reset");
+        }
+
+        int count = Math.min(len, inboundLength);
+        for (int i = 0; i < count; i++) {
+            b[off + i] = inbound[(inboundStart + i) % inbound.length];
+        }
+        inboundStart = (inboundStart + count) % inbound.length;
+        inboundLength -= count;
+        return count;
+    }
+
+    private void writeOutbound(byte[] b, int off, int len) throws IOException {
+        if (!open) {
+            throw new IOException("Broken pipe");
+        }
+        synchronized (commandLine) {
+            for (int i = off; i < off + len; i++) {
+                char c = (char) (b[i] & 0xFF);
+                if (c == '\r') {
+                    commands.add(commandLine.toString());
+                    commandLine.setLength(0);
+                } else if (c != '\n') {
+                    commandLine.append(c);
+                }
+            }
+        }
+    }
+
+    private void runAdapter() {
+        try {
+            while (open) {
+                String command = commands.poll(100, TimeUnit.MILLISECONDS);
+                if (command == null) {
+                    continue;
+                }
+
+                if (config.dropRate > 0 && random.nextDouble() < config.dropRate) {
+                    close();
+                    return;
+                }
+
+                StringBuilder response = new StringBuilder();
+                if (echo) {
+                    response.append(command).append('\r');
+                    if (linefeeds) {
+                        response.append('\n');
+                    }
+                }
+                String upper = command.replace(" ", "").toUpperCase(Locale.US);
+                boolean adapterCommand = upper.startsWith("AT");
+                if (!adapterCommand && config.latencyMs > 0) {
+                    Thread.sleep(config.latencyMs);
+                }
+                String line = respond(upper);
+                if (line != null) {
+                    response.append(line).append('\r');
+                    if (linefeeds) {
+                        response.append('\n');
+                    }
+                }
+                response.append('\r');
+                if (linefeeds) {
+                    response.append('\n');
+                }
+                response.append('>');
+                deliver(response.toString().getBytes(StandardCharsets.US_ASCII));
+            }
+        } catch (InterruptedException e) {
+            // Closed
+        }
+    }
+
+    /**
+     * Put the bytes on the wire in chunks, paced at the configured link speed
+     */
+    private void deliver(byte[] bytes) throws InterruptedException {
+        int chunk = config.chunk > 0 ? config.chunk : bytes.length;
+        for (int offset = 0; offset < bytes.length; offset += chunk) {
+            int length = Math.min(chunk, bytes.length - offset);
+            if (config.baud > 0) {
+                long nanos = length * 10L * 1_000_000_000L / config.baud;
+                TimeUnit.NANOSECONDS.sleep(nanos);
+            }
+            synchronized (this) {
+                if (!open) {
+                    return;
+                }
+                // The host stopped reading: drop, like a full RFCOMM buffer would
+                int count = Math.min(length, inbound.length - inboundLength);
+                for (int i = 0; i < count; i++) {
+                    inbound[(inboundStart + inboundLength + i) % inbound.length] = bytes[offset + i];
+                }
+                inboundLength += count;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Response line for a command, or null for none
+     */
+    private String respond(String command) {
+        if (command.isEmpty()) {
+            return null;
+        }
+        if (command.startsWith("AT")) {
+            return respondAt(command.substring(2));
+        }
+        if (!isHex(command) || command.length() % 2 != 0) {
+            return "?";
+        }
+
+        int mode = Integer.parseInt(command.substring(0, 2), 16);
+        if (mode != ObdPids.MODE_CURRENT_DATA || command.length() < 4) {
+            return "NO DATA";
+        }
+
+        // A CAN ECU answers a multi-PID request in one message, PID then data for each
+        StringBuilder line = new StringBuilder();
+        int answered = 0;
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        for (int i = 2; i + 2 <= command.length() && answered < ObdPids.MAX_PIDS_PER_REQUEST; i += 2) {
+            int pid = Integer.parseInt(command.substring(i, i + 2), 16);
+            long raw = rawValue(pid, seconds);
+            if (raw < 0) {
+                continue;
+            }
+            if (answered == 0) {
+                if (headers) {
+                    appendByte(line, 0x7E8).append(spaces ? " " : "");
+                }
+                appendByte(line, 0x40 + mode);
+            }
+            appendByte(line.append(spaces ? " " : ""), pid);
+            int length = ObdPids.dataLength(pid);
+            for (int b = length - 1; b >= 0; b--) {
+                appendByte(line.append(spaces ? " " : ""), (int) (raw >>> (8 * b)) & 0xFF);
+            }
+            answered++;
+        }
+        return answered > 0 ? line.toString() : "NO DATA";
+    }
+
+    private String respondAt(String command) {
+        switch (command) {
+            case "Z":
+            case "WS":
+            case "I":
+                if (command.equals("Z")) {
+                    echo = true;
+                    spaces = true;
+                    headers = false;
+                    linefeeds = false;
+                }
+                return VERSION;
+            case "E0":
+            case "E1":
+                echo = command.endsWith("1");
+                return "OK";
+            case "S0":
+            case "S1":
+                spaces = command.endsWith("1");
+                return "OK";
+            case "H0":
+            case "H1":
+                headers = command.endsWith("1");
+                return "OK";
+            case "L0":
+            case "L1":
+                linefeeds = command.endsWith("1");
+                return "OK";
+            case "RV":
+                return "12.6V";
+            case "DP":
+                return "AUTO, ISO 15765-4 (CAN 11/500)";
+            case "DPN":
+                return "A6";
+            default:
+                // ATSP, ATAT, ATST and friends: accepted, no visible effect
+                return "OK";
+        }
+    }
+
+    /**
+     * Raw value of a PID for the synthetic drive at the given time, or -1 if unsupported
+     */
+    private long rawValue(int pid, double seconds) {
+        // Gentle urban cycle: 0..90 km/h with a stop every two minutes
+        double speed = Math.max(0, 45 - 55 * Math.cos(seconds * 2 * Math.PI / 120));
+        switch (pid) {
+            case ObdPids.SUPPORTED_PIDS_01_20:
+            case 0x20:
+            case 0x40:
+                return supportedBitmap(pid);
+            case ObdPids.VEHICLE_SPEED:
+                return Math.round(speed);
+            case ObdPids.ENGINE_RPM:
+                return Math.round((800 + speed * 30) * 4);
+            case ObdPids.ENGINE_LOAD:
+            case ObdPids.THROTTLE_POSITION:
+                return Math.round((15 + speed / 2) * 255 / 100);
+            case ObdPids.COOLANT_TEMPERATURE:
+                return 90 + 40;
+            case ObdPids.INTAKE_TEMPERATURE:
+                return 35 + 40;
+            case ObdPids.AMBIENT_TEMPERATURE:
+                return 22 + 40;
+            case ObdPids.MAF_RATE:
+                return Math.round((2 + speed / 5) * 100);
+            case ObdPids.FUEL_LEVEL:
+                return Math.round(Math.max(5, 80 - seconds / 360) * 255 / 100);
+            case ObdPids.ENGINE_FUEL_RATE:
+                return Math.round((0.8 + speed / 25) * 20);
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * Support bitmap for PIDs base+1 .. base+0x20, with the "next range" bit set
+     * where a later range has supported PIDs
+     */
+    private static long supportedBitmap(int base) {
+        long bitmap = 0;
+        boolean more = false;
+        for (int pid : SUPPORTED_PIDS) {
+            if (pid > base && pid <= base + 0x20) {
+                bitmap |= 1L << (0x20 - (pid - base));
+            } else if (pid > base + 0x20) {
+                more = true;
+            }
+        }
+        return more ? bitmap | 1 : bitmap;
+    }
+
+    private static boolean isHex(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (Character.digit(s.charAt(i), 16) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static StringBuilder appendByte(StringBuilder sb, int value) {
+        if (value > 0xFF) {
+            return sb.append(Integer.toHexString(value).toUpperCase(Locale.US));
+        }
+        sb.append(Character.toUpperCase(Character.forDigit(value >> 4, 16)));
+        return sb.append(Character.toUpperCase(Character.forDigit(value & 0xF, 16)));
+    }
+}
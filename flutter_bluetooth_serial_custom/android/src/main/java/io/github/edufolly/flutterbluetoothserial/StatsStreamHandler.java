@@ -0,0 +1,86 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+import android.os.Handler;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import io.flutter.plugin.common.EventChannel;
+
+/**
+ * Periodically pushes the stats of every live connection to Dart while listened to.
+ * The listen arguments may carry {@code intervalMs} (default 1000). Rates cover
+ * the interval since the previous report, whatever getStats calls come between.
+ */
+public class StatsStreamHandler implements EventChannel.StreamHandler {
+    private static final long DEFAULT_INTERVAL_MS = 1000;
+    private static final long MIN_INTERVAL_MS = 100;
+
+    private final Handler mainHandler;
+    private final SessionManager sessions;
+
+    // Only touched on the main thread
+    private EventChannel.EventSink sink;
+    private long intervalMs = DEFAULT_INTERVAL_MS;
+    private Map<ConnectionSession, ConnectionStats.RateWindow> rateWindows = new HashMap<>();
+
+    private final Runnable reportRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (sink == null) {
+                return;
+            }
+            sink.success(collect());
+            mainHandler.postDelayed(this, intervalMs);
+        }
+    };
+
+    public StatsStreamHandler(Handler mainHandler, SessionManager sessions) {
+        this.mainHandler = mainHandler;
+        this.sessions = sessions;
+    }
+
+    @Override
+    public void onListen(Object arguments, EventChannel.EventSink events) {
+        intervalMs = DEFAULT_INTERVAL_MS;
+        if (arguments instanceof Map) {
+            Object interval = ((Map<?, ?>) arguments).get("intervalMs");
+            if (interval instanceof Number) {
+                intervalMs = Math.max(MIN_INTERVAL_MS, ((Number) interval).longValue());
+            }
+        }
+        sink = events;
+        rateWindows.clear();
+        mainHandler.removeCallbacks(reportRunnable);
+        mainHandler.postDelayed(reportRunnable, intervalMs);
+    }
+
+    @Override
+    public void onCancel(Object arguments) {
+        sink = null;
+        rateWindows.clear();
+        mainHandler.removeCallbacks(reportRunnable);
+    }
+
+    private Map<String, Object> collect() {
+        Map<String, Object> connections = new HashMap<>();
+        // Only the windows of live sessions are carried over
+        Map<ConnectionSession, ConnectionStats.RateWindow> windows = new HashMap<>();
+        for (ConnectionSession session : sessions.all()) {
+            ConnectionStats.RateWindow window = rateWindows.get(session);
+            if (window == null) {
+                window = new ConnectionStats.RateWindow();
+            }
+            windows.put(session, window);
+            Map<String, Object> stats = session.getStats(window);
+            stats.put("handle", session.getHandle());
+            connections.put(session.getAddress(), stats);
+        }
+        rateWindows = windows;
+
+        Map<String, Object> report = new HashMap<>();
+        report.put("connections", connections);
+        report.put("connectHistory", ConnectionStats.connectSnapshot());
+        return report;
+    }
+}
@@ -0,0 +1,246 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Running statistics of a trip, updated from the decoded sample stream in
+ * constant memory so a summary can be read at any time without keeping or
+ * re-reading samples.
+ *
+ * Distance and fuel are integrated with the trapezoidal rule between
+ * consecutive samples; time is attributed to the state of the earlier sample.
+ * Spans longer than {@code MAX_GAP_NANOS} (dropouts, reconnects) are left out
+ * instead of being bridged. Mean and variance use Welford's update.
+ *
+ * onSample runs on the dispatcher thread and summaries are taken on the main
+ * thread, so both lock; the critical sections are a handful of arithmetic
+ * operations.
+ */
+public class TripAggregator implements SampleListener {
+    // Upper bounds in km/h of the time-in-speed-band histogram; the last band is open
+    static final double[] SPEED_BAND_LIMITS = {1, 30, 50, 80, 100, 120};
+
+    private static final long MAX_GAP_NANOS = 5_000_000_000L;
+    private static final double IDLE_SPEED_KMH = 1;
+    // The engine counts as running for this long after an rpm sample above zero
+    private static final long ENGINE_RUNNING_HOLD_NANOS = 5_000_000_000L;
+
+    // Stoichiometric petrol: 14.7 g air per g fuel, 740 g per litre
+    private static final double MAF_TO_LITRES_PER_SECOND = 1 / (14.7 * 740);
+
+    private final Object lock = new Object();
+
+    private long samples = 0;
+    private long firstNanos = Long.MIN_VALUE;
+    private long lastNanos = Long.MIN_VALUE;
+
+    // Speed
+    private long lastSpeedNanos = Long.MIN_VALUE;
+    private double lastSpeed;
+    private double distanceKm = 0;
+    private double maxSpeed = 0;
+    private long speedCount = 0;
+    private double speedMean = 0;
+    private double speedM2 = 0;
+    private long movingNanos = 0;
+    private long idleNanos = 0;
+    private final long[] speedBandNanos = new long[SPEED_BAND_LIMITS.length + 1];
+
+    // Engine speed
+    private long lastRunningNanos = Long.MIN_VALUE;
+    private boolean rpmSeen = false;
+    private double maxRpm = 0;
+    private long rpmCount = 0;
+    private double rpmMean = 0;
+
+    // Fuel, from the engine fuel rate where the ECU has it, else from MAF
+    private long lastFuelRateNanos = Long.MIN_VALUE;
+    private double lastFuelRate;
+    private double fuelFromRateLitres = 0;
+    private long lastMafNanos = Long.MIN_VALUE;
+    private double lastMaf;
+    private double fuelFromMafLitres = 0;
+
+    private final Map<String, Long> eventCounts = new HashMap<>();
+
+    @Override
+    public void onSample(long timestampNanos, int pid, long rawValue) {
+        synchronized (lock) {
+            samples++;
+            if (firstNanos == Long.MIN_VALUE) {
+                firstNanos = timestampNanos;
+            }
+            lastNanos = Math.max(lastNanos, timestampNanos);
+
+            switch (pid) {
+                case ObdPids.VEHICLE_SPEED:
+                    onSpeed(timestampNanos, ObdPids.decode(pid, rawValue));
+                    break;
+                case ObdPids.ENGINE_RPM:
+                    onRpm(timestampNanos, ObdPids.decode(pid, rawValue));
+                    break;
+                case ObdPids.ENGINE_FUEL_RATE:
+                    onFuelRate(timestampNanos, ObdPids.decode(pid, rawValue));
+                    break;
+                case ObdPids.MAF_RATE:
+                    onMaf(timestampNanos, ObdPids.decode(pid, rawValue));
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Count a driving event detected on the same trip
+     */
+    public void onEvent(String type) {
+        synchronized (lock) {
+            Long count = eventCounts.get(type);
+            eventCounts.put(type, count != null ? count + 1 : 1L);
+        }
+    }
+
+    private void onSpeed(long timestampNanos, double speed) {
+        long dt = timestampNanos - lastSpeedNanos;
+        if (lastSpeedNanos != Long.MIN_VALUE && dt > 0 && dt <= MAX_GAP_NANOS) {
+            distanceKm += (lastSpeed + speed) / 2 * dt / 3.6e12;
+            speedBandNanos[speedBand(lastSpeed)] += dt;
+            if (lastSpeed >= IDLE_SPEED_KMH) {
+                movingNanos += dt;
+            } else if (isEngineRunning(lastSpeedNanos)) {
+                idleNanos += dt;
+            }
+        }
+        lastSpeedNanos = timestampNanos;
+        lastSpeed = speed;
+
+        maxSpeed = Math.max(maxSpeed, speed);
+        speedCount++;
+        double delta = speed - speedMean;
+        speedMean += delta / speedCount;
+        speedM2 += delta * (speed - speedMean);
+    }
+
+    private void onRpm(long timestampNanos, double rpm) {
+        rpmSeen = true;
+        if (rpm > 0) {
+            lastRunningNanos = timestampNanos;
+        }
+        maxRpm = Math.max(maxRpm, rpm);
+        rpmCount++;
+        rpmMean += (rpm - rpmMean) / rpmCount;
+    }
+
+    private void onFuelRate(long timestampNanos, double litresPerHour) {
+        long dt = timestampNanos - lastFuelRateNanos;
+        if (lastFuelRateNanos != Long.MIN_VALUE && dt > 0 && dt <= MAX_GAP_NANOS) {
+            fuelFromRateLitres += (lastFuelRate + litresPerHour) / 2 * dt / 3.6e12;
+        }
+        lastFuelRateNanos = timestampNanos;
+        lastFuelRate = litresPerHour;
+    }
+
+    private void onMaf(long timestampNanos, double gramsPerSecond) {
+        long dt = timestampNanos - lastMafNanos;
+        if (lastMafNanos != Long.MIN_VALUE && dt > 0 && dt <= MAX_GAP_NANOS) {
+            fuelFromMafLitres += (lastMaf + gramsPerSecond) / 2 * MAF_TO_LITRES_PER_SECOND * dt / 1e9;
+        }
+        lastMafNanos = timestampNanos;
+        lastMaf = gramsPerSecond;
+    }
+
+    /**
+     * Without rpm samples a stationary vehicle is taken to be idling
+     */
+    private boolean isEngineRunning(long timestampNanos) {
+        if (!rpmSeen) {
+            return true;
+        }
+        return lastRunningNanos != Long.MIN_VALUE && timestampNanos - lastRunningNanos <= ENGINE_RUNNING_HOLD_NANOS;
+    }
+
+    private static int speedBand(double speed) {
+        for (int i = 0; i < SPEED_BAND_LIMITS.length; i++) {
+            if (speed < SPEED_BAND_LIMITS[i]) {
+                return i;
+            }
+        }
+        return SPEED_BAND_LIMITS.length;
+    }
+
+    /**
+     * The statistics so far, as returned by getTripSummary
+     */
+    public Map<String, Object> getSummary() {
+        Map<String, Object> summary = new HashMap<>();
+        synchronized (lock) {
+            summary.put("samples", samples);
+            summary.put("durationMs", samples > 0 ? (lastNanos - firstNanos) / 1_000_000L : 0L);
+            summary.put("distanceKm", distanceKm);
+            summary.put("movingTimeMs", movingNanos / 1_000_000L);
+            summary.put("idleTimeMs", idleNanos / 1_000_000L);
+            summary.put("averageSpeedKmh", movingNanos > 0 ? distanceKm / (movingNanos / 3.6e12) : 0.0);
+            summary.put("maxSpeedKmh", maxSpeed);
+            summary.put("meanSpeedKmh", speedMean);
+            summary.put("speedStdDevKmh", speedCount > 1 ? Math.sqrt(speedM2 / (speedCount - 1)) : 0.0);
+            if (rpmSeen) {
+                summary.put("maxRpm", maxRpm);
+                summary.put("meanRpm", rpmMean);
+            }
+            if (lastFuelRateNanos != Long.MIN_VALUE) {
+                summary.put("fuelLitres", fuelFromRateLitres);
+            } else if (lastMafNanos != Long.MIN_VALUE) {
+                summary.put("fuelLitres", fuelFromMafLitres);
+            }
+
+            List<Double> limits = new ArrayList<>();
+            for (double limit : SPEED_BAND_LIMITS) {
+                limits.add(limit);
+            }
+            List<Long> bandTimes = new ArrayList<>();
+            for (long nanos : speedBandNanos) {
+                bandTimes.add(nanos / 1_000_000L);
+            }
+            summary.put("speedBandLimitsKmh", limits);
+            summary.put("speedBandTimeMs", bandTimes);
+            summary.put("events", new HashMap<>(eventCounts));
+        }
+        return summary;
+    }
+
+    /**
+     * Start a new trip
+     */
+    public void reset() {
+        synchronized (lock) {
+            samples = 0;
+            firstNanos = Long.MIN_VALUE;
+            lastNanos = Long.MIN_VALUE;
+            lastSpeedNanos = Long.MIN_VALUE;
+            distanceKm = 0;
+            maxSpeed = 0;
+            speedCount = 0;
+            speedMean = 0;
+            speedM2 = 0;
+            movingNanos = 0;
+            idleNanos = 0;
+            for (int i = 0; i < speedBandNanos.length; i++) {
+                speedBandNanos[i] = 0;
+            }
+            lastRunningNanos = Long.MIN_VALUE;
+            rpmSeen = false;
+            maxRpm = 0;
+            rpmCount = 0;
+            rpmMean = 0;
+            lastFuelRateNanos = Long.MIN_VALUE;
+            fuelFromRateLitres = 0;
+            lastMafNanos = Long.MIN_VALUE;
+            fuelFromMafLitres = 0;
+            eventCounts.clear();
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Format constants and chunked reader for logs written by {@link TripRecorder}.
+ *
+ * Records are delta encoded, so a read resumes from a cursor made of the byte
+ * offset and the absolute timestamp of the record before it; both are handed
+ * back with every chunk.
+ */
+public final class TripLog {
+    static final int MAGIC = 0x54524950; // "TRIP"
+    static final byte VERSION = 1;
+    static final int HEADER_SIZE = 4 + 1 + 8 + 8;
+
+    // Three varints of at most 10 bytes each
+    private static final int MAX_RECORD_SIZE = 30;
+
+    private TripLog() {
+    }
+
+    /**
+     * A run of decoded records and the cursor to continue from
+     */
+    public static final class Chunk {
+        /** Flattened records: time since trip start in us, PID, raw value */
+        public final long[] samples;
+        public final long nextOffset;
+        public final long timestampMicros;
+        public final boolean done;
+
+        Chunk(long[] samples, long nextOffset, long timestampMicros, boolean done) {
+            this.samples = samples;
+            this.nextOffset = nextOffset;
+            this.timestampMicros = timestampMicros;
+            this.done = done;
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new HashMap<>();
+            map.put("samples", samples);
+            map.put("offset", nextOffset);
+            map.put("timestampUs", timestampMicros);
+            map.put("done", done);
+            return map;
+        }
+    }
+
+    /**
+     * Wall-clock start of the trip in ms since the epoch
+     */
+    public static long readStartMillis(File file) throws IOException {
+        try (FileChannel channel = new FileInputStream(file).getChannel()) {
+            return readHeader(channel).getLong(5);
+        }
+    }
+
+    /**
+     * Decode up to maxSamples records starting at the cursor; offset 0 starts at
+     * the first record
+     */
+    public static Chunk read(File file, long offset, long timestampMicros, int maxSamples) throws IOException {
+        try (FileChannel channel = new FileInputStream(file).getChannel()) {
+            if (offset < HEADER_SIZE) {
+                readHeader(channel);
+                offset = HEADER_SIZE;
+                timestampMicros = 0;
+            }
+
+            long size = channel.size();
+            int wanted = (int) Math.min(size - offset, (long) maxSamples * MAX_RECORD_SIZE);
+            ByteBuffer buffer = ByteBuffer.allocate(Math.max(wanted, 0));
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, offset + buffer.position()) < 0) {
+                    break;
+                }
+            }
+            buffer.flip();
+
+            long[] samples = new long[maxSamples * 3];
+            int count = 0;
+            int consumed = 0;
+            long[] record = new long[3];
+            while (count < maxSamples && decodeRecord(buffer, record)) {
+                timestampMicros += record[0];
+                samples[count * 3] = timestampMicros;
+                samples[count * 3 + 1] = record[1];
+                samples[count * 3 + 2] = record[2];
+                count++;
+                consumed = buffer.position();
+            }
+
+            long next = offset + consumed;
+            return new Chunk(Arrays.copyOf(samples, count * 3), next, timestampMicros, next >= size);
+        }
+    }
+
+    private static ByteBuffer readHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (header.hasRemaining()) {
+            if (channel.read(header, header.position()) < 0) {
+                throw new IOException("Truncated trip log header");
+            }
+        }
+        if (header.getInt(0) != MAGIC) {
+            throw new IOException("Not a trip log");
+        }
+        if (header.get(4) != VERSION) {
+            throw new IOException("Unsupported trip log version " + header.get(4));
+        }
+        return header;
+    }
+
+    /**
+     * Decode one record into out; leaves the buffer untouched on a partial record
+     */
+    private static boolean decodeRecord(ByteBuffer buffer, long[] out) {
+        int start = buffer.position();
+        for (int field = 0; field < 3; field++) {
+            long value = 0;
+            int shift = 0;
+            while (true) {
+                if (!buffer.hasRemaining() || shift > 63) {
+                    buffer.position(start);
+                    return false;
+                }
+                byte b = buffer.get();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    break;
+                }
+                shift += 7;
+            }
+            out[field] = value;
+        }
+        return true;
+    }
+}
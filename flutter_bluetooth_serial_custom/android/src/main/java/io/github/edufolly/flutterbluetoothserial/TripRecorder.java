@@ -0,0 +1,146 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Appends decoded samples to a compact binary trip log.
+ *
+ * Layout: a fixed header ({@link TripLog#HEADER_SIZE} bytes: magic, version,
+ * wall-clock start in ms, monotonic start in ns) followed by one record per
+ * sample of three unsigned LEB128 varints: microseconds since the previous
+ * record, PID and raw value. A typical 1-byte PID at 10 Hz costs 4-5 bytes.
+ *
+ * Records are staged in a direct buffer and written through a FileChannel when
+ * it fills or on {@link #flush()}, so the dispatcher thread never does small writes.
+ */
+public class TripRecorder implements SampleListener {
+    private static final String TAG = "TripRecorder";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // Three varints of at most 10 bytes each
+    private static final int MAX_RECORD_SIZE = 30;
+
+    private final File file;
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.BIG_ENDIAN);
+    private final long startNanos;
+
+    private long lastMicros = 0;
+    private long samples = 0;
+    private long bytesWritten = 0;
+    private boolean closed = false;
+
+    public TripRecorder(File file, long startWallMillis, long startNanos) throws IOException {
+        this.file = file;
+        this.startNanos = startNanos;
+        this.channel = new FileOutputStream(file, false).getChannel();
+
+        buffer.putInt(TripLog.MAGIC);
+        buffer.put(TripLog.VERSION);
+        buffer.putLong(startWallMillis);
+        buffer.putLong(startNanos);
+        flush();
+    }
+
+    @Override
+    public synchronized void onSample(long timestampNanos, int pid, long rawValue) {
+        if (closed) {
+            return;
+        }
+
+        long micros = (timestampNanos - startNanos) / 1000;
+        long delta = Math.max(0, micros - lastMicros);
+        lastMicros += delta;
+
+        try {
+            if (buffer.remaining() < MAX_RECORD_SIZE) {
+                flush();
+            }
+            putVarint(delta);
+            putVarint(pid);
+            putVarint(rawValue);
+            samples++;
+        } catch (IOException e) {
+            Log.e(TAG, "Error writing trip log " + file + ", recording stopped", e);
+            closeQuietly();
+        }
+    }
+
+    /**
+     * Write staged records to the file
+     */
+    public synchronized void flush() throws IOException {
+        if (!channel.isOpen()) {
+            return;
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            bytesWritten += channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Flush from a periodic task, where there is nobody to report failures to
+     */
+    public void flushQuietly() {
+        try {
+            flush();
+        } catch (IOException e) {
+            Log.e(TAG, "Error flushing trip log " + file, e);
+        }
+    }
+
+    /**
+     * Flush, sync and close the log; further samples are ignored
+     */
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            flush();
+            channel.force(false);
+        } finally {
+            closed = true;
+            channel.close();
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public synchronized long getSampleCount() {
+        return samples;
+    }
+
+    public synchronized long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    private void closeQuietly() {
+        closed = true;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Error closing trip log " + file, e);
+        }
+    }
+
+    private void putVarint(long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+}
@@ -0,0 +1,228 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Outbound queue of one connection, drained by its writer thread so callers
+ * (the platform thread, the poll pool) never block on a slow RFCOMM write.
+ *
+ * Small writes arriving within {@code coalesceWindowNanos} of each other are
+ * concatenated into one write and one flush, up to {@link #MAX_COALESCED_BYTES}.
+ * The queue holds at most {@code maxQueuedBytes}; crossing three quarters of
+ * that reports backpressure, and draining below a quarter reports relief.
+ *
+ * While paused (link down, reconnecting) writes keep queueing and nothing is sent.
+ */
+public class WriteQueue {
+    private static final String TAG = "WriteQueue";
+
+    public static final int DEFAULT_MAX_QUEUED_BYTES = 16 * 1024;
+    public static final long DEFAULT_COALESCE_WINDOW_NANOS = 2_000_000L;
+
+    // Beyond a couple of RFCOMM packets there is nothing left to save by merging
+    static final int MAX_COALESCED_BYTES = 512;
+
+    /**
+     * Where drained data goes; called on the writer thread only
+     */
+    public interface Sink {
+        void write(byte[] data) throws IOException;
+    }
+
+    /**
+     * Told when the queue crosses its watermarks; called with the queue locked,
+     * so implementations must only hand the news off
+     */
+    public interface BackpressureListener {
+        void onBackpressure(boolean backpressured, int queuedBytes);
+    }
+
+    private final Sink sink;
+    private final int maxQueuedBytes;
+    private final long coalesceWindowNanos;
+    private volatile BackpressureListener listener;
+
+    private final ArrayDeque<byte[]> queue = new ArrayDeque<>();
+    private int queuedBytes = 0;
+    private boolean paused = false;
+    private boolean closed = false;
+    private boolean backpressured = false;
+
+    private long writesOffered = 0;
+    private long writesRejected = 0;
+    private long writesSent = 0;
+
+    public WriteQueue(Sink sink, int maxQueuedBytes, long coalesceWindowNanos) {
+        this.sink = sink;
+        this.maxQueuedBytes = maxQueuedBytes > 0 ? maxQueuedBytes : DEFAULT_MAX_QUEUED_BYTES;
+        this.coalesceWindowNanos = Math.max(0, coalesceWindowNanos);
+    }
+
+    public void setBackpressureListener(BackpressureListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Queue data for the device without blocking; returns false if the queue
+     * is full or closed
+     */
+    public synchronized boolean offer(byte[] data) {
+        if (closed) {
+            return false;
+        }
+        writesOffered++;
+        if (queuedBytes + data.length > maxQueuedBytes) {
+            writesRejected++;
+            setBackpressured(true);
+            return false;
+        }
+        queue.add(data);
+        queuedBytes += data.length;
+        if (queuedBytes > maxQueuedBytes * 3 / 4) {
+            setBackpressured(true);
+        }
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * Hold queued data until {@link #resume()}
+     */
+    public synchronized void pause() {
+        paused = true;
+    }
+
+    public synchronized void resume() {
+        paused = false;
+        notifyAll();
+    }
+
+    /**
+     * Drop everything and make the writer loop return
+     */
+    public synchronized void close() {
+        closed = true;
+        queue.clear();
+        queuedBytes = 0;
+        notifyAll();
+    }
+
+    /**
+     * Writer thread loop; returns once the queue is closed
+     */
+    public void run() {
+        while (true) {
+            byte[] batch;
+            try {
+                batch = take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (batch == null) {
+                return;
+            }
+
+            try {
+                sink.write(batch);
+                synchronized (this) {
+                    writesSent++;
+                }
+            } catch (IOException e) {
+                // Keep the data for the reconnected link; the reader handles the drop
+                Log.e(TAG, "Error writing data: " + e.getMessage());
+                synchronized (this) {
+                    if (!closed) {
+                        queue.addFirst(batch);
+                        queuedBytes += batch.length;
+                        paused = true;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Wait for data, give small writes the coalescing window to gather, and
+     * take the next batch off the queue; null once closed
+     */
+    private synchronized byte[] take() throws InterruptedException {
+        while (true) {
+            while (!closed && (paused || queue.isEmpty())) {
+                wait();
+            }
+
+            long deadline = System.nanoTime() + coalesceWindowNanos;
+            while (!closed && !paused && queuedBytes < MAX_COALESCED_BYTES) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    break;
+                }
+                wait(remaining / 1_000_000L, (int) (remaining % 1_000_000L));
+            }
+            if (closed) {
+                return null;
+            }
+            if (!paused && !queue.isEmpty()) {
+                break;
+            }
+        }
+
+        byte[] first = queue.poll();
+        int length = first.length;
+        byte[] batch = first;
+        if (length < MAX_COALESCED_BYTES && !queue.isEmpty()
+                && length + queue.peek().length <= MAX_COALESCED_BYTES) {
+            int total = length;
+            for (byte[] next : queue) {
+                if (total + next.length > MAX_COALESCED_BYTES) {
+                    break;
+                }
+                total += next.length;
+            }
+            batch = new byte[total];
+            System.arraycopy(first, 0, batch, 0, length);
+            while (length < total) {
+                byte[] next = queue.poll();
+                System.arraycopy(next, 0, batch, length, next.length);
+                length += next.length;
+            }
+        }
+
+        queuedBytes -= batch.length;
+        if (backpressured && queuedBytes < maxQueuedBytes / 4) {
+            setBackpressured(false);
+        }
+        return batch;
+    }
+
+    private void setBackpressured(boolean value) {
+        if (backpressured == value) {
+            return;
+        }
+        backpressured = value;
+        BackpressureListener current = listener;
+        if (current != null) {
+            current.onBackpressure(value, queuedBytes);
+        }
+    }
+
+    /**
+     * Queue depth and counters, reported under "writeQueue" in connection stats
+     */
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("queuedBytes", queuedBytes);
+        stats.put("queuedWrites", queue.size());
+        stats.put("offered", writesOffered);
+        stats.put("rejected", writesRejected);
+        stats.put("sent", writesSent);
+        stats.put("backpressured", backpressured);
+        stats.put("paused", paused);
+        return stats;
+    }
+}
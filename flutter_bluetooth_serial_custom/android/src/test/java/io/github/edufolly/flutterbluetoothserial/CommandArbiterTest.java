@@ -0,0 +1,281 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CommandArbiter against a recording sink, with timeouts fired by hand
+ */
+public class CommandArbiterTest {
+    private static final long TIMEOUT_NANOS = CommandArbiter.DEFAULT_TIMEOUT_NANOS;
+
+    /** Keeps scheduled tasks until the test runs them */
+    private static final class ManualExecutor extends ScheduledThreadPoolExecutor {
+        final List<Task> tasks = new ArrayList<>();
+
+        ManualExecutor() {
+            super(1);
+        }
+
+        @Override
+        public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+            Task task = new Task(command, unit.toNanos(delay));
+            tasks.add(task);
+            return task;
+        }
+
+        /** Run the pending tasks due within {@code delayNanos} of scheduling */
+        void runDue(long delayNanos) {
+            for (Task task : new ArrayList<>(tasks)) {
+                if (!task.cancelled && task.delayNanos <= delayNanos) {
+                    tasks.remove(task);
+                    task.command.run();
+                }
+            }
+        }
+    }
+
+    private static final class Task implements ScheduledFuture<Object> {
+        final Runnable command;
+        final long delayNanos;
+        boolean cancelled = false;
+
+        Task(Runnable command, long delayNanos) {
+            this.command = command;
+            this.delayNanos = delayNanos;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(delayNanos, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(delayNanos, other.getDelay(TimeUnit.NANOSECONDS));
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            cancelled = true;
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public boolean isDone() {
+            return cancelled;
+        }
+
+        @Override
+        public Object get() {
+            return null;
+        }
+
+        @Override
+        public Object get(long timeout, TimeUnit unit) {
+            return null;
+        }
+    }
+
+    /** Records the results of one command, as "ok <responses> <messages>" or "error <code>" */
+    private static final class Result implements CommandArbiter.Callback {
+        String outcome;
+
+        @Override
+        public void onComplete(List<ObdResponse> responses, List<String> messages, long waitedNanos,
+                               long roundTripNanos, boolean cached) {
+            outcome = "ok " + responses + " " + messages;
+        }
+
+        @Override
+        public void onError(String code, String message) {
+            outcome = "error " + code;
+        }
+    }
+
+    private final List<String> sent = new ArrayList<>();
+    private final ManualExecutor executor = new ManualExecutor();
+    private final CommandArbiter arbiter = new CommandArbiter(
+            command -> sent.add(new String(command, StandardCharsets.US_ASCII).trim()), executor);
+    private int wakeups = 0;
+
+    {
+        arbiter.setPollerWakeup(() -> wakeups++);
+    }
+
+    private Result submit(CommandArbiter.Lane lane, String command) {
+        return submit(lane, command, TIMEOUT_NANOS);
+    }
+
+    private Result submit(CommandArbiter.Lane lane, String command, long timeoutNanos) {
+        Result result = new Result();
+        assertTrue(arbiter.submit(lane, (command + "\r").getBytes(StandardCharsets.US_ASCII), timeoutNanos,
+                result));
+        return result;
+    }
+
+    private static ObdResponse speed(int kmh) {
+        return new ObdResponse(ObdPids.MODE_CURRENT_DATA, ObdPids.VEHICLE_SPEED, new byte[] {(byte) kmh});
+    }
+
+    @Test
+    public void oneCommandAtATime() {
+        Result first = submit(CommandArbiter.Lane.INTERACTIVE, "010D");
+        Result second = submit(CommandArbiter.Lane.INTERACTIVE, "0105");
+        assertEquals(Collections.singletonList("010D"), sent);
+
+        assertTrue(arbiter.onResponse(speed(60)));
+        assertTrue(arbiter.onPrompt());
+        assertEquals("ok " + Collections.singletonList(speed(60)) + " []", first.outcome);
+        assertEquals(Arrays.asList("010D", "0105"), sent);
+        assertEquals(null, second.outcome);
+    }
+
+    @Test
+    public void answersToThePollerAreNotTaken() {
+        assertTrue(arbiter.acquireRealtime());
+        assertFalse(arbiter.onResponse(speed(60)));
+        assertFalse(arbiter.onPrompt());
+    }
+
+    @Test
+    public void pollerGetsTheSlotBackAfterABurst() {
+        assertTrue(arbiter.acquireRealtime());
+        for (int i = 0; i < CommandArbiter.MAX_LANE_BURST + 2; i++) {
+            submit(CommandArbiter.Lane.INTERACTIVE, "01" + (10 + i));
+        }
+        assertTrue(sent.isEmpty());
+
+        arbiter.releaseRealtime(true);
+        // The poller's next request is turned away while the burst runs
+        assertFalse(arbiter.acquireRealtime());
+        for (int i = 1; i < CommandArbiter.MAX_LANE_BURST; i++) {
+            assertEquals(i, sent.size());
+            arbiter.onPrompt();
+        }
+        assertEquals(CommandArbiter.MAX_LANE_BURST, sent.size());
+        assertEquals(0, wakeups);
+
+        // The burst is over: the slot is kept for the poller, not the queue
+        arbiter.onPrompt();
+        assertEquals(1, wakeups);
+        assertEquals(CommandArbiter.MAX_LANE_BURST, sent.size());
+        assertTrue(arbiter.acquireRealtime());
+    }
+
+    @Test
+    public void bulkWaitsForPollingGapsUntilItAges() throws InterruptedException {
+        assertTrue(arbiter.acquireRealtime());
+        Result bulk = submit(CommandArbiter.Lane.BULK, "0902");
+        arbiter.releaseRealtime(true);
+        // Young bulk commands leave the slot to the poller
+        assertTrue(sent.isEmpty());
+        assertTrue(arbiter.acquireRealtime());
+        arbiter.releaseRealtime(true);
+        assertTrue(sent.isEmpty());
+
+        // Aged, it goes ahead of the poller's next request
+        Thread.sleep(TimeUnit.NANOSECONDS.toMillis(CommandArbiter.BULK_AGING_NANOS) + 50);
+        assertFalse(arbiter.acquireRealtime());
+        assertEquals(Collections.singletonList("0902"), sent);
+        arbiter.onPrompt();
+        assertEquals("ok [] []", bulk.outcome);
+        assertEquals(1, wakeups);
+        assertTrue(arbiter.acquireRealtime());
+    }
+
+    @Test
+    public void bulkGoesWhenThePollerIsIdle() {
+        submit(CommandArbiter.Lane.BULK, "0902");
+        assertEquals(Collections.singletonList("0902"), sent);
+    }
+
+    @Test
+    public void queuedCommandExpires() {
+        Result first = submit(CommandArbiter.Lane.INTERACTIVE, "010D");
+        arbiter.onPrompt();
+        assertTrue(arbiter.acquireRealtime());
+        Result second = submit(CommandArbiter.Lane.INTERACTIVE, "0105");
+
+        executor.runDue(TIMEOUT_NANOS);
+        assertEquals("ok [] []", first.outcome);
+        assertEquals("error TIMEOUT", second.outcome);
+        assertEquals(1L, arbiter.getStats().get("timeouts"));
+        arbiter.releaseRealtime(true);
+        assertEquals(Collections.singletonList("010D"), sent);
+    }
+
+    @Test
+    public void lateAnswerIsNotTakenForTheNextCommand() {
+        Result slow = submit(CommandArbiter.Lane.INTERACTIVE, "0902");
+        Result next = submit(CommandArbiter.Lane.INTERACTIVE, "010D", 2 * TIMEOUT_NANOS);
+        executor.runDue(TIMEOUT_NANOS);
+        assertEquals("error TIMEOUT", slow.outcome);
+        // The adapter is still busy with 0902: nothing is sent until its prompt
+        assertEquals(Collections.singletonList("0902"), sent);
+        assertFalse(arbiter.acquireRealtime());
+
+        assertTrue(arbiter.onMessage("014"));
+        assertTrue(arbiter.onPrompt());
+        assertEquals(Arrays.asList("0902", "010D"), sent);
+        assertTrue(arbiter.onResponse(speed(60)));
+        assertTrue(arbiter.onPrompt());
+        assertEquals("ok " + Collections.singletonList(speed(60)) + " []", next.outcome);
+        assertEquals(1L, arbiter.getStats().get("strayLines"));
+    }
+
+    @Test
+    public void lostPromptAfterATimeoutFreesTheSlotLater() {
+        submit(CommandArbiter.Lane.INTERACTIVE, "0902");
+        Result next = submit(CommandArbiter.Lane.INTERACTIVE, "010D", 2 * TIMEOUT_NANOS);
+        executor.runDue(TIMEOUT_NANOS);
+        assertEquals(Collections.singletonList("0902"), sent);
+
+        executor.runDue(CommandArbiter.DRAIN_TIMEOUT_NANOS);
+        assertEquals(Arrays.asList("0902", "010D"), sent);
+        assertEquals(1L, arbiter.getStats().get("drainTimeouts"));
+        arbiter.onPrompt();
+        assertEquals("ok [] []", next.outcome);
+    }
+
+    @Test
+    public void pollTimeoutHoldsTheSlotUntilItsPrompt() {
+        assertTrue(arbiter.acquireRealtime());
+        submit(CommandArbiter.Lane.INTERACTIVE, "0105");
+        arbiter.releaseRealtime(false);
+        assertTrue(sent.isEmpty());
+        assertTrue(arbiter.onResponse(speed(60)));
+        assertTrue(arbiter.onPrompt());
+        assertEquals(Collections.singletonList("0105"), sent);
+    }
+
+    @Test
+    public void closeFailsEverything() {
+        Result inFlight = submit(CommandArbiter.Lane.INTERACTIVE, "010D");
+        Result queued = submit(CommandArbiter.Lane.BULK, "0902");
+        arbiter.close();
+        assertEquals("error NOT_CONNECTED", inFlight.outcome);
+        assertEquals("error NOT_CONNECTED", queued.outcome);
+        assertFalse(arbiter.submit(CommandArbiter.Lane.INTERACTIVE, "010D\r".getBytes(StandardCharsets.US_ASCII),
+                TIMEOUT_NANOS, new Result()));
+        assertFalse(arbiter.acquireRealtime());
+    }
+}
@@ -0,0 +1,197 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * DrivingEventDetector driven with synthetic speed and rpm traces sampled at
+ * 10 Hz, speeds quantized to whole km/h as PID 0D reports them
+ */
+public class DrivingEventDetectorTest {
+    private static final long SAMPLE_NANOS = 100_000_000L;
+
+    /** Feeds a trace and records the events, as "type@ms" */
+    private static final class Trace implements DrivingEventDetector.Listener {
+        final List<String> events = new ArrayList<>();
+        final DrivingEventDetector detector;
+        long nowNanos = 0;
+        double speedKmh;
+
+        Trace(DrivingEventDetector.Config config, double speedKmh) {
+            this.detector = new DrivingEventDetector(config, this);
+            this.speedKmh = speedKmh;
+        }
+
+        @Override
+        public void onEvent(String type, long timestampNanos, double value) {
+            events.add(type + "@" + timestampNanos / 1_000_000);
+        }
+
+        /** Speed samples changing by {@code kmhPerS} for {@code durationMs} */
+        Trace speed(double kmhPerS, long durationMs) {
+            for (long elapsed = 0; elapsed < durationMs; elapsed += SAMPLE_NANOS / 1_000_000) {
+                nowNanos += SAMPLE_NANOS;
+                speedKmh += kmhPerS * SAMPLE_NANOS / 1e9;
+                detector.onSample(nowNanos, ObdPids.VEHICLE_SPEED, Math.round(speedKmh));
+            }
+            return this;
+        }
+
+        Trace cruise(long durationMs) {
+            return speed(0, durationMs);
+        }
+
+        /** One speed sample at a set speed */
+        Trace speedSample(double kmh) {
+            nowNanos += SAMPLE_NANOS;
+            speedKmh = kmh;
+            detector.onSample(nowNanos, ObdPids.VEHICLE_SPEED, Math.round(kmh));
+            return this;
+        }
+
+        /** One rpm sample; PID 0C is a quarter rpm per bit */
+        Trace rpmSample(double rpm) {
+            nowNanos += SAMPLE_NANOS;
+            detector.onSample(nowNanos, ObdPids.ENGINE_RPM, Math.round(rpm * 4));
+            return this;
+        }
+
+        /** No samples for a while (dropout, reconnect) */
+        Trace silence(long durationMs) {
+            nowNanos += durationMs * 1_000_000L;
+            return this;
+        }
+
+        List<String> types() {
+            List<String> types = new ArrayList<>();
+            for (String event : events) {
+                types.add(event.substring(0, event.indexOf('@')));
+            }
+            return types;
+        }
+    }
+
+    private static DrivingEventDetector.Config config() {
+        return new DrivingEventDetector.Config();
+    }
+
+    @Test
+    public void oneLongStopIsOneBrakingEvent() {
+        DrivingEventDetector.Config config = config();
+        config.cooldownMs = 0;
+        // 3 s at 20 km/h/s: the slope stays far above the re-arm level throughout
+        Trace trace = new Trace(config, 80).cruise(2000).speed(-20, 3000).cruise(2000);
+        assertEquals(Collections.singletonList(DrivingEventDetector.HARSH_BRAKING), trace.types());
+    }
+
+    @Test
+    public void brakingEventFiresWithinTheWindow() {
+        Trace trace = new Trace(config(), 80).cruise(2000).speed(-20, 3000);
+        assertEquals(1, trace.events.size());
+        long firedMs = Long.parseLong(trace.events.get(0).split("@")[1]);
+        // Braking starts right after 2000 ms; the 1 s window catches it well before it ends
+        assertTrue("fired at " + firedMs, firedMs > 2000 && firedMs <= 3000);
+    }
+
+    @Test
+    public void cooldownHoldsBackASecondBrakingEvent() {
+        Trace trace = new Trace(config(), 100).cruise(2000)
+                // Re-armed by the cruise in between, but over before the 3 s cooldown is
+                .speed(-20, 1000).cruise(1000).speed(-20, 1000)
+                // Past the cooldown
+                .cruise(2000).speed(-20, 1000).cruise(1000);
+        assertEquals(Arrays.asList(DrivingEventDetector.HARSH_BRAKING + "@2600",
+                DrivingEventDetector.HARSH_BRAKING + "@7600"), trace.events);
+    }
+
+    @Test
+    public void brakingNeedsTheSlopeToDropBeforeRearming() {
+        DrivingEventDetector.Config config = config();
+        config.cooldownMs = 0;
+        // Easing off to 6 km/h/s stays above half the threshold, so no second event
+        Trace trace = new Trace(config, 100).cruise(2000).speed(-20, 1000).speed(-6, 2000).speed(-20, 1000);
+        assertEquals(Collections.singletonList(DrivingEventDetector.HARSH_BRAKING), trace.types());
+
+        // Down to a steady speed re-arms it
+        trace.cruise(1500).speed(-20, 1000);
+        assertEquals(Arrays.asList(DrivingEventDetector.HARSH_BRAKING, DrivingEventDetector.HARSH_BRAKING),
+                trace.types());
+    }
+
+    @Test
+    public void singleSpeedStepIsNoEvent() {
+        // A two-point difference would read 1 km/h in 100 ms as 10 km/h/s
+        Trace trace = new Trace(config(), 50).cruise(2000).speedSample(49).cruise(2000).speedSample(50).cruise(2000);
+        assertEquals(Collections.emptyList(), trace.events);
+    }
+
+    @Test
+    public void harshAcceleration() {
+        Trace trace = new Trace(config(), 0).cruise(2000).speed(15, 3000).cruise(1000);
+        assertEquals(Collections.singletonList(DrivingEventDetector.HARSH_ACCELERATION), trace.types());
+    }
+
+    @Test
+    public void gapRestartsTheWindow() {
+        DrivingEventDetector.Config config = config();
+        config.windowMs = 5000;
+        // 80 km/h before a 2.5 s dropout and 40 km/h after: not a stop that happened
+        Trace trace = new Trace(config, 80).cruise(3000).silence(2500).speedSample(40).cruise(3000);
+        assertEquals(Collections.emptyList(), trace.events);
+
+        // The same drop over a gap the window spans is braking
+        trace = new Trace(config, 80).cruise(3000).silence(1500).speedSample(40).cruise(3000);
+        assertEquals(Collections.singletonList(DrivingEventDetector.HARSH_BRAKING), trace.types());
+    }
+
+    @Test
+    public void gapRearmsBraking() {
+        DrivingEventDetector.Config config = config();
+        config.cooldownMs = 0;
+        Trace trace = new Trace(config, 120).cruise(2000).speed(-20, 1500);
+        assertEquals(1, trace.events.size());
+        // Still braking hard when the link comes back: a new episode
+        trace.silence(2500).speed(-20, 1500);
+        assertEquals(Arrays.asList(DrivingEventDetector.HARSH_BRAKING, DrivingEventDetector.HARSH_BRAKING),
+                trace.types());
+    }
+
+    @Test
+    public void overSpeedRearmsBelowTheHysteresis() {
+        DrivingEventDetector.Config config = config();
+        config.harshBrakingKmhPerS = 0;
+        config.harshAccelerationKmhPerS = 0;
+        Trace trace = new Trace(config, 0)
+                .speedSample(110).speedSample(125)
+                // Not 5 km/h below the limit: still the same episode
+                .speedSample(118).speedSample(126)
+                .speedSample(114).speedSample(121);
+        assertEquals(Arrays.asList(DrivingEventDetector.OVER_SPEED, DrivingEventDetector.OVER_SPEED), trace.types());
+    }
+
+    @Test
+    public void overRevRearmsBelowTheHysteresis() {
+        Trace trace = new Trace(config(), 0)
+                .rpmSample(4000).rpmSample(5100)
+                .rpmSample(4900).rpmSample(5200)
+                .rpmSample(4700).rpmSample(5050);
+        assertEquals(Arrays.asList(DrivingEventDetector.OVER_REV, DrivingEventDetector.OVER_REV), trace.types());
+    }
+
+    @Test
+    public void zeroThresholdsDisableEvents() {
+        DrivingEventDetector.Config config = config();
+        config.harshBrakingKmhPerS = 0;
+        config.overSpeedKmh = 0;
+        config.overRevRpm = 0;
+        Trace trace = new Trace(config, 150).cruise(1000).speed(-30, 3000).rpmSample(7000);
+        assertEquals(Collections.emptyList(), trace.events);
+    }
+}
@@ -0,0 +1,208 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * ObdFrameAssembler against recorded ELM327 output, fed whole and cut at
+ * every byte, as reads from a real adapter arrive
+ */
+public class ObdFrameAssemblerTest {
+
+    /** Records what the assembler reports, one line per event */
+    private static final class Recorder implements ObdFrameAssembler.Listener {
+        final List<String> events = new ArrayList<>();
+
+        @Override
+        public void onResponse(ObdResponse response) {
+            events.add(response.toString());
+        }
+
+        @Override
+        public void onMessage(String message) {
+            events.add("message " + message);
+        }
+
+        @Override
+        public void onPrompt() {
+            events.add(">");
+        }
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static String response(int mode, int pid, int... data) {
+        byte[] bytes = new byte[data.length];
+        for (int i = 0; i < data.length; i++) {
+            bytes[i] = (byte) data[i];
+        }
+        return new ObdResponse(mode, pid, bytes).toString();
+    }
+
+    private static List<String> feedWhole(String traffic) {
+        Recorder recorder = new Recorder();
+        new ObdFrameAssembler(recorder).feed(ascii(traffic));
+        return recorder.events;
+    }
+
+    /**
+     * Feed the traffic in two reads cut at every position, and one byte per
+     * read, and check each gives the same events as feeding it whole
+     */
+    private static List<String> feedFragmented(String traffic) {
+        byte[] bytes = ascii(traffic);
+        List<String> whole = feedWhole(traffic);
+        for (int cut = 1; cut < bytes.length; cut++) {
+            Recorder recorder = new Recorder();
+            ObdFrameAssembler assembler = new ObdFrameAssembler(recorder);
+            assembler.feed(bytes, 0, cut);
+            assembler.feed(bytes, cut, bytes.length - cut);
+            assertEquals("cut at " + cut, whole, recorder.events);
+        }
+        Recorder recorder = new Recorder();
+        ObdFrameAssembler assembler = new ObdFrameAssembler(recorder);
+        for (int i = 0; i < bytes.length; i++) {
+            assembler.feed(bytes, i, 1);
+        }
+        assertEquals("byte by byte", whole, recorder.events);
+        return whole;
+    }
+
+    @Test
+    public void echoedCommandIsAMessage() {
+        assertEquals(Arrays.asList(
+                "message 010D",
+                response(ObdPids.MODE_CURRENT_DATA, ObdPids.VEHICLE_SPEED, 0x3C),
+                ">"), feedFragmented("010D\r41 0D 3C\r\r>"));
+    }
+
+    @Test
+    public void packedAndSpacedHexDecodeAlike() {
+        List<String> expected = Arrays.asList(
+                response(ObdPids.MODE_CURRENT_DATA, ObdPids.ENGINE_RPM, 0x1A, 0xF8),
+                ">");
+        assertEquals(expected, feedFragmented("41 0C 1A F8\r\r>"));
+        assertEquals(expected, feedFragmented("410C1AF8\r\r>"));
+        assertEquals(expected, feedFragmented("41 0c 1a f8 \n\n>"));
+    }
+
+    @Test
+    public void multiPidAnswerIsSplitPerPid() {
+        assertEquals(Arrays.asList(
+                response(ObdPids.MODE_CURRENT_DATA, 0x0D, 0x3C),
+                response(ObdPids.MODE_CURRENT_DATA, 0x0C, 0x1A, 0xF8),
+                response(ObdPids.MODE_CURRENT_DATA, 0x11, 0x04),
+                response(ObdPids.MODE_CURRENT_DATA, 0x46, 0x56),
+                response(ObdPids.MODE_CURRENT_DATA, 0x05, 0x79),
+                ">"), feedFragmented("410D3C0C1AF8110446560579\r\r>"));
+    }
+
+    @Test
+    public void multiPidAnswerCutShortKeepsWholePids() {
+        // 0C needs two data bytes and only one arrived
+        assertEquals(Arrays.asList(
+                response(ObdPids.MODE_CURRENT_DATA, 0x0D, 0x3C),
+                ">"), feedFragmented("41 0D 3C 0C 1A\r\r>"));
+    }
+
+    @Test
+    public void pidOfUnknownLengthOnItsOwnTakesTheFrame() {
+        // A6 (odometer) is not in the length table
+        assertEquals(Arrays.asList(
+                response(ObdPids.MODE_CURRENT_DATA, 0xA6, 0x00, 0x01, 0xE2, 0x40),
+                ">"), feedFragmented("41 A6 00 01 E2 40\r\r>"));
+    }
+
+    @Test
+    public void pidOfUnknownLengthAfterOthersEndsTheSplit() {
+        // Where A6 ends cannot be told, so neither it nor 0C gets 0C's bytes
+        assertEquals(Arrays.asList(
+                response(ObdPids.MODE_CURRENT_DATA, 0x0D, 0x3C),
+                ">"), feedFragmented("41 0D 3C A6 00 01 E2 40 0C 1A F8\r\r>"));
+    }
+
+    @Test
+    public void isoTpFramesAreJoined() {
+        // VIN 1D4GP00R55B123456, mode 09 PID 02, 0x14 bytes in three frames
+        assertEquals(Arrays.asList(
+                "message 0902",
+                response(0x09, 0x02, 0x01,
+                        '1', 'D', '4', 'G', 'P', '0', '0', 'R', '5', '5', 'B', '1', '2', '3', '4', '5', '6'),
+                ">"), feedFragmented("0902\r014\r0: 49 02 01 31 44 34\r1: 47 50 30 30 52 35 35\r"
+                + "2: 42 31 32 33 34 35 36\r\r>"));
+    }
+
+    @Test
+    public void isoTpFramesCutShortAreFlushedAtThePrompt() {
+        assertEquals(Arrays.asList(
+                response(0x09, 0x02, 0x01, '1', 'D', '4', 'G', 'P', '0', '0', 'R', '5', '5'),
+                ">"), feedFragmented("014\r0: 49 02 01 31 44 34\r1: 47 50 30 30 52 35 35\r\r>"));
+    }
+
+    @Test
+    public void modesWithoutPidKeepAllData() {
+        // Mode 03: two stored DTCs, P0133 and P0300
+        assertEquals(Arrays.asList(
+                response(0x03, ObdResponse.NO_PID, 0x02, 0x01, 0x33, 0x03, 0x00),
+                ">"), feedFragmented("43 02 01 33 03 00\r\r>"));
+    }
+
+    @Test
+    public void noDataAndNegativeResponsesAreMessages() {
+        assertEquals(Arrays.asList("message NO DATA", ">"), feedFragmented("NO DATA\r\r>"));
+        assertEquals(Arrays.asList("message 7F 01 12", ">"), feedFragmented("7F 01 12\r\r>"));
+        assertEquals(Arrays.asList("message 0151", "message NO DATA", ">"),
+                feedFragmented("0151\rNO DATA\r\r>"));
+    }
+
+    @Test
+    public void promptInItsOwnRead() {
+        Recorder recorder = new Recorder();
+        ObdFrameAssembler assembler = new ObdFrameAssembler(recorder);
+        assembler.feed(ascii("41 0D 3C\r\r"));
+        assertEquals(Arrays.asList(response(ObdPids.MODE_CURRENT_DATA, ObdPids.VEHICLE_SPEED, 0x3C)),
+                recorder.events);
+        assembler.feed(ascii(">"));
+        assertEquals(Arrays.asList(response(ObdPids.MODE_CURRENT_DATA, ObdPids.VEHICLE_SPEED, 0x3C), ">"),
+                recorder.events);
+    }
+
+    @Test
+    public void responseEndedByThePromptAlone() {
+        assertEquals(Arrays.asList(
+                response(ObdPids.MODE_CURRENT_DATA, ObdPids.VEHICLE_SPEED, 0x3C),
+                ">"), feedFragmented("41 0D 3C>"));
+    }
+
+    @Test
+    public void coalescedAnswersAndStatusText() {
+        assertEquals(Arrays.asList(
+                "message ELM327 v1.5",
+                ">",
+                "message OK",
+                ">",
+                response(ObdPids.MODE_CURRENT_DATA, ObdPids.VEHICLE_SPEED, 0x3C),
+                ">",
+                response(ObdPids.MODE_CURRENT_DATA, ObdPids.VEHICLE_SPEED, 0x3D),
+                ">"), feedFragmented("\r\rELM327 v1.5\r\r>OK\r\r>41 0D 3C\r\r>\u000041 0D 3D\r\r>"));
+    }
+
+    @Test
+    public void resetDropsAPartialLine() {
+        Recorder recorder = new Recorder();
+        ObdFrameAssembler assembler = new ObdFrameAssembler(recorder);
+        assembler.feed(ascii("41 0D"));
+        assembler.reset();
+        assembler.feed(ascii("41 0C 1A F8\r\r>"));
+        assertEquals(Arrays.asList(response(ObdPids.MODE_CURRENT_DATA, ObdPids.ENGINE_RPM, 0x1A, 0xF8), ">"),
+                recorder.events);
+    }
+}
@@ -0,0 +1,148 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * ObdResponseCache in front of a CommandArbiter with a recording sink; the
+ * adapter's answers are fed in by hand
+ */
+public class ObdResponseCacheTest {
+    private static final long TIMEOUT_NANOS = CommandArbiter.DEFAULT_TIMEOUT_NANOS;
+
+    /** Records the result of one command, as "ok <responses>", "cached <responses>" or "error <code>" */
+    private static final class Result implements CommandArbiter.Callback {
+        String outcome;
+
+        @Override
+        public void onComplete(List<ObdResponse> responses, List<String> messages, long waitedNanos,
+                               long roundTripNanos, boolean cached) {
+            outcome = (cached ? "cached " : "ok ") + responses;
+        }
+
+        @Override
+        public void onError(String code, String message) {
+            outcome = "error " + code;
+        }
+    }
+
+    private final List<String> sent = new ArrayList<>();
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    private final CommandArbiter arbiter = new CommandArbiter(
+            command -> sent.add(new String(command, StandardCharsets.US_ASCII).trim()), executor);
+    private final ObdResponseCache cache = new ObdResponseCache(arbiter);
+
+    @After
+    public void shutDown() {
+        arbiter.close();
+        executor.shutdownNow();
+    }
+
+    private Result submit(String command) {
+        Result result = new Result();
+        assertTrue(cache.submit(CommandArbiter.Lane.INTERACTIVE, (command + "\r").getBytes(StandardCharsets.US_ASCII),
+                TIMEOUT_NANOS, ObdResponseCache.DEFAULT_MAX_AGE, result));
+        return result;
+    }
+
+    /** The adapter answers the command in flight */
+    private void answer(ObdResponse... responses) {
+        for (ObdResponse response : responses) {
+            arbiter.onResponse(response);
+        }
+        arbiter.onPrompt();
+    }
+
+    private static ObdResponse response(int mode, int pid, int... data) {
+        byte[] bytes = new byte[data.length];
+        for (int i = 0; i < data.length; i++) {
+            bytes[i] = (byte) data[i];
+        }
+        return new ObdResponse(mode, pid, bytes);
+    }
+
+    private static final ObdResponse FUEL_TYPE = response(0x01, 0x51, 0x01);
+    private static final ObdResponse STORED_DTCS = response(0x03, ObdResponse.NO_PID, 0x01, 0x01, 0x33);
+
+    @Test
+    public void repeatedQueryIsAnsweredFromTheCache() {
+        Result first = submit("0151");
+        answer(FUEL_TYPE);
+        assertEquals("ok " + Collections.singletonList(FUEL_TYPE), first.outcome);
+
+        Result second = submit("01 51");
+        assertEquals("cached " + Collections.singletonList(FUEL_TYPE), second.outcome);
+        assertEquals(Collections.singletonList("0151"), sent);
+    }
+
+    @Test
+    public void identicalRequestsShareOneAnswer() {
+        Result first = submit("0151");
+        Result second = submit("0151");
+        assertEquals(Collections.singletonList("0151"), sent);
+        assertEquals(null, second.outcome);
+
+        answer(FUEL_TYPE);
+        assertEquals("ok " + Collections.singletonList(FUEL_TYPE), first.outcome);
+        assertEquals(first.outcome, second.outcome);
+        assertEquals(1L, cache.getStats().get("joined"));
+    }
+
+    @Test
+    public void answerRequestedBeforeAnInvalidationIsNotStored() {
+        Result first = submit("0151");
+        cache.invalidateAll();
+        answer(FUEL_TYPE);
+        // The caller still gets it, but it is not served later
+        assertEquals("ok " + Collections.singletonList(FUEL_TYPE), first.outcome);
+
+        submit("0151");
+        assertEquals(Arrays.asList("0151", "0151"), sent);
+    }
+
+    @Test
+    public void answerOfAnotherCommandIsNotStored() {
+        // A late answer to a poll request arriving in place of the bitmap
+        submit("0100");
+        answer(response(0x01, 0x0D, 0x3C));
+        submit("0100");
+        assertEquals(Arrays.asList("0100", "0100"), sent);
+    }
+
+    @Test
+    public void clearingDtcsInvalidatesWhatItResets() {
+        submit("03");
+        answer(STORED_DTCS);
+        submit("0151");
+        answer(FUEL_TYPE);
+
+        Result clear = submit("04");
+        answer(response(0x04, ObdResponse.NO_PID));
+        assertEquals("ok " + Collections.singletonList(response(0x04, ObdResponse.NO_PID)), clear.outcome);
+
+        Result dtcs = submit("03");
+        assertEquals(null, dtcs.outcome);
+        answer();
+        assertEquals("cached " + Collections.singletonList(FUEL_TYPE), submit("0151").outcome);
+        assertEquals(Arrays.asList("03", "0151", "04", "03"), sent);
+    }
+
+    @Test
+    public void clearingDtcsIsNeverCached() {
+        submit("04");
+        answer(response(0x04, ObdResponse.NO_PID));
+        submit("04");
+        assertEquals(Arrays.asList("04", "04"), sent);
+    }
+}
@@ -0,0 +1,75 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * Backoff bounds and giving up, with seeded jitter
+ */
+public class ReconnectPolicyTest {
+    private static final int DRAWS = 2000;
+
+    @Test
+    public void delaysStayWithinTheJitteredBackoff() {
+        ReconnectPolicy policy = new ReconnectPolicy(250, 5000, 20, new Random(42));
+        long[] caps = {250, 500, 1000, 2000, 4000, 5000, 5000};
+        for (int attempt = 1; attempt <= caps.length; attempt++) {
+            long cap = caps[attempt - 1];
+            long min = Long.MAX_VALUE;
+            long max = Long.MIN_VALUE;
+            for (int i = 0; i < DRAWS; i++) {
+                long delay = policy.delayForAttempt(attempt);
+                min = Math.min(min, delay);
+                max = Math.max(max, delay);
+            }
+            assertTrue("attempt " + attempt + " min " + min, min >= cap / 2);
+            assertTrue("attempt " + attempt + " max " + max, max <= cap);
+            // Jittered over most of the range, not a fixed delay
+            assertTrue("attempt " + attempt + " spread " + (max - min), max - min >= cap / 2 * 9 / 10);
+        }
+    }
+
+    @Test
+    public void givesUpAfterTheLastAttempt() {
+        ReconnectPolicy policy = new ReconnectPolicy(250, 5000, 3, new Random(1));
+        assertEquals(-1, policy.delayForAttempt(0));
+        assertTrue(policy.delayForAttempt(3) > 0);
+        assertEquals(-1, policy.delayForAttempt(4));
+        assertEquals(-1, policy.delayForAttempt(Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void noAttemptsMeansNoRetry() {
+        ReconnectPolicy policy = new ReconnectPolicy(250, 5000, 0, new Random(1));
+        assertEquals(-1, policy.delayForAttempt(1));
+    }
+
+    @Test
+    public void lateAttemptsStayAtTheMaximum() {
+        // Doubling the delay unbounded would overflow long after some 55 attempts
+        ReconnectPolicy policy = new ReconnectPolicy(250, 5000, 1000, new Random(7));
+        for (int attempt : new int[] {31, 32, 64, 65, 1000}) {
+            long delay = policy.delayForAttempt(attempt);
+            assertTrue("attempt " + attempt + ": " + delay, delay >= 2500 && delay <= 5000);
+        }
+    }
+
+    @Test
+    public void delaysAreClampedToSaneBounds() {
+        // Initial delay at least 1 ms, maximum at least the initial delay
+        ReconnectPolicy policy = new ReconnectPolicy(0, 0, 5, new Random(3));
+        for (int attempt = 1; attempt <= 5; attempt++) {
+            long delay = policy.delayForAttempt(attempt);
+            assertTrue("attempt " + attempt + ": " + delay, delay >= 0 && delay <= 1);
+        }
+        policy = new ReconnectPolicy(1000, 10, 5, new Random(3));
+        for (int attempt = 1; attempt <= 5; attempt++) {
+            long delay = policy.delayForAttempt(attempt);
+            assertTrue("attempt " + attempt + ": " + delay, delay >= 500 && delay <= 1000);
+        }
+    }
+}
@@ -4,8 +4,15 @@
 library flutter_bluetooth_serial;
 
 export 'src/bluetooth_connection.dart';
+export 'src/bluetooth_connection_state.dart';
 export 'src/bluetooth_device.dart';
 export 'src/bluetooth_discovery.dart';
 export 'src/bluetooth_bond_state.dart';
 export 'src/bluetooth_state.dart';
-export 'src/flutter_bluetooth_serial.dart'; 
\ No newline at end of file
+export 'src/flutter_bluetooth_serial.dart';
+export 'src/driving_event.dart';
+export 'src/obd_command.dart';
+export 'src/obd_response.dart';
+export 'src/obd_sample_batch.dart';
+export 'src/trip_recording.dart';
+export 'src/trip_summary.dart'; 
\ No newline at end of file
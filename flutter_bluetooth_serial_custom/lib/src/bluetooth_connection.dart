@@ -2,11 +2,19 @@ import 'dart:async';
 
 import 'package:flutter/services.dart';
 
+import 'bluetooth_connection_state.dart';
+import 'driving_event.dart';
+import 'method_call_dispatcher.dart';
+import 'obd_command.dart';
+import 'obd_response.dart';
+import 'obd_sample_batch.dart';
+import 'trip_summary.dart';
+
 /// Represents an established connection to a Bluetooth device
 class BluetoothConnection {
   /// The connection handle that is used by platform 
   /// specific code to maintain connection.
-  final int? _connectionHandle;
+  final int _connectionHandle;
 
   /// The address of the connected device
   final String address;
@@ -15,6 +23,30 @@ class BluetoothConnection {
   final StreamController<Uint8List> _inputStreamController = 
       StreamController<Uint8List>.broadcast();
 
+  /// Decoded OBD response stream controller (from the device)
+  final StreamController<ObdResponse> _responseStreamController =
+      StreamController<ObdResponse>.broadcast();
+
+  /// Detected driving event stream controller
+  final StreamController<DrivingEvent> _eventStreamController =
+      StreamController<DrivingEvent>.broadcast();
+
+  /// Binary mode 01 sample batches; the native side only sends them while
+  /// this has a listener
+  late final StreamController<ObdSampleBatch> _sampleStreamController =
+      StreamController<ObdSampleBatch>.broadcast(
+    onListen: () => _setSampleStream(true),
+    onCancel: () => _setSampleStream(false),
+  );
+
+  /// Connection state changes pushed by the platform
+  final StreamController<BluetoothConnectionState> _stateStreamController =
+      StreamController<BluetoothConnectionState>.broadcast();
+
+  /// Write queue backpressure changes (true while the native queue is filling)
+  final StreamController<bool> _backpressureStreamController =
+      StreamController<bool>.broadcast();
+
   /// Output stream controller (to the device)
   final StreamController<Uint8List> _outputStreamController = 
       StreamController<Uint8List>();
@@ -23,8 +55,48 @@ class BluetoothConnection {
   static const MethodChannel _methodChannel =
       MethodChannel('flutter_bluetooth_serial');
 
-  /// Is the connection currently established?
-  bool _isConnected = true;
+  /// Open connections by handle, for routing the platform's connection events
+  static final Map<int, BluetoothConnection> _connections = {};
+
+  /// Binary sample batches of all connections, routed by handle
+  static const BasicMessageChannel<ByteData> _samplesChannel =
+      BasicMessageChannel<ByteData>(
+          'flutter_bluetooth_serial/samples', BinaryCodec());
+
+  /// Batched data stream for this connection (raw bytes and decoded responses)
+  late final EventChannel _dataChannel =
+      EventChannel('flutter_bluetooth_serial/data/$_connectionHandle');
+
+  /// Subscription to the batched data stream
+  StreamSubscription<dynamic>? _dataSubscription;
+
+  /// Last state pushed by the platform; a connection starts out connected
+  BluetoothConnectionState _state = BluetoothConnectionState.connected;
+
+  /// Is the platform side re-establishing a dropped link?
+  bool _isReconnecting = false;
+
+  /// Is the native write queue over its high watermark?
+  bool _isWriteBackpressured = false;
+
+  /// Whether the native write queue is filling faster than the link drains
+  /// it; writes are refused once it is full, so hold off until this clears
+  bool get isWriteBackpressured => _isWriteBackpressured;
+
+  /// Emits true when the native write queue crosses its high watermark and
+  /// false once it has drained
+  Stream<bool> get writeBackpressure => _backpressureStreamController.stream;
+
+  /// Current state of the link, kept up to date by the platform
+  BluetoothConnectionState get state => _state;
+
+  /// Emits every state change, so there is no need to poll [isConnected]
+  Stream<BluetoothConnectionState> get stateChanges =>
+      _stateStreamController.stream;
+
+  /// Whether a dropped link is currently being re-established natively
+  /// (only with `autoReconnect`); writes are held until it is back
+  bool get isReconnecting => _isReconnecting;
 
   /// Stream sink for sending data to the device
   StreamSink<Uint8List> get output => _outputStreamController.sink;
@@ -32,56 +104,208 @@ class BluetoothConnection {
   /// Stream of data received from the device
   Stream<Uint8List> get input => _inputStreamController.stream;
 
+  /// Stream of complete OBD responses, framed and decoded natively
+  Stream<ObdResponse> get responses => _responseStreamController.stream;
+
+  /// Stream of polled mode 01 samples as binary batches, read in place with
+  /// [ObdSampleBatch.valueAt] and friends. While this has a listener, mode 01
+  /// answers are delivered here instead of on [responses], which saves the
+  /// per-response map encoding on both sides.
+  Stream<ObdSampleBatch> get samples => _sampleStreamController.stream;
+
+  /// Stream of driving events detected natively, see [startEventDetection]
+  Stream<DrivingEvent> get drivingEvents => _eventStreamController.stream;
+
   /// Constructs a BluetoothConnection object from a handle
   BluetoothConnection._fromHandle(this._connectionHandle, this.address) {
     // Set up output stream listener to forward data to platform
     _outputStreamController.stream.listen((data) {
-      if (_isConnected) {
+      if (_state != BluetoothConnectionState.closed) {
+        // Queued natively and sent by the connection's writer thread
         _methodChannel.invokeMethod('write', {
+          'handle': _connectionHandle,
           'address': address,
           'data': data,
+        }).catchError((e) {
+          print('Error writing data: $e');
         });
       }
     });
 
     // Register this connection for receiving data
+    _connections[_connectionHandle] = this;
+    MethodCallDispatcher.register(_connectionEvents, _handleConnectionEvent);
+    _samplesChannel.setMessageHandler(_handleSamples);
     _registerForDataReceived();
   }
 
+  /// Arguments identifying this connection to the platform side
+  Map<String, dynamic> get _key => {
+        'handle': _connectionHandle,
+        'address': address,
+      };
+
   void _registerForDataReceived() {
-    // Set up method call handler for incoming data
-    _methodChannel.setMethodCallHandler((call) async {
-      switch (call.method) {
-        case 'onDataReceived':
-          final Map<dynamic, dynamic> args = call.arguments;
-          if (args['address'] == address) {
-            final Uint8List data = args['data'];
-            _inputStreamController.add(data);
-          }
-          break;
-        case 'onDeviceDisconnected':
-          final Map<dynamic, dynamic> args = call.arguments;
-          if (args['address'] == address) {
-            _isConnected = false;
-            // Close streams but don't complete them yet to allow buffered data to be read
-            await finish();
+    // Each event is a batch of received bytes and/or decoded responses
+    _dataSubscription = _dataChannel.receiveBroadcastStream().listen((event) {
+      final Map<dynamic, dynamic> batch = event;
+      final Uint8List? data = batch['data'];
+      if (data != null) {
+        _inputStreamController.add(data);
+      }
+      final List<dynamic>? responses = batch['responses'];
+      if (responses != null) {
+        for (final response in responses) {
+          _responseStreamController.add(ObdResponse.fromMap(response));
+        }
+      }
+      final List<dynamic>? events = batch['events'];
+      if (events != null) {
+        for (final event in events) {
+          final drivingEvent = DrivingEvent.fromMap(event);
+          if (drivingEvent != null) {
+            _eventStreamController.add(drivingEvent);
           }
-          break;
+        }
       }
+    });
+  }
+
+  /// Methods the platform calls with a connection's events
+  static const List<String> _connectionEvents = [
+    'onDeviceReconnecting',
+    'onDeviceReconnected',
+    'onConnectionStateChanged',
+    'onWriteBackpressure',
+    'onDeviceDisconnected',
+  ];
+
+  /// Dispatches connection events to the connection they are for; one
+  /// handler serves every open connection
+  static Future<dynamic> _handleConnectionEvent(MethodCall call) async {
+    if (call.arguments is! Map) {
       return null;
+    }
+    final Map<dynamic, dynamic> args = call.arguments;
+    final connection = _connectionFor(args);
+    if (connection == null) {
+      return null;
+    }
+    switch (call.method) {
+      case 'onDeviceReconnecting':
+        connection._isReconnecting = true;
+        break;
+      case 'onDeviceReconnected':
+        connection._isReconnecting = false;
+        break;
+      case 'onConnectionStateChanged':
+        connection._setState(BluetoothConnectionState.fromName(args['state']));
+        break;
+      case 'onWriteBackpressure':
+        connection._isWriteBackpressured = args['backpressured'] as bool;
+        connection._backpressureStreamController
+            .add(connection._isWriteBackpressured);
+        break;
+      case 'onDeviceDisconnected':
+        connection._setState(BluetoothConnectionState.closed);
+        connection._isReconnecting = false;
+        // Close streams but don't complete them yet to allow buffered data to be read
+        await connection.finish();
+        break;
+    }
+    return null;
+  }
+
+  void _setState(BluetoothConnectionState state) {
+    if (state == _state) {
+      return;
+    }
+    _state = state;
+    if (!_stateStreamController.isClosed) {
+      _stateStreamController.add(state);
+    }
+  }
+
+  /// Routes a binary sample batch by the handle of its first record; the
+  /// native side sends one connection's samples per message
+  static Future<ByteData> _handleSamples(ByteData? message) async {
+    final batch = message != null ? ObdSampleBatch.tryParse(message) : null;
+    if (batch != null && batch.length > 0) {
+      final connection = _connections[batch.handleAt(0)];
+      if (connection != null && !connection._sampleStreamController.isClosed) {
+        connection._sampleStreamController.add(batch);
+      }
+    }
+    return ByteData(0);
+  }
+
+  void _setSampleStream(bool enabled) {
+    if (_state == BluetoothConnectionState.closed) {
+      return;
+    }
+    _methodChannel
+        .invokeMethod(enabled ? 'startSampleStream' : 'stopSampleStream', _key)
+        .catchError((e) {
+      print('Error switching sample stream: $e');
     });
   }
 
+  static BluetoothConnection? _connectionFor(Map<dynamic, dynamic> args) {
+    final handle = args['handle'];
+    if (handle is int) {
+      return _connections[handle];
+    }
+    for (final connection in _connections.values) {
+      if (connection.address == args['address']) {
+        return connection;
+      }
+    }
+    return null;
+  }
+
   /// Establishes a connection to a Bluetooth device
-  static Future<BluetoothConnection> toAddress(String address) async {
+  ///
+  /// Received data is delivered in batches of at most [batchMaxBytes] bytes,
+  /// sent no later than [batchLatencyMs] after the first byte of a batch.
+  ///
+  /// With [autoReconnect] a dropped link is retried natively with jittered
+  /// exponential backoff (up to [reconnectAttempts] times); the data stream,
+  /// polling and queued writes resume on the same connection object.
+  ///
+  /// With [initializeAdapter] the link is set up for an ELM327 before it is
+  /// handed over: echo, spaces, linefeeds and headers off, adaptive timing on,
+  /// and the adapter and supported PIDs probed (cached per device, see
+  /// `adapter` in [getStats]). Off by default, as other devices would get the
+  /// AT commands; the probe can take several seconds on a first connect.
+  ///
+  /// An address of the form `sim:baud=38400,latencyMs=40,chunk=20,dropRate=0`
+  /// connects to a simulated ELM327 inside the plugin instead of a device,
+  /// and `replay:path=...,speed=1` plays back a capture, see [replay].
+  static Future<BluetoothConnection> toAddress(
+    String address, {
+    int batchMaxBytes = 4096,
+    int batchLatencyMs = 10,
+    bool autoReconnect = false,
+    int reconnectAttempts = 20,
+    bool initializeAdapter = false,
+  }) async {
     try {
       final handle = await _methodChannel.invokeMethod<int>(
         'connect', 
-        {'address': address}
+        {
+          'address': address,
+          'batchMaxBytes': batchMaxBytes,
+          'batchLatencyMs': batchLatencyMs,
+          'autoReconnect': autoReconnect,
+          'reconnectAttempts': reconnectAttempts,
+          'initializeAdapter': initializeAdapter,
+        }
       );
       
       if (handle != null) {
-        return BluetoothConnection._fromHandle(handle, address);
+        // Connecting to a device that is already connected hands back its handle
+        return _connections[handle] ??
+            BluetoothConnection._fromHandle(handle, address);
       } else {
         throw 'Failed to connect to device: unknown error';
       }
@@ -90,45 +314,250 @@ class BluetoothConnection {
     }
   }
 
-  /// Checks if the connection is still active
-  Future<bool> get isConnected async {
-    try {
-      final connected = await _methodChannel.invokeMethod<bool>(
-        'isConnected', 
-        {'address': address}
-      );
-      _isConnected = connected ?? false;
-      return _isConnected;
-    } catch (e) {
-      _isConnected = false;
-      return false;
+  /// Plays back a capture made with [startCapture] as if its device sent the
+  /// bytes again: framing, decoding, events and recording run as they did
+  /// live. Reads keep their captured spacing divided by [speed], or come as
+  /// fast as possible with a [speed] of 0. Writes are ignored; the connection
+  /// closes after the last captured byte.
+  static Future<BluetoothConnection> replay(String path, {double speed = 1}) {
+    return toAddress('replay:path=$path,speed=$speed');
+  }
+
+  /// Connections still open on the platform side, e.g. kept running by
+  /// [FlutterBluetoothSerial.startBackgroundCapture] while the app's engine
+  /// was gone. Polling and recording carried on meanwhile; listening to
+  /// [samples] first delivers the samples captured without an engine.
+  static Future<List<BluetoothConnection>> restoreSessions() async {
+    final List<dynamic>? sessions =
+        await _methodChannel.invokeMethod('getSessions');
+    final restored = <BluetoothConnection>[];
+    for (final dynamic entry in sessions ?? const []) {
+      final Map<dynamic, dynamic> session = entry;
+      final int handle = session['handle'];
+      final connection = _connections[handle] ??
+          BluetoothConnection._fromHandle(handle, session['address']);
+      connection._setState(BluetoothConnectionState.fromName(session['state']));
+      restored.add(connection);
     }
+    return restored;
+  }
+
+  /// Checks if the connection is still active; answered from the pushed
+  /// [state] without a platform call, prefer listening to [stateChanges]
+  Future<bool> get isConnected async => _state.isUp;
+
+  /// Polls mode 01 PIDs natively at the given target rates (PID -> Hz).
+  ///
+  /// Due PIDs are packed into multi-PID requests when [multiPid] is set and
+  /// the ECU answers them; responses arrive on [responses].
+  ///
+  /// With [adaptive] the rates are upper bounds: they are lowered to what the
+  /// link sustains, measured from round-trip times and "BUFFER FULL" /
+  /// "STOPPED" / "NO DATA" answers, keeping speed (0x0D) fastest. The rates
+  /// in effect are reported under `polling.ratesHz` in [getStats].
+  Future<void> startPolling(
+    Map<int, double> ratesHz, {
+    bool multiPid = true,
+    bool adaptive = true,
+  }) async {
+    await _methodChannel.invokeMethod('startPolling', {
+      ..._key,
+      'pids': ratesHz,
+      'multiPid': multiPid,
+      'adaptive': adaptive,
+    });
+  }
+
+  /// Sends one ELM327 command (e.g. "03" for DTCs, "0902" for the VIN) and
+  /// returns its answer. Unlike [output], the command is coordinated with
+  /// native polling: an [CommandPriority.interactive] command goes out at
+  /// the next adapter prompt, so it is answered within a couple of round
+  /// trips even while polling keeps the link busy. The answer comes only
+  /// here, not on [responses].
+  ///
+  /// Single-PID and PID-less OBD requests are answered from a native
+  /// per-connection cache when it holds an answer no older than [maxAge].
+  /// Without [maxAge], vehicle information (mode 09), supported-PID bitmaps,
+  /// OBD standard and fuel type are kept for the connection, and DTCs and
+  /// monitor status for 5 s. Live data is not cached. Identical requests
+  /// made while one is under way share its answer. Pass [Duration.zero] to
+  /// force a fresh answer.
+  ///
+  /// Fails with a `TIMEOUT` [PlatformException] if there is no answer
+  /// within [timeout] (at most 30 s), queueing time included.
+  Future<ObdCommandResult> sendCommand(
+    String command, {
+    CommandPriority priority = CommandPriority.interactive,
+    Duration timeout = const Duration(seconds: 2),
+    Duration? maxAge,
+  }) async {
+    final Map<dynamic, dynamic>? result =
+        await _methodChannel.invokeMethod('sendCommand', {
+      ..._key,
+      'command': command,
+      'priority': priority.name,
+      'timeoutMs': timeout.inMilliseconds,
+      if (maxAge != null) 'maxAgeMs': maxAge.inMilliseconds,
+    });
+    return ObdCommandResult.fromMap(result!);
+  }
+
+  /// Drops answers cached by [sendCommand]: all of them, all of a [mode],
+  /// or the one for [mode] and [pid]. Clearing DTCs with "04" and
+  /// reconnecting drop the affected answers by themselves.
+  Future<void> invalidateCache({int? mode, int? pid}) async {
+    await _methodChannel.invokeMethod('invalidateCache', {
+      ..._key,
+      if (mode != null) 'mode': mode,
+      if (pid != null) 'pid': pid,
+    });
+  }
+
+  /// Stops native PID polling started with [startPolling]
+  Future<void> stopPolling() async {
+    await _methodChannel.invokeMethod('stopPolling', _key);
+  }
+
+  /// Detect harsh braking/acceleration, over-speed and over-rev natively from
+  /// the polled speed (0x0D) and rpm (0x0C) samples; only the events cross
+  /// the channel, on [drivingEvents]. Unset thresholds keep the native
+  /// defaults (10 km/h/s, 10 km/h/s, 120 km/h, 5000 rpm) and 0 disables one.
+  Future<void> startEventDetection({
+    double? harshBrakingKmhPerS,
+    double? harshAccelerationKmhPerS,
+    double? overSpeedKmh,
+    double? overRevRpm,
+    int? windowMs,
+    int? cooldownMs,
+  }) async {
+    await _methodChannel.invokeMethod('startEventDetection', {
+      ..._key,
+      if (harshBrakingKmhPerS != null) 'harshBrakingKmhPerS': harshBrakingKmhPerS,
+      if (harshAccelerationKmhPerS != null)
+        'harshAccelerationKmhPerS': harshAccelerationKmhPerS,
+      if (overSpeedKmh != null) 'overSpeedKmh': overSpeedKmh,
+      if (overRevRpm != null) 'overRevRpm': overRevRpm,
+      if (windowMs != null) 'windowMs': windowMs,
+      if (cooldownMs != null) 'cooldownMs': cooldownMs,
+    });
+  }
+
+  /// Stop native driving event detection
+  Future<void> stopEventDetection() async {
+    await _methodChannel.invokeMethod('stopEventDetection', _key);
+  }
+
+  /// Start appending decoded mode 01 samples of this connection to a native
+  /// trip log; returns the path of the log file
+  Future<String> startRecording({String? name}) async {
+    final path = await _methodChannel.invokeMethod<String>('startRecording', {
+      ..._key,
+      if (name != null) 'name': name,
+    });
+    return path!;
+  }
+
+  /// Stop recording; returns {path, samples, bytes}, or null if not recording
+  Future<Map<String, dynamic>?> stopRecording() async {
+    final Map<dynamic, dynamic>? summary =
+        await _methodChannel.invokeMethod('stopRecording', _key);
+    return summary == null ? null : Map<String, dynamic>.from(summary);
+  }
+
+  /// Distance, speeds, idle time, fuel and driving event counts of the trip
+  /// so far, kept natively from the polled samples in constant memory, so
+  /// polling this at 1 Hz is cheap whatever the sample rate. The trip starts
+  /// with the connection; with [reset] a new one starts after this summary.
+  Future<TripSummary> getTripSummary({bool reset = false}) async {
+    final Map<dynamic, dynamic>? summary =
+        await _methodChannel.invokeMethod('getTripSummary', {
+      ..._key,
+      'reset': reset,
+    });
+    return TripSummary.fromMap(summary!);
+  }
+
+  /// Start capturing the raw bytes sent and received on this connection,
+  /// with timestamps, into a ring file of [sizeBytes] (64 KiB to 256 MiB)
+  /// that overwrites its oldest data once full; returns the file's path.
+  /// Replay it with [replay].
+  Future<String> startCapture({String? name, int? sizeBytes}) async {
+    final path = await _methodChannel.invokeMethod<String>('startCapture', {
+      ..._key,
+      if (name != null) 'name': name,
+      if (sizeBytes != null) 'sizeBytes': sizeBytes,
+    });
+    return path!;
+  }
+
+  /// Stop capturing; returns {path, capacityBytes, bytesWritten,
+  /// bytesOverwritten, records}, or null if not capturing
+  Future<Map<String, dynamic>?> stopCapture() async {
+    final Map<dynamic, dynamic>? summary =
+        await _methodChannel.invokeMethod('stopCapture', _key);
+    return summary == null ? null : Map<String, dynamic>.from(summary);
+  }
+
+  /// Link statistics of this connection: byte and read/write counters,
+  /// read size and write latency histograms, OBD round-trip times and how
+  /// the connection was established. `readsPerSecond` and `bytesInPerSecond`
+  /// are averages since the link came up.
+  Future<Map<String, dynamic>> getStats() async {
+    final Map<dynamic, dynamic>? stats =
+        await _methodChannel.invokeMethod('getStats', _key);
+    return Map<String, dynamic>.from(stats ?? {});
   }
 
   /// Disconnects from the device
   Future<void> finish() async {
-    _isConnected = false;
+    _setState(BluetoothConnectionState.closed);
+    if (identical(_connections[_connectionHandle], this)) {
+      _connections.remove(_connectionHandle);
+    }
     
     try {
       // Try to disconnect on the platform side
       await _methodChannel.invokeMethod(
         'disconnect', 
-        {'address': address}
+        _key
       );
     } catch (e) {
       print('Error disconnecting: $e');
     }
     
     // Close the streams
+    await _dataSubscription?.cancel();
+    _dataSubscription = null;
+    
     if (!_inputStreamController.isClosed) {
       await _inputStreamController.close();
     }
     
+    if (!_responseStreamController.isClosed) {
+      await _responseStreamController.close();
+    }
+    
+    if (!_eventStreamController.isClosed) {
+      await _eventStreamController.close();
+    }
+    
+    if (!_stateStreamController.isClosed) {
+      await _stateStreamController.close();
+    }
+    
+    if (!_sampleStreamController.isClosed) {
+      await _sampleStreamController.close();
+    }
+    
+    if (!_backpressureStreamController.isClosed) {
+      await _backpressureStreamController.close();
+    }
+    
     if (!_outputStreamController.isClosed) {
       await _outputStreamController.close();
     }
   }
 
   @override
-  String toString() => 'BluetoothConnection{$address}';
+  String toString() => 'BluetoothConnection{$address, handle: $_connectionHandle}';
 } 
\ No newline at end of file
@@ -0,0 +1,29 @@
+/// Lifecycle of a [BluetoothConnection], tracked natively and pushed on
+/// every change
+enum BluetoothConnectionState {
+  /// Opening the link, or re-opening it after a drop (`autoReconnect`)
+  connecting,
+
+  /// Link up and reading
+  connected,
+
+  /// Link still open but failing: a write failed or the remote asked to
+  /// disconnect
+  degraded,
+
+  /// Connection gone for good
+  closed;
+
+  /// Whether data can still flow, possibly with errors
+  bool get isUp => this == connected || this == degraded;
+
+  /// State for a platform state name; unknown names map to [closed]
+  static BluetoothConnectionState fromName(String? name) {
+    for (final state in values) {
+      if (state.name == name) {
+        return state;
+      }
+    }
+    return closed;
+  }
+}
@@ -14,12 +14,25 @@ class BluetoothDevice {
   /// Is the device connected
   final bool? isConnected;
 
+  /// Is the device paired; null when not known
+  final bool? isBonded;
+
+  /// Signal strength in dBm when found by discovery
+  final int? rssi;
+
+  /// Whether the name (or, for unnamed devices, the device class) suggests
+  /// an OBD adapter
+  final bool? isLikelyObd;
+
   /// Construct a Bluetooth Device
   BluetoothDevice({
     required this.name,
     required this.address,
     this.type,
     this.isConnected,
+    this.isBonded,
+    this.rssi,
+    this.isLikelyObd,
   });
 
   /// Creates a Bluetooth Device from a map (usually from platform code)
@@ -29,6 +42,9 @@ class BluetoothDevice {
       address: map['address'],
       type: map['type'],
       isConnected: map['isConnected'],
+      isBonded: map['bonded'],
+      rssi: map['rssi'],
+      isLikelyObd: map['likelyObd'],
     );
   }
   
@@ -39,6 +55,9 @@ class BluetoothDevice {
       'address': address,
       'type': type,
       'isConnected': isConnected,
+      'bonded': isBonded,
+      'rssi': rssi,
+      'likelyObd': isLikelyObd,
     };
   }
 
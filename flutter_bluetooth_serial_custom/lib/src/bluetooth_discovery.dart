@@ -1,19 +1,27 @@
 import 'dart:async';
+
+import 'package:flutter/services.dart';
+
 import 'bluetooth_device.dart';
 
-/// Represents a Bluetooth discovery process
+/// Device scan: bonded devices first, then what Bluetooth discovery finds,
+/// each device once and annotated with its live connection state
 class BluetoothDiscovery {
+  /// Scan results from the platform; one scan runs at a time
+  static const EventChannel _scanChannel =
+      EventChannel('flutter_bluetooth_serial/scan');
+
   /// Controller for the discovery stream
   final _controller = StreamController<BluetoothDevice>.broadcast();
 
-  /// Stream of discovered devices
-  Stream<BluetoothDevice> get devices => _controller.stream;
+  /// Subscription to the running scan, if any
+  StreamSubscription<BluetoothDevice>? _subscription;
 
-  /// Flag to track if discovery is currently in progress
-  bool _isDiscovering = false;
+  /// Stream of discovered devices of scans run with [start]
+  Stream<BluetoothDevice> get devices => _controller.stream;
 
   /// Indicates if discovery is currently in progress
-  bool get isDiscovering => _isDiscovering;
+  bool get isDiscovering => _subscription != null;
 
   /// Singleton instance
   static final BluetoothDiscovery _instance = BluetoothDiscovery._();
@@ -24,47 +32,53 @@ class BluetoothDiscovery {
   /// Private constructor for singleton
   BluetoothDiscovery._();
 
-  /// Starts the discovery process
-  Future<bool> start() async {
-    if (_isDiscovering) {
+  /// Scans for devices: the bonded ones are emitted right away, then devices
+  /// found by discovery as they show up, and the stream closes after
+  /// [timeout] (at most a minute) or when discovery ends.
+  ///
+  /// With [obdOnly] only devices that look like OBD adapters by name are
+  /// emitted; with [discover] false only the bonded devices.
+  ///
+  /// Cancelling the subscription stops discovery, which slows down open
+  /// connections while it runs. Starting another scan ends this one.
+  Stream<BluetoothDevice> scan({
+    Duration timeout = const Duration(seconds: 12),
+    bool obdOnly = false,
+    bool discover = true,
+  }) {
+    return _scanChannel.receiveBroadcastStream({
+      'timeoutMs': timeout.inMilliseconds,
+      'obdOnly': obdOnly,
+      'discover': discover,
+    }).map((event) => BluetoothDevice.fromMap(event as Map<dynamic, dynamic>));
+  }
+
+  /// Starts a [scan] whose results go to [devices]
+  Future<bool> start({
+    Duration timeout = const Duration(seconds: 12),
+    bool obdOnly = false,
+  }) async {
+    if (_subscription != null) {
       return true;
     }
 
-    _isDiscovering = true;
-    
-    // Simulate device discovery with timer
-    Timer.periodic(const Duration(seconds: 1), (timer) {
-      if (!_isDiscovering) {
-        timer.cancel();
-        return;
-      }
-      
-      // Add mock discovered device
-      if (timer.tick <= 3) {
-        _controller.add(
-          BluetoothDevice(
-            name: "Discovered Device ${timer.tick}",
-            address: "AA:BB:CC:DD:EE:F${timer.tick}",
-            type: 1,
-            isConnected: false,
-          ),
-        );
-      } else {
-        timer.cancel();
-        _isDiscovering = false;
-      }
-    });
-    
+    _subscription = scan(timeout: timeout, obdOnly: obdOnly).listen(
+      _controller.add,
+      onError: (Object e) {
+        print('Error discovering devices: $e');
+        _subscription = null;
+      },
+      onDone: () => _subscription = null,
+      cancelOnError: true,
+    );
     return true;
   }
 
   /// Cancels the discovery process
   Future<bool> cancel() async {
-    if (!_isDiscovering) {
-      return true;
-    }
-    
-    _isDiscovering = false;
+    final subscription = _subscription;
+    _subscription = null;
+    await subscription?.cancel();
     return true;
   }
   
@@ -73,4 +87,4 @@ class BluetoothDiscovery {
     cancel();
     _controller.close();
   }
-} 
\ No newline at end of file
+}
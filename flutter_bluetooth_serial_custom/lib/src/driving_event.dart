@@ -0,0 +1,51 @@
+/// Kinds of driving events detected natively from the sample stream
+enum DrivingEventType {
+  harshBraking,
+  harshAcceleration,
+  overSpeed,
+  overRev,
+}
+
+/// A driving event detected natively by the plugin
+class DrivingEvent {
+  final DrivingEventType type;
+
+  /// km/h per second for harsh braking/acceleration, km/h for over-speed,
+  /// rpm for over-rev
+  final double value;
+
+  /// Monotonic capture time of the triggering sample (elapsedRealtimeNanos)
+  final int timestampNanos;
+
+  /// Wall-clock time of the triggering sample
+  final DateTime time;
+
+  DrivingEvent({
+    required this.type,
+    required this.value,
+    required this.timestampNanos,
+    required this.time,
+  });
+
+  /// Creates an event from a map (usually from platform code); null for
+  /// event types this version does not know
+  static DrivingEvent? fromMap(Map<dynamic, dynamic> map) {
+    final String name = map['type'];
+    for (final type in DrivingEventType.values) {
+      if (type.name == name) {
+        return DrivingEvent(
+          type: type,
+          value: (map['value'] as num).toDouble(),
+          timestampNanos: map['timestampNanos'] as int,
+          time: DateTime.fromMillisecondsSinceEpoch(map['time'] as int),
+        );
+      }
+    }
+    return null;
+  }
+
+  @override
+  String toString() {
+    return 'DrivingEvent{type: $type, value: $value, time: $time}';
+  }
+}
@@ -1,8 +1,11 @@
 import 'dart:async';
 
 import 'package:flutter/services.dart';
+import 'bluetooth_connection.dart';
 import 'bluetooth_device.dart';
+import 'bluetooth_discovery.dart';
 import 'bluetooth_state.dart';
+import 'method_call_dispatcher.dart';
 
 /// Main class for handling Bluetooth Serial connections
 class FlutterBluetoothSerial {
@@ -25,14 +28,10 @@ class FlutterBluetoothSerial {
 
   /// Private constructor for singleton
   FlutterBluetoothSerial._() {
-    // Set up method call handler for state changes
-    _methodChannel.setMethodCallHandler((call) async {
-      switch (call.method) {
-        case 'onStateChanged':
-          final int state = call.arguments;
-          _stateController.add(_stateFromInt(state));
-          break;
-      }
+    // Connections take their events from the same channel handler
+    MethodCallDispatcher.register(const ['onStateChanged'], (call) async {
+      final int state = call.arguments;
+      _stateController.add(_stateFromInt(state));
       return null;
     });
   }
@@ -97,7 +96,8 @@ class FlutterBluetoothSerial {
     }
   }
 
-  /// Get list of paired/bonded devices
+  /// Get list of paired/bonded devices, with their live connection state;
+  /// see [BluetoothDiscovery.scan] for streaming them along with discovery
   Future<List<BluetoothDevice>> getBondedDevices() async {
     try {
       final List<dynamic>? deviceList = await _methodChannel.invokeMethod('getBondedDevices');
@@ -106,21 +106,55 @@ class FlutterBluetoothSerial {
         return [];
       }
       
-      return deviceList.map((device) {
-        final Map<dynamic, dynamic> deviceMap = device as Map<dynamic, dynamic>;
-        return BluetoothDevice(
-          name: deviceMap['name'] as String?,
-          address: deviceMap['address'] as String,
-          type: deviceMap['type'] as int?,
-          isConnected: deviceMap['isConnected'] as bool?,
-        );
-      }).toList();
+      return deviceList
+          .map((device) => BluetoothDevice.fromMap(device as Map<dynamic, dynamic>))
+          .toList();
     } catch (e) {
       print('Error getting bonded devices: $e');
       return [];
     }
   }
   
+  /// Channel for periodic link statistics
+  static const EventChannel _statsChannel =
+      EventChannel('flutter_bluetooth_serial/stats');
+
+  /// Stats of every live connection, pushed every [intervalMs] while listened
+  /// to; rates cover the interval since the previous report
+  Stream<Map<dynamic, dynamic>> statsStream({int intervalMs = 1000}) {
+    return _statsChannel
+        .receiveBroadcastStream({'intervalMs': intervalMs})
+        .map((event) => event as Map<dynamic, dynamic>);
+  }
+
+  /// Keep connections, polling and trip recording running when the app goes
+  /// to the background or its engine is destroyed, under a foreground service
+  /// showing a notification with [title] and [text]. Reopen the connections
+  /// afterwards with [BluetoothConnection.restoreSessions].
+  ///
+  /// Call it while the app is in the foreground: newer Android versions do
+  /// not let a background app start a foreground service.
+  Future<void> startBackgroundCapture({String? title, String? text}) async {
+    await _methodChannel.invokeMethod('startBackgroundCapture', {
+      if (title != null) 'title': title,
+      if (text != null) 'text': text,
+    });
+  }
+
+  /// Stop the background capture service; connections are then closed with
+  /// the engine again
+  Future<void> stopBackgroundCapture() async {
+    await _methodChannel.invokeMethod('stopBackgroundCapture');
+  }
+
+  /// Thread and queue counts of the native connection runtime
+  /// (connect pool, reader threads, poll pool, live sessions)
+  Future<Map<String, dynamic>> getRuntimeStats() async {
+    final Map<dynamic, dynamic>? stats =
+        await _methodChannel.invokeMethod('getRuntimeStats');
+    return Map<String, dynamic>.from(stats ?? {});
+  }
+  
   /// Dispose of resources
   void dispose() {
     if (!_stateController.isClosed) {
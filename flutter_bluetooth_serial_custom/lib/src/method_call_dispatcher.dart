@@ -0,0 +1,33 @@
+import 'package:flutter/services.dart';
+
+/// Handles the platform's calls of one or more methods
+typedef PlatformCallHandler = Future<dynamic> Function(MethodCall call);
+
+/// The 'flutter_bluetooth_serial' channel takes a single method call handler,
+/// which adapter state changes and connection events share: each part of the
+/// plugin registers for the methods it handles, and calls are routed by name.
+class MethodCallDispatcher {
+  MethodCallDispatcher._();
+
+  static const MethodChannel _methodChannel =
+      MethodChannel('flutter_bluetooth_serial');
+
+  static final Map<String, PlatformCallHandler> _handlers = {};
+  static bool _installed = false;
+
+  /// Routes the platform's calls of [methods] to [handler]
+  static void register(Iterable<String> methods, PlatformCallHandler handler) {
+    for (final method in methods) {
+      _handlers[method] = handler;
+    }
+    if (!_installed) {
+      _installed = true;
+      _methodChannel.setMethodCallHandler(_dispatch);
+    }
+  }
+
+  static Future<dynamic> _dispatch(MethodCall call) async {
+    final handler = _handlers[call.method];
+    return handler != null ? handler(call) : null;
+  }
+}
@@ -0,0 +1,63 @@
+import 'obd_response.dart';
+
+/// Lane a command sent with [BluetoothConnection.sendCommand] queues on.
+/// Native polling has a lane of its own between the two.
+enum CommandPriority {
+  /// Someone is waiting for the answer (DTCs, VIN): sent ahead of polling,
+  /// at the next adapter prompt
+  interactive,
+
+  /// Background work (freeze-frame dumps): sent when polling leaves a gap,
+  /// or after waiting two seconds at the latest
+  bulk,
+}
+
+/// Answer to a command sent with [BluetoothConnection.sendCommand]
+class ObdCommandResult {
+  /// Decoded OBD responses, one per answering ECU (or per PID)
+  final List<ObdResponse> responses;
+
+  /// Other lines of the answer, such as "NO DATA" or "SEARCHING..."
+  final List<String> messages;
+
+  /// Time queued behind other commands before being sent
+  final Duration waited;
+
+  /// Time from sending to the adapter prompt
+  final Duration roundTrip;
+
+  /// Answered from the native response cache without using the link;
+  /// [waited] and [roundTrip] are zero then
+  final bool cached;
+
+  /// Construct a command result
+  ObdCommandResult({
+    required this.responses,
+    required this.messages,
+    required this.waited,
+    required this.roundTrip,
+    this.cached = false,
+  });
+
+  /// Creates a command result from a map (usually from platform code)
+  factory ObdCommandResult.fromMap(Map<dynamic, dynamic> map) {
+    return ObdCommandResult(
+      responses: (map['responses'] as List<dynamic>)
+          .map((response) => ObdResponse.fromMap(response as Map))
+          .toList(),
+      messages: List<String>.from(map['messages'] as List<dynamic>),
+      waited: _duration(map['waitedMs']),
+      roundTrip: _duration(map['roundTripMs']),
+      cached: map['cached'] as bool? ?? false,
+    );
+  }
+
+  static Duration _duration(dynamic ms) =>
+      Duration(microseconds: ((ms as num) * 1000).round());
+
+  @override
+  String toString() {
+    return 'ObdCommandResult{responses: $responses, messages: $messages, '
+        'waited: $waited, roundTrip: $roundTrip, cached: $cached}';
+  }
+}
@@ -0,0 +1,34 @@
+import 'dart:typed_data';
+
+/// A complete OBD-II response decoded natively from the ELM327 byte stream
+class ObdResponse {
+  /// Request mode this response answers (e.g. 0x01 for current data)
+  final int mode;
+
+  /// PID this response answers, or -1 for modes without a PID byte
+  final int pid;
+
+  /// Value bytes following the mode/PID header (A, B, C, ...)
+  final Uint8List data;
+
+  /// Construct an OBD response
+  ObdResponse({
+    required this.mode,
+    required this.pid,
+    required this.data,
+  });
+
+  /// Creates an OBD response from a map (usually from platform code)
+  factory ObdResponse.fromMap(Map<dynamic, dynamic> map) {
+    return ObdResponse(
+      mode: map['mode'] as int,
+      pid: map['pid'] as int,
+      data: map['data'] as Uint8List,
+    );
+  }
+
+  @override
+  String toString() {
+    return 'ObdResponse{mode: $mode, pid: $pid, data: $data}';
+  }
+}
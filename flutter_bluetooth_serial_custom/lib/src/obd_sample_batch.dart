@@ -0,0 +1,69 @@
+import 'dart:typed_data';
+
+/// A batch of mode 01 samples as sent natively over the binary sample
+/// channel, read in place through [ByteData] without decoding the whole batch
+///
+/// Layout (little-endian): an 8-byte header (uint32 count, uint32 format
+/// version) followed by 24-byte records of int32 handle, int32 PID, int64
+/// monotonic timestamp in nanoseconds and float64 value.
+class ObdSampleBatch {
+  /// Format version this class reads
+  static const int formatVersion = 1;
+
+  static const int _headerSize = 8;
+  static const int _recordSize = 24;
+
+  final ByteData _data;
+
+  /// Number of samples in the batch
+  final int length;
+
+  ObdSampleBatch._(this._data, this.length);
+
+  /// Wraps a message from the sample channel; null if it is malformed or of
+  /// another format version
+  static ObdSampleBatch? tryParse(ByteData data) {
+    if (data.lengthInBytes < _headerSize) {
+      return null;
+    }
+    final count = data.getUint32(0, Endian.little);
+    final version = data.getUint32(4, Endian.little);
+    if (version != formatVersion ||
+        data.lengthInBytes < _headerSize + count * _recordSize) {
+      return null;
+    }
+    return ObdSampleBatch._(data, count);
+  }
+
+  /// Connection handle of the sample at [index]
+  int handleAt(int index) =>
+      _data.getInt32(_offset(index), Endian.little);
+
+  /// Mode 01 PID of the sample at [index]
+  int pidAt(int index) =>
+      _data.getInt32(_offset(index) + 4, Endian.little);
+
+  /// Capture time of the sample at [index] (Android elapsedRealtimeNanos)
+  int timestampNanosAt(int index) =>
+      _data.getInt64(_offset(index) + 8, Endian.little);
+
+  /// Decoded value of the sample at [index] (km/h, rpm, °C, ...), or the raw
+  /// value for PIDs without a known formula
+  double valueAt(int index) =>
+      _data.getFloat64(_offset(index) + 16, Endian.little);
+
+  /// Value of the latest sample of [pid] in the batch, or null if none
+  double? lastValueOf(int pid) {
+    for (var i = length - 1; i >= 0; i--) {
+      if (pidAt(i) == pid) {
+        return valueAt(i);
+      }
+    }
+    return null;
+  }
+
+  int _offset(int index) {
+    RangeError.checkValidIndex(index, this, 'index', length);
+    return _headerSize + index * _recordSize;
+  }
+}
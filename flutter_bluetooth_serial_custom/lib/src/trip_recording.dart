@@ -0,0 +1,66 @@
+import 'dart:typed_data';
+
+import 'package:flutter/services.dart';
+
+/// One sample from a recorded trip
+class TripSample {
+  /// Capture time relative to the start of the trip
+  final Duration time;
+
+  /// Mode 01 PID
+  final int pid;
+
+  /// Response bytes as an unsigned big-endian integer (A, AB, ABCD)
+  final int rawValue;
+
+  const TripSample(this.time, this.pid, this.rawValue);
+
+  @override
+  String toString() {
+    return 'TripSample{time: $time, pid: $pid, rawValue: $rawValue}';
+  }
+}
+
+/// Reads trip logs written natively by [BluetoothConnection.startRecording]
+class TripRecording {
+  static const MethodChannel _methodChannel =
+      MethodChannel('flutter_bluetooth_serial');
+
+  /// Stream the samples of the trip log at [path], fetched in chunks of up to
+  /// [chunkSize] samples (at most 16384) so long trips never cross the channel
+  /// in one message
+  static Stream<List<TripSample>> read(String path,
+      {int chunkSize = 4096}) async* {
+    int offset = 0;
+    int timestampUs = 0;
+    while (true) {
+      final Map<dynamic, dynamic>? chunk =
+          await _methodChannel.invokeMethod('readRecording', {
+        'path': path,
+        'offset': offset,
+        'timestampUs': timestampUs,
+        'maxSamples': chunkSize,
+      });
+      if (chunk == null) {
+        return;
+      }
+
+      // Flattened (time us, pid, raw value) triples
+      final Int64List values = chunk['samples'] as Int64List;
+      final samples = <TripSample>[];
+      for (int i = 0; i + 2 < values.length; i += 3) {
+        samples.add(TripSample(
+            Duration(microseconds: values[i]), values[i + 1], values[i + 2]));
+      }
+      if (samples.isNotEmpty) {
+        yield samples;
+      }
+
+      offset = chunk['offset'] as int;
+      timestampUs = chunk['timestampUs'] as int;
+      if (chunk['done'] as bool || samples.isEmpty) {
+        return;
+      }
+    }
+  }
+}
@@ -0,0 +1,95 @@
+/// Running statistics of a trip, computed natively from the sample stream;
+/// see [BluetoothConnection.getTripSummary]
+class TripSummary {
+  /// Samples seen so far
+  final int samples;
+
+  /// Time from the first to the latest sample
+  final Duration duration;
+
+  /// Distance driven, integrated from the speed samples
+  final double distanceKm;
+
+  /// Time spent at 1 km/h or more
+  final Duration movingTime;
+
+  /// Time stationary with the engine running
+  final Duration idleTime;
+
+  /// Distance over moving time
+  final double averageSpeedKmh;
+
+  final double maxSpeedKmh;
+
+  /// Mean and standard deviation of the speed samples
+  final double meanSpeedKmh;
+  final double speedStdDevKmh;
+
+  /// Only when engine speed (0x0C) is polled
+  final double? maxRpm;
+  final double? meanRpm;
+
+  /// From the engine fuel rate (0x5E), else estimated from MAF (0x10);
+  /// null when neither is polled
+  final double? fuelLitres;
+
+  /// Upper bounds of the speed bands; the last band is open ended, so
+  /// [speedBandTime] has one entry more
+  final List<double> speedBandLimitsKmh;
+  final List<Duration> speedBandTime;
+
+  /// Driving events detected on the trip by type name, see [DrivingEvent]
+  final Map<String, int> events;
+
+  const TripSummary({
+    required this.samples,
+    required this.duration,
+    required this.distanceKm,
+    required this.movingTime,
+    required this.idleTime,
+    required this.averageSpeedKmh,
+    required this.maxSpeedKmh,
+    required this.meanSpeedKmh,
+    required this.speedStdDevKmh,
+    this.maxRpm,
+    this.meanRpm,
+    this.fuelLitres,
+    required this.speedBandLimitsKmh,
+    required this.speedBandTime,
+    required this.events,
+  });
+
+  /// Creates a summary from the map sent by the platform
+  factory TripSummary.fromMap(Map<dynamic, dynamic> map) {
+    Duration ms(String key) => Duration(milliseconds: map[key] as int);
+    return TripSummary(
+      samples: map['samples'] as int,
+      duration: ms('durationMs'),
+      distanceKm: (map['distanceKm'] as num).toDouble(),
+      movingTime: ms('movingTimeMs'),
+      idleTime: ms('idleTimeMs'),
+      averageSpeedKmh: (map['averageSpeedKmh'] as num).toDouble(),
+      maxSpeedKmh: (map['maxSpeedKmh'] as num).toDouble(),
+      meanSpeedKmh: (map['meanSpeedKmh'] as num).toDouble(),
+      speedStdDevKmh: (map['speedStdDevKmh'] as num).toDouble(),
+      maxRpm: (map['maxRpm'] as num?)?.toDouble(),
+      meanRpm: (map['meanRpm'] as num?)?.toDouble(),
+      fuelLitres: (map['fuelLitres'] as num?)?.toDouble(),
+      speedBandLimitsKmh: (map['speedBandLimitsKmh'] as List<dynamic>)
+          .map((limit) => (limit as num).toDouble())
+          .toList(),
+      speedBandTime: (map['speedBandTimeMs'] as List<dynamic>)
+          .map((time) => Duration(milliseconds: time as int))
+          .toList(),
+      events: Map<String, int>.from(map['events'] as Map<dynamic, dynamic>),
+    );
+  }
+
+  @override
+  String toString() {
+    return 'TripSummary{distanceKm: ${distanceKm.toStringAsFixed(2)}, '
+        'duration: $duration, idleTime: $idleTime, '
+        'averageSpeedKmh: ${averageSpeedKmh.toStringAsFixed(1)}, '
+        'maxSpeedKmh: $maxSpeedKmh, events: $events}';
+  }
+}
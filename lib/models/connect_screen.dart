@@ -21,6 +21,7 @@ class _ConnectScreenState extends State<ConnectScreen> {
 
   // إضافات جديدة لحل المشاكل
   StreamSubscription<Uint8List>? dataSubscription;
+  StreamSubscription<BluetoothDevice>? scanSubscription;
   Timer? keepAliveTimer;
   Timer? reconnectTimer;
   BluetoothDevice? currentDevice; // حفظ الجهاز الحالي للإعادة الاتصال
@@ -105,46 +106,68 @@ class _ConnectScreenState extends State<ConnectScreen> {
       }
     }
 
-    try {
-      if (mounted) {
-        setState(() {
-          devices = [];
-        });
-      }
-
-      List<BluetoothDevice> bondedDevices =
-      await FlutterBluetoothSerial.instance.getBondedDevices();
+    if (mounted) {
+      setState(() {
+        devices = [];
+      });
+    }
 
-      if (mounted) {
-        setState(() {
-          devices = bondedDevices;
-        });
+    // Paired devices show up at once, nearby ones as they are found; all are
+    // listed, with the ones that look like OBD adapters first
+    await scanSubscription?.cancel();
+    scanSubscription = BluetoothDiscovery.instance.scan().listen(
+      (device) {
+        if (mounted) {
+          setState(() {
+            final rank = _listRank(device);
+            final sorted = [...devices];
+            final index = sorted.indexWhere((d) => _listRank(d) > rank);
+            sorted.insert(index < 0 ? sorted.length : index, device);
+            devices = sorted;
+          });
+        }
+      },
+      onError: (e) {
+        print("Error discovering devices: $e");
+        if (mounted) {
+          ScaffoldMessenger.of(context).showSnackBar(
+            SnackBar(
+              content: Text('Error: $e'),
+              backgroundColor: Colors.red,
+            ),
+          );
+        }
+      },
+      onDone: () {
+        scanSubscription = null;
+        if (mounted) {
+          ScaffoldMessenger.of(context).showSnackBar(
+            SnackBar(
+              content: Text('Found ${devices.length} devices'),
+              backgroundColor: Colors.blue,
+              duration: const Duration(seconds: 2),
+            ),
+          );
+        }
+      },
+    );
+  }
 
-        ScaffoldMessenger.of(context).showSnackBar(
-          SnackBar(
-            content: Text('Found ${devices.length} paired devices'),
-            backgroundColor: Colors.blue,
-            duration: const Duration(seconds: 2),
-          ),
-        );
-      }
-    } catch (e) {
-      print("Error discovering devices: $e");
-      if (mounted) {
-        ScaffoldMessenger.of(context).showSnackBar(
-          SnackBar(
-            content: Text('Error: $e'),
-            backgroundColor: Colors.red,
-          ),
-        );
-      }
-    }
+  // Likely OBD adapters, then other paired devices, then the rest
+  static int _listRank(BluetoothDevice device) {
+    if (device.isLikelyObd == true) return 0;
+    if (device.isBonded == true) return 1;
+    return 2;
   }
 
   // Connect to specific device مع معالجة أفضل للأخطاء
   void _connectToDevice(BluetoothDevice device) async {
     if (isConnecting || !mounted) return;
 
+    // Discovery would slow down the connect
+    scanSubscription?.cancel();
+    scanSubscription = null;
+
     if (mounted) {
       setState(() {
         isConnecting = true;
@@ -158,10 +181,12 @@ class _ConnectScreenState extends State<ConnectScreen> {
       // محاولة الاتصال مع timeout
       BluetoothConnection newConnection = await BluetoothConnection.toAddress(
         device.address,
+        initializeAdapter: true,
       ).timeout(
-        Duration(seconds: 10),
+        // The first connect to an adapter also probes its supported PIDs
+        Duration(seconds: 30),
         onTimeout: () {
-          throw TimeoutException('Connection timeout after 10 seconds');
+          throw TimeoutException('Connection timeout after 30 seconds');
         },
       );
 
@@ -503,12 +528,18 @@ class _ConnectScreenState extends State<ConnectScreen> {
       ),
       child: ListTile(
         onTap: isConnecting || isConnected ? null : () => _connectToDevice(device),
+        leading: Icon(
+          Icons.directions_car,
+          color: device.isLikelyObd == true ? Colors.green : Colors.white24,
+        ),
         title: Text(
           device.name ?? "Unknown Device",
           style: const TextStyle(color: Colors.white),
         ),
         subtitle: Text(
-          'Address: ${device.address}',
+          device.isLikelyObd == true
+              ? 'OBD adapter · ${device.address}'
+              : 'Address: ${device.address}',
           style: const TextStyle(color: Colors.white70),
         ),
         trailing: isConnecting
@@ -532,6 +563,7 @@ class _ConnectScreenState extends State<ConnectScreen> {
     _stopKeepAlive();
     reconnectTimer?.cancel();
     dataSubscription?.cancel();
+    scanSubscription?.cancel();
 
     if (connection != null) {
       connection!.finish();
@@ -1,5 +1,4 @@
 import 'dart:async';
-import 'dart:typed_data';
 import 'package:flutter/material.dart';
 import 'package:flutter_bluetooth_serial/flutter_bluetooth_serial.dart';
 
@@ -13,67 +12,76 @@ class TripScreen extends StatefulWidget {
 }
 
 class _TripScreenState extends State<TripScreen> {
-  StreamSubscription<Uint8List>? _subscription;
+  StreamSubscription<ObdSampleBatch>? _subscription;
+  StreamSubscription<DrivingEvent>? _eventSubscription;
+  Timer? _harshBrakingTimer;
+  Timer? _summaryTimer;
+  TripSummary? summary;
   String speed = "0";
   bool harshBraking = false;
-  double? previousSpeed;
-  DateTime? lastSpeedUpdateTime;
   final double harshBrakingThreshold = 10.0; // كمثال: 10 كم/س خلال ثانية
+  final Duration harshBrakingDisplayTime = const Duration(seconds: 3);
 
   @override
   void initState() {
     super.initState();
     _listenToOBDData();
+    _listenToDrivingEvents();
     _sendOBDCommands();
+    _refreshSummary();
   }
 
-  void _sendOBDCommands() {
-    Timer.periodic(Duration(seconds: 1), (timer) async {
+  void _refreshSummary() {
+    // Distance, averages and idle time are aggregated natively; one small map a second
+    _summaryTimer = Timer.periodic(const Duration(seconds: 1), (_) async {
       try {
-        bool connected = await widget.connection.isConnected;
-        if (connected) {
-          widget.connection.output.add(Uint8List.fromList("010D\r".codeUnits));
-        } else {
-          timer.cancel();
+        final latest = await widget.connection.getTripSummary();
+        if (mounted) {
+          setState(() => summary = latest);
         }
       } catch (e) {
-        print("Error checking connection or sending command: $e");
-        timer.cancel();
+        print("Error reading trip summary: $e");
       }
     });
   }
 
+  void _sendOBDCommands() {
+    // Speed is polled natively at 5 Hz; samples arrive on connection.samples
+    widget.connection.startPolling({0x0D: 5.0}).catchError((e) {
+      print("Error starting speed polling: $e");
+    });
 
-  void _listenToOBDData() {
-    _subscription = widget.connection.input?.listen((Uint8List data) {
-      final response = String.fromCharCodes(data).replaceAll('\r', '').trim();
-
-      if (response.contains('41 0D')) {
-        try {
-          final parts = response.split(' ');
-          final hexSpeed = parts.last;
-          final intSpeed = int.parse(hexSpeed, radix: 16);
-          final now = DateTime.now();
-
-          if (previousSpeed != null && lastSpeedUpdateTime != null) {
-            final deltaTime = now.difference(lastSpeedUpdateTime!).inSeconds;
-            final speedDiff = previousSpeed! - intSpeed;
+    // Harsh braking is detected natively from the same samples
+    widget.connection
+        .startEventDetection(harshBrakingKmhPerS: harshBrakingThreshold)
+        .catchError((e) {
+      print("Error starting event detection: $e");
+    });
+  }
 
-            if (deltaTime > 0 && speedDiff / deltaTime >= harshBrakingThreshold) {
-              setState(() => harshBraking = true);
-              print("Harsh braking detected!");
-            } else {
-              setState(() => harshBraking = false);
-            }
-          }
+  void _listenToDrivingEvents() {
+    _eventSubscription = widget.connection.drivingEvents.listen((event) {
+      if (event.type != DrivingEventType.harshBraking) {
+        return;
+      }
+      print("Harsh braking detected! ${event.value.toStringAsFixed(1)} km/h/s");
+      setState(() => harshBraking = true);
+      _harshBrakingTimer?.cancel();
+      _harshBrakingTimer = Timer(harshBrakingDisplayTime, () {
+        if (mounted) {
+          setState(() => harshBraking = false);
+        }
+      });
+    });
+  }
 
-          previousSpeed = intSpeed.toDouble();
-          lastSpeedUpdateTime = now;
 
-          setState(() => speed = intSpeed.toString());
-        } catch (e) {
-          print("Error parsing speed: $e");
-        }
+  void _listenToOBDData() {
+    _subscription = widget.connection.samples.listen((ObdSampleBatch batch) {
+      // Mode 01 PID 0D: vehicle speed in km/h, decoded natively
+      final latestSpeed = batch.lastValueOf(0x0D);
+      if (latestSpeed != null) {
+        setState(() => speed = latestSpeed.round().toString());
       }
     }, onError: (error) {
       print("Error receiving data: $error");
@@ -84,6 +92,11 @@ class _TripScreenState extends State<TripScreen> {
 
   @override
   void dispose() {
+    widget.connection.stopPolling().catchError((_) {});
+    widget.connection.stopEventDetection().catchError((_) {});
+    _harshBrakingTimer?.cancel();
+    _summaryTimer?.cancel();
+    _eventSubscription?.cancel();
     _subscription?.cancel();
     super.dispose();
   }
@@ -111,6 +124,23 @@ class _TripScreenState extends State<TripScreen> {
                 color: harshBraking ? Colors.red : Colors.green,
               ),
             ),
+            if (summary != null) ...[
+              SizedBox(height: 24),
+              Text(
+                'Distance: ${summary!.distanceKm.toStringAsFixed(2)} km',
+                style: TextStyle(fontSize: 18, color: Colors.white),
+              ),
+              Text(
+                'Average: ${summary!.averageSpeedKmh.toStringAsFixed(0)} km/h'
+                '  Max: ${summary!.maxSpeedKmh.toStringAsFixed(0)} km/h',
+                style: TextStyle(fontSize: 18, color: Colors.white),
+              ),
+              Text(
+                'Idle: ${summary!.idleTime.inMinutes} min'
+                '  Harsh braking: ${summary!.events['harshBraking'] ?? 0}',
+                style: TextStyle(fontSize: 18, color: Colors.white),
+              ),
+            ],
           ],
         ),
       ),